@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmark runner
+ * 
+ * Runs the benchmarks selected by the JMH command line, every one by default,
+ * with the GC profiler so the allocation rate is reported next to the
+ * throughput. Results are written as CSV to results.csv unless the command
+ * line says otherwise, ready to be compared with a baseline by
+ * {@link Compare}.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public final class Benchmarks {
+
+    /**
+     * Default results file
+     */
+    public static final String RESULTS = "results.csv";
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Runs the benchmarks
+     * 
+     * @param args JMH command line
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder()
+            .parent(cli)
+            .addProfiler(GCProfiler.class);
+
+        if (!cli.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.CSV);
+        }
+
+        if (!cli.getResult().hasValue()) {
+            options.result(RESULTS);
+        }
+
+        new Runner(options.build()).run();
+    }
+}
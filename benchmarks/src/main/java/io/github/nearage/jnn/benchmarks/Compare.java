@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Comparison of benchmark results with a baseline
+ * 
+ * Reads two CSV result files written by {@link Benchmarks} and prints the
+ * change of the throughput and of the bytes allocated per operation of every
+ * benchmark found in both. A benchmark regresses when its throughput drops, or
+ * its allocation grows, by more than the given fraction and beyond the error
+ * of both measurements. The exit status is 1 if any benchmark regressed.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public final class Compare {
+
+    /**
+     * Default fraction of change tolerated
+     */
+    public static final double THRESHOLD = 0.1d;
+
+    /**
+     * Suffix of the allocation metric of the GC profiler
+     */
+    private static final String ALLOCATION = ":gc.alloc.rate.norm";
+
+    /**
+     * Prefix of the names of the benchmarks
+     */
+    private static final String PACKAGE = Compare.class.getPackageName() + ".";
+
+    private Compare() {
+    }
+
+    /**
+     * Score of a benchmark
+     */
+    private static final class Score {
+        final double value;
+        final double error;
+        final String unit;
+
+        Score(double value, double error, String unit) {
+            this.value = value;
+            this.error = Double.isNaN(error) ? 0d : error;
+            this.unit = unit;
+        }
+    }
+
+    /**
+     * Compares two result files
+     * 
+     * @param args baseline file, results file and, optionally, the fraction of
+     * change tolerated
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println(
+                "Usage: Compare <baseline.csv> <results.csv> [threshold]"
+            );
+            System.exit(2);
+        }
+
+        Map<String, Score> baseline = read(Path.of(args[0]));
+        Map<String, Score> results = read(Path.of(args[1]));
+        double threshold = args.length > 2
+            ? Double.parseDouble(args[2])
+            : THRESHOLD;
+
+        int regressions = 0;
+
+        for (Map.Entry<String, Score> entry : results.entrySet()) {
+            String key = entry.getKey();
+            Score current = entry.getValue();
+            Score base = baseline.get(key);
+
+            boolean allocation = key.contains(ALLOCATION);
+            boolean throughput = current.unit.startsWith("ops/");
+
+            if (base == null || !(allocation || throughput)) {
+                continue;
+            }
+
+            double change = base.value == 0d
+                ? (current.value == 0d ? 0d : Double.POSITIVE_INFINITY)
+                : (current.value - base.value) / base.value;
+
+            boolean regressed = allocation
+                ? change > threshold
+                    && current.value - current.error
+                        > base.value + base.error + 1d
+                : change < -threshold
+                    && current.value + current.error
+                        < base.value - base.error;
+
+            if (regressed) {
+                regressions++;
+            }
+
+            System.out.printf("%-4s %-72s %14.3f %14.3f %8.1f%% %s%n",
+                regressed ? "FAIL" : "ok",
+                key,
+                base.value,
+                current.value,
+                change * 100d,
+                current.unit
+            );
+        }
+
+        System.out.printf("%d regressions%n", regressions);
+
+        if (regressions > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads the scores of a CSV result file by benchmark and parameters
+     */
+    private static Map<String, Score> read(Path path) throws Exception {
+        List<String> lines = Files.readAllLines(path);
+        Map<String, Score> scores = new LinkedHashMap<>();
+
+        if (lines.isEmpty()) {
+            return scores;
+        }
+
+        List<String> header = split(lines.get(0));
+
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) {
+                continue;
+            }
+
+            List<String> fields = split(line);
+            StringBuilder key = new StringBuilder(
+                fields.get(0).replace(PACKAGE, "")
+            );
+
+            // Parameter columns follow the unit
+            for (int f = 7; f < fields.size(); f++) {
+                if (!fields.get(f).isEmpty()) {
+                    key.append(' ')
+                        .append(header.get(f).replace("Param: ", ""))
+                        .append('=')
+                        .append(fields.get(f));
+                }
+            }
+
+            scores.put(key.toString(), new Score(
+                number(fields.get(4)),
+                number(fields.get(5)),
+                fields.get(6)
+            ));
+        }
+
+        return scores;
+    }
+
+    /**
+     * Parses a number of a result file, which may be NaN
+     */
+    private static double number(String field) {
+        return field.isEmpty() ? Double.NaN : Double.parseDouble(field);
+    }
+
+    /**
+     * Splits a CSV line into its fields, removing their quotes
+     */
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int c = 0; c < line.length(); c++) {
+            char ch = line.charAt(c);
+
+            if (ch == '"') {
+                quoted = !quoted;
+            } else if (ch == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(ch);
+            }
+        }
+
+        fields.add(field.toString());
+
+        return fields;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.benchmarks;
+
+import io.github.nearage.jnn.input.Matrix;
+import io.github.nearage.jnn.model.layer.Dense;
+import io.github.nearage.jnn.processing.Activation;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the forward pass of a {@link Dense} layer over images of
+ * 28x28 pixels
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class DenseBenchmark {
+
+    /**
+     * Inputs of each sample
+     */
+    public static final int INPUTS = 784;
+
+    /**
+     * Samples of the batch
+     */
+    @Param({"1", "64"})
+    public int batch;
+
+    /**
+     * Neurons of the layer
+     */
+    @Param({"128", "512"})
+    public int neurs;
+
+    private Dense dense;
+    private Matrix input;
+    private Matrix output;
+
+    @Setup
+    public void setup() throws Exception {
+        this.dense = new Dense(this.neurs, Activation.Sigmoid);
+        this.dense.build(INPUTS);
+        this.input = new Matrix(this.batch, INPUTS);
+        this.output = new Matrix(this.batch, this.neurs);
+
+        this.input.randomize(0, 1);
+    }
+
+    @Benchmark
+    public Matrix activate() throws Exception {
+        this.dense.activate(this.input, this.output);
+
+        return this.output;
+    }
+}
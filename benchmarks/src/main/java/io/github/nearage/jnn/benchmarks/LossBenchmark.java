@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.benchmarks;
+
+import io.github.nearage.jnn.input.Matrix;
+import io.github.nearage.jnn.processing.Loss;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of each {@link Loss} function and its derivative over a batch of
+ * predictions
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class LossBenchmark {
+
+    /**
+     * Name of the loss, as declared in {@link Loss}
+     */
+    @Param({"MeanSquaredError"})
+    public String loss;
+
+    /**
+     * Rows of the batch
+     */
+    @Param({"128"})
+    public int rows;
+
+    /**
+     * Cols of the batch
+     */
+    @Param({"10"})
+    public int cols;
+
+    private Loss[] function;
+    private Matrix input;
+    private Matrix target;
+    private Matrix output;
+
+    @Setup
+    public void setup() throws Exception {
+        this.function = (Loss[]) Loss.class.getField(this.loss).get(null);
+        this.input = new Matrix(this.rows, this.cols);
+        this.target = new Matrix(this.rows, this.cols);
+        this.output = new Matrix(this.rows, this.cols);
+
+        this.input.randomize(0, 1);
+        this.target.randomize(0, 1);
+    }
+
+    @Benchmark
+    public Matrix apply() throws Exception {
+        return this.function[0].apply(this.input, this.target);
+    }
+
+    @Benchmark
+    public Matrix derivative() throws Exception {
+        this.function[1].apply(this.input, this.target, this.output);
+
+        return this.output;
+    }
+}
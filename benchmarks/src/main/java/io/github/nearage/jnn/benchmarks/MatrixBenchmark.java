@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.benchmarks;
+
+import io.github.nearage.jnn.input.Matrix;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the transposition, reduction and mapping of a {@link Matrix}
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class MatrixBenchmark {
+
+    /**
+     * Rows and cols of the matrix
+     */
+    @Param({"64", "256", "1024"})
+    public int size;
+
+    private Matrix a;
+    private Matrix out;
+
+    @Setup
+    public void setup() {
+        this.a = new Matrix(this.size, this.size);
+        this.out = new Matrix(this.size, this.size);
+
+        this.a.randomize(-1, 1);
+    }
+
+    @Benchmark
+    public Matrix transpose() {
+        return this.a.transpose();
+    }
+
+    @Benchmark
+    public Matrix transposeInto() throws Exception {
+        this.a.transpose(this.out);
+
+        return this.out;
+    }
+
+    @Benchmark
+    public Matrix reduce() {
+        return this.a.reduce(0, 0d, Double::sum);
+    }
+
+    @Benchmark
+    public Matrix apply() {
+        // Negation keeps the elements in range across invocations
+        this.a.apply(x -> -x);
+
+        return this.a;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.benchmarks;
+
+import io.github.nearage.jnn.input.Batch;
+import io.github.nearage.jnn.input.Matrix;
+import io.github.nearage.jnn.model.Sequential;
+import io.github.nearage.jnn.model.layer.Dense;
+import io.github.nearage.jnn.processing.Activation;
+import io.github.nearage.jnn.processing.Loss;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the inference and the training step of a {@link Sequential}
+ * model classifying images of 28x28 pixels into 10 classes
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class SequentialBenchmark {
+
+    /**
+     * Inputs of each sample
+     */
+    public static final int INPUTS = 784;
+
+    /**
+     * Outputs of each sample
+     */
+    public static final int OUTPUTS = 10;
+
+    /**
+     * Samples of the batch
+     */
+    @Param({"1", "32", "128"})
+    public int batch;
+
+    private Sequential model;
+    private Matrix input;
+    private Matrix output;
+    private List<Batch> batches;
+
+    @Setup
+    public void setup() throws Exception {
+        this.model = new Sequential(
+            new Dense(256, Activation.RectifiedLinearUnit),
+            new Dense(128, Activation.RectifiedLinearUnit),
+            new Dense(OUTPUTS, Activation.Sigmoid)
+        );
+        this.input = new Matrix(this.batch, INPUTS);
+        this.output = new Matrix(this.batch, OUTPUTS);
+
+        Matrix target = new Matrix(this.batch, OUTPUTS);
+
+        this.input.randomize(0, 1);
+        target.randomize(0, 1);
+
+        this.batches = List.of(new Batch(this.input, target));
+
+        // Builds the model and its buffers
+        this.model.predict(this.input, this.output);
+
+        // Trains without metrics
+        this.model.setListeners();
+    }
+
+    @Benchmark
+    public Matrix predict() throws Exception {
+        this.model.predict(this.input, this.output);
+
+        return this.output;
+    }
+
+    @Benchmark
+    public Sequential train() throws Exception {
+        this.model.train(1, this.batches, Loss.MeanSquaredError, 1e-3);
+
+        return this.model;
+    }
+}
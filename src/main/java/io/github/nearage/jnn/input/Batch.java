@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.input;
+
+/**
+ * Batch of samples, inputs with their targets
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public class Batch {
+
+    /**
+     * Input data
+     */
+    public final Matrix input;
+
+    /**
+     * Target data
+     */
+    public final Matrix target;
+
+    /**
+     * Creates a batch with the given inputs and targets
+     * 
+     * @param input input data
+     * @param target target data
+     */
+    public Batch(Matrix input, Matrix target) {
+        this.input = input;
+        this.target = target;
+    }
+}
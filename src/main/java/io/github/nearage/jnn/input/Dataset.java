@@ -42,26 +42,260 @@ public class Dataset {
                 batchSize = reminder;
             }
 
-            Matrix input = new Matrix(batchSize, params);
-            input.randomize(-1, 1);
+            Batch batch = sum_batch(batchSize, params);
 
-            Matrix target = new Matrix(batchSize, 2);
-            Matrix sum = input.reduce(0, 0d, (y, x) -> y + x);
+            in[n] = batch.input;
+            tg[n] = batch.target;
+        }
+
+        return new Dataset(in, tg);
+    }
+
+    /**
+     * Creates a source generating the batches of generate_sum lazily, for a
+     * {@link DatasetStream}
+     * 
+     * @param inputs number of samples
+     * @param params number of params of each sample
+     * @param batchSize samples per batch
+     * 
+     * @return the source
+     */
+    public static DatasetStream.Source stream_sum(int inputs, int params, int batchSize) {
+        int[] generated = {0};
+
+        return () -> {
+            int rows = Math.min(batchSize, inputs - generated[0]);
+
+            if (rows <= 0) {
+                return null;
+            }
+
+            generated[0] += rows;
+
+            return sum_batch(rows, params);
+        };
+    }
+
+    /**
+     * Generates a batch of random samples whose target is whether their params
+     * add up to a positive number
+     * 
+     * @param rows number of samples
+     * @param params number of params of each sample
+     * 
+     * @return the batch
+     */
+    private static Batch sum_batch(int rows, int params) {
+        Matrix input = new Matrix(rows, params);
+        input.randomize(-1, 1);
+
+        Matrix target = new Matrix(rows, 2);
+        Matrix sum = input.reduce(0, 0d, (y, x) -> y + x);
 
-            target.map((i, j)
-                -> (sum.get(i, 0) > 0d)
-                ? (j == 0 ? 1d : 0d)
-                : (j == 1 ? 1d : 0d)
-            );
+        target.map((i, j)
+            -> (sum.get(i, 0) > 0d)
+            ? (j == 0 ? 1d : 0d)
+            : (j == 1 ? 1d : 0d)
+        );
 
-            in[n] = input;
-            tg[n] = target;
+        return new Batch(input, target);
+    }
+
+    /**
+     * Splits the given samples into batches of the given size without copying
+     * them, each batch is a view of its rows, the last batch holds the
+     * remaining samples
+     * 
+     * @param inputs inputs, one sample per row
+     * @param targets targets, one sample per row
+     * @param batchSize samples per batch
+     * 
+     * @return the dataset of views
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static Dataset slice(
+        Matrix inputs,
+        Matrix targets,
+        int batchSize
+    ) throws Exception {
+        if (batchSize < 1) {
+            throw new Exception(String.format(
+                "Invalid batch size, batchSize = %d",
+                batchSize
+            ));
+        }
+
+        if (inputs.rows != targets.rows) {
+            throw new Exception(String.format(
+                "Shape mismatch in slice, inputs = (%d, %d) and targets = (%d, %d)",
+                inputs.rows,
+                inputs.cols,
+                targets.rows,
+                targets.cols
+            ));
+        }
+
+        int batches = (inputs.rows + batchSize - 1) / batchSize;
+
+        Matrix[] in = new Matrix[batches];
+        Matrix[] tg = new Matrix[batches];
+
+        for (int n = 0; n < batches; n++) {
+            int from = n * batchSize;
+            int to = Math.min(inputs.rows, from + batchSize);
+
+            in[n] = inputs.slice(from, to);
+            tg[n] = targets.slice(from, to);
         }
 
         return new Dataset(in, tg);
     }
 
-    public static Dataset batch() {
-        return null;
+    /**
+     * Splits the samples of a dataset into new batches of the given size, the
+     * last batch holds the remaining samples
+     * 
+     * @param dataset dataset to split
+     * @param batchSize samples per batch
+     * 
+     * @return the new dataset
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static Dataset batch(Dataset dataset, int batchSize) throws Exception {
+        if (batchSize < 1) {
+            throw new Exception(String.format(
+                "Invalid batch size, batchSize = %d",
+                batchSize
+            ));
+        }
+
+        int samples = 0;
+
+        for (int n = 0; n < dataset.inputs.length; n++) {
+            if (dataset.inputs[n].rows != dataset.targets[n].rows) {
+                throw new Exception(String.format(
+                    "Shape mismatch in batch %d, inputs = (%d, %d) and targets = (%d, %d)",
+                    n,
+                    dataset.inputs[n].rows,
+                    dataset.inputs[n].cols,
+                    dataset.targets[n].rows,
+                    dataset.targets[n].cols
+                ));
+            }
+
+            samples += dataset.inputs[n].rows;
+        }
+
+        int batches = (samples + batchSize - 1) / batchSize;
+
+        return new Dataset(
+            rechunk(dataset.inputs, samples, batches, batchSize),
+            rechunk(dataset.targets, samples, batches, batchSize)
+        );
+    }
+
+    /**
+     * Copies the rows of the given batches into new batches of the given size
+     * 
+     * @param source batches to copy
+     * @param samples total number of rows
+     * @param batches number of new batches
+     * @param batchSize rows per new batch
+     * 
+     * @return the new batches
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private static Matrix[] rechunk(
+        Matrix[] source,
+        int samples,
+        int batches,
+        int batchSize
+    ) throws Exception {
+        Matrix[] result = new Matrix[batches];
+        int cols = source.length > 0 ? source[0].cols : 0;
+
+        // Current source batch and row
+        int n = 0;
+        int row = 0;
+
+        for (int b = 0; b < batches; b++) {
+            int rows = Math.min(batchSize, samples - b * batchSize);
+
+            result[b] = new Matrix(rows, cols);
+
+            // Copy contiguous runs of rows from the source batches
+            for (int filled = 0; filled < rows;) {
+                while (row == source[n].rows) {
+                    n++;
+                    row = 0;
+                }
+
+                if (source[n].cols != cols) {
+                    throw new Exception(String.format(
+                        "Shape mismatch in batch %d, cols = %d and expected = %d",
+                        n,
+                        source[n].cols,
+                        cols
+                    ));
+                }
+
+                int count = Math.min(rows - filled, source[n].rows - row);
+
+                source[n].storage().get(
+                    row * cols,
+                    result[b].array(), filled * cols,
+                    count * cols
+                );
+
+                filled += count;
+                row += count;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the share of the batches of a dataset taken by one of several
+     * members training together, every count-th batch from the given index.
+     * Every member gets the same number of batches, the batches left over
+     * are dropped.
+     * 
+     * @param dataset dataset to share
+     * @param index index of the member, from 0
+     * @param count number of members
+     * 
+     * @return the share of the member
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static Dataset shard(
+        Dataset dataset,
+        int index,
+        int count
+    ) throws Exception {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new Exception(String.format(
+                "Invalid shard, index = %d and count = %d",
+                index,
+                count
+            ));
+        }
+
+        int batches = dataset.inputs.length / count;
+
+        Matrix[] in = new Matrix[batches];
+        Matrix[] tg = new Matrix[batches];
+
+        for (int n = 0; n < batches; n++) {
+            in[n] = dataset.inputs[n * count + index];
+            tg[n] = dataset.targets[n * count + index];
+        }
+
+        return new Dataset(in, tg);
     }
 }
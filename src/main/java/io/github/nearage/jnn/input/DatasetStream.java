@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.input;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * Streaming dataset
+ * 
+ * Each iteration opens a new source and runs it on a background thread, which
+ * generates, transforms and optionally shuffles batches ahead of the consumer
+ * into a bounded queue. The next batch is ready while the current one is being
+ * trained on, and at most prefetch + shuffle + 2 batches are held in memory.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public class DatasetStream implements Iterable<Batch> {
+
+    /**
+     * Source of the batches of one pass over the data, which must generate
+     * new batches, since transformations change them in place
+     */
+    @FunctionalInterface
+    public interface Source {
+
+        /**
+         * Generates the next batch
+         * 
+         * @return the next batch, or null at the end of the pass
+         * 
+         * @throws Exception a base exception with an error message
+         */
+        public Batch next() throws Exception;
+    }
+
+    /**
+     * Transformation applied in place to each batch on the background thread
+     */
+    @FunctionalInterface
+    public interface Transform {
+
+        /**
+         * Transforms the given batch
+         * 
+         * @param batch batch to transform
+         * 
+         * @throws Exception a base exception with an error message
+         */
+        public void apply(Batch batch) throws Exception;
+    }
+
+    /**
+     * Opens a source for each pass
+     */
+    private final Supplier<Source> sources;
+
+    /**
+     * Number of batches prepared ahead of the consumer
+     */
+    private final int prefetch;
+
+    /**
+     * Number of batches in the shuffle window, 0 keeps the source order
+     */
+    private final int shuffle;
+
+    /**
+     * Transformation of each batch, or null
+     */
+    private final Transform transform;
+
+    /**
+     * Creates a stream over the given sources
+     * 
+     * @param sources opens a source for each pass
+     * @param prefetch number of batches prepared ahead, at least 1
+     * @param shuffle number of batches in the shuffle window, 0 keeps the
+     * source order
+     * @param transform transformation of each batch, or null
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public DatasetStream(
+        Supplier<Source> sources,
+        int prefetch,
+        int shuffle,
+        Transform transform
+    ) throws Exception {
+        if (prefetch < 1 || shuffle < 0) {
+            throw new Exception(String.format(
+                "Invalid stream, prefetch = %d and shuffle = %d",
+                prefetch,
+                shuffle
+            ));
+        }
+
+        this.sources = sources;
+        this.prefetch = prefetch;
+        this.shuffle = shuffle;
+        this.transform = transform;
+    }
+
+    /**
+     * Creates a source over the batches of an in-memory dataset, copying
+     * each batch so transformations leave the dataset unchanged
+     * 
+     * @param dataset dataset
+     * 
+     * @return the source
+     */
+    public static Source of(Dataset dataset) {
+        int[] n = {0};
+
+        return () -> {
+            if (n[0] >= dataset.inputs.length) {
+                return null;
+            }
+
+            Batch batch = new Batch(
+                copy(dataset.inputs[n[0]]),
+                copy(dataset.targets[n[0]])
+            );
+
+            n[0]++;
+
+            return batch;
+        };
+    }
+
+    /**
+     * Copies a matrix to a new one on the heap
+     * 
+     * @param matrix matrix to copy
+     * 
+     * @return the copy
+     */
+    private static Matrix copy(Matrix matrix) {
+        Matrix result = new Matrix(matrix.rows, matrix.cols);
+
+        matrix.storage().get(0, result.array(), 0, matrix.rows * matrix.cols);
+
+        return result;
+    }
+
+    /**
+     * Creates a transformation standardizing each input col, x = (x - mean) /
+     * std
+     * 
+     * @param mean mean of each col, a single row
+     * @param std standard deviation of each col, a single row
+     * 
+     * @return the transformation
+     */
+    public static Transform standardize(Matrix mean, Matrix std) {
+        return batch -> {
+            Matrix input = batch.input;
+
+            if (mean.cols != input.cols || std.cols != input.cols) {
+                throw new Exception(String.format(
+                    "Shape mismatch in standardize, input = (%d, %d) and mean = (%d, %d)",
+                    input.rows,
+                    input.cols,
+                    mean.rows,
+                    mean.cols
+                ));
+            }
+
+            if (!input.isHeap() || !mean.isHeap() || !std.isHeap()) {
+                input.iterate((i, j) -> input.set(
+                    i,
+                    j,
+                    (input.get(i, j) - mean.get(0, j)) / std.get(0, j)
+                ));
+
+                return;
+            }
+
+            double[] x = input.array();
+            double[] m = mean.array();
+            double[] s = std.array();
+
+            for (int i = 0; i < input.rows; i++) {
+                int row = i * input.cols;
+
+                for (int j = 0; j < input.cols; j++) {
+                    x[row + j] = (x[row + j] - m[j]) / s[j];
+                }
+            }
+        };
+    }
+
+    /**
+     * Starts a pass over the data on a new background thread. The returned
+     * iterator should be closed if it is not consumed to the end.
+     * 
+     * @return iterator over the batches of the pass
+     */
+    @Override
+    public Pass iterator() {
+        return new Pass(this.sources.get());
+    }
+
+    /**
+     * One pass over the data, fed by a background thread
+     */
+    public class Pass implements Iterator<Batch>, AutoCloseable {
+
+        /**
+         * Marks the end of the pass in the queue
+         */
+        private final Object end = new Object();
+
+        /**
+         * Batches ready for the consumer, the end mark or a failure
+         */
+        private final BlockingQueue<Object> queue;
+
+        /**
+         * Producer thread
+         */
+        private final Thread producer;
+
+        /**
+         * Next element taken from the queue
+         */
+        private Object next;
+
+        /**
+         * Starts the producer of the given source
+         * 
+         * @param source source of the pass
+         */
+        Pass(Source source) {
+            this.queue = new ArrayBlockingQueue<>(DatasetStream.this.prefetch);
+            this.producer = new Thread(() -> this.produce(source), "jnn-prefetch");
+            this.producer.setDaemon(true);
+            this.producer.start();
+        }
+
+        /**
+         * Generates, transforms and shuffles batches into the queue
+         * 
+         * @param source source of the pass
+         */
+        private void produce(Source source) {
+            Random rng = new Random();
+            List<Batch> window = new ArrayList<>();
+            int shuffle = DatasetStream.this.shuffle;
+            Transform transform = DatasetStream.this.transform;
+
+            try {
+                try {
+                    for (Batch batch = source.next(); batch != null; batch = source.next()) {
+                        if (transform != null) {
+                            transform.apply(batch);
+                        }
+
+                        if (shuffle < 2) {
+                            this.queue.put(batch);
+                            continue;
+                        }
+
+                        // Emit a random batch once the window is full
+                        window.add(batch);
+
+                        if (window.size() == shuffle) {
+                            this.queue.put(take(window, rng));
+                        }
+                    }
+
+                    while (!window.isEmpty()) {
+                        this.queue.put(take(window, rng));
+                    }
+
+                    this.queue.put(this.end);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    this.queue.put(e);
+                }
+            } catch (InterruptedException e) {
+                // Closed by the consumer
+            }
+        }
+
+        /**
+         * Removes a random batch from the window
+         */
+        private Batch take(List<Batch> window, Random rng) {
+            int r = rng.nextInt(window.size());
+            Batch batch = window.get(r);
+
+            window.set(r, window.get(window.size() - 1));
+            window.remove(window.size() - 1);
+
+            return batch;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.next == null) {
+                try {
+                    this.next = this.queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+
+                    throw new IllegalStateException("Interrupted pass", e);
+                }
+            }
+
+            if (this.next instanceof Exception) {
+                throw new IllegalStateException(
+                    "Failed to produce a batch",
+                    (Exception) this.next
+                );
+            }
+
+            return this.next != this.end;
+        }
+
+        @Override
+        public Batch next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Batch batch = (Batch) this.next;
+            this.next = null;
+
+            return batch;
+        }
+
+        /**
+         * Stops the producer and drops the prepared batches
+         */
+        @Override
+        public void close() {
+            this.producer.interrupt();
+            this.queue.clear();
+        }
+    }
+}
@@ -16,24 +16,28 @@
  */
 package io.github.nearage.jnn.input;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import io.github.nearage.jnn.util.Kernels;
+import io.github.nearage.jnn.util.Parallel;
 import java.io.Serializable;
 import java.util.Random;
-import java.util.function.BiConsumer;
-import java.util.function.BiFunction;
-import java.util.function.Consumer;
-import java.util.function.Function;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleConsumer;
+import java.util.function.DoubleUnaryOperator;
 
 /**
  * Matrix of doubles
  *
+ * Elements are stored in row-major order in a {@link Storage}, a heap array
+ * of doubles by default. Matrices off the heap or in other precisions work
+ * with every operation, the default ones take the fastest paths. Views made by
+ * reshape, slice and block share the storage of their matrix.
+ *
  * @author Nearage <https://github.com/Nearage>
  */
 public class Matrix implements Serializable {
 
+    private static final long serialVersionUID = -3768018968081204538L;
+
     /**
      * Number of rows
      */
@@ -50,10 +54,20 @@ public class Matrix implements Serializable {
     public final int size;
 
     /**
-     * Data of the matrix
+     * Data of the matrix, null if it is off the heap
      */
     private final double[] data;
 
+    /**
+     * Storage of the matrix
+     */
+    private final transient Storage storage;
+
+    /**
+     * Side of the tiles copied by transpose
+     */
+    private static final int TILE = 32;
+
     /**
      * Creates a new matrix with the specified shape
      *
@@ -65,6 +79,71 @@ public class Matrix implements Serializable {
         this.cols = cols;
         this.size = rows * cols;
         this.data = new double[size];
+        this.storage = new Storage.Heap(this.data);
+    }
+
+    /**
+     * Creates a new matrix with the specified shape over the given storage
+     *
+     * @param rows number of rows
+     * @param cols number of cols
+     * @param storage storage of the elements, in row-major order
+     *
+     * @throws Exception a base exception with an error message
+     */
+    public Matrix(int rows, int cols, Storage storage) throws Exception {
+        if (storage.size() != rows * cols) {
+            throw new Exception(String.format(
+                "Shape mismatch in storage, size = %d and expected = (%d, %d)",
+                storage.size(),
+                rows,
+                cols
+            ));
+        }
+
+        this.rows = rows;
+        this.cols = cols;
+        this.size = rows * cols;
+        this.data = storage.array();
+        this.storage = storage;
+    }
+
+    /**
+     * Creates a new matrix over the given sparse storage
+     *
+     * @param storage sparse storage, with the shape of the matrix
+     */
+    Matrix(Sparse storage) {
+        this.rows = storage.rows();
+        this.cols = storage.cols();
+        this.size = this.rows * this.cols;
+        this.data = null;
+        this.storage = storage;
+    }
+
+    /**
+     * Restores the storage of a deserialized matrix
+     *
+     * @return the matrix
+     */
+    private Object readResolve() {
+        if (this.storage != null) {
+            return this;
+        }
+
+        Matrix matrix = new Matrix(this.rows, this.cols);
+        System.arraycopy(this.data, 0, matrix.data, 0, this.size);
+
+        return matrix;
+    }
+
+    /**
+     * Serializes off-heap matrices as heap ones
+     *
+     * @return the matrix to serialize
+     */
+    private Object writeReplace() {
+        return this.data != null ? this : this.heap();
     }
 
     /**
@@ -76,6 +155,10 @@ public class Matrix implements Serializable {
      * @return the element at the given index
      */
     public double get(int i, int j) {
+        if (this.data == null) {
+            return this.storage.get(i * this.cols + j);
+        }
+
         return this.data[i * this.cols + j];
     }
 
@@ -87,9 +170,65 @@ public class Matrix implements Serializable {
      * @param value new value
      */
     public void set(int i, int j, double value) {
+        if (this.data == null) {
+            this.storage.set(i * this.cols + j, value);
+            return;
+        }
+
         this.data[i * this.cols + j] = value;
     }
 
+    /**
+     * Gets the backing array of the matrix, stored in row-major order
+     *
+     * @return the data of the matrix
+     *
+     * @throws IllegalStateException if the matrix is off the heap
+     */
+    public double[] array() {
+        if (this.data == null) {
+            throw new IllegalStateException("Matrix is not on the heap");
+        }
+
+        return this.data;
+    }
+
+    /**
+     * Gets the storage of the matrix
+     *
+     * @return the storage
+     */
+    public Storage storage() {
+        return this.storage;
+    }
+
+    /**
+     * Gets the sparse storage of the matrix
+     *
+     * @return the storage, or null if the matrix is dense
+     */
+    public Sparse sparse() {
+        return this.storage instanceof Sparse ? (Sparse) this.storage : null;
+    }
+
+    /**
+     * Gets the precision of the elements of the matrix
+     *
+     * @return the precision
+     */
+    public Precision precision() {
+        return this.storage.precision();
+    }
+
+    /**
+     * Whether the matrix is backed by a heap array of doubles
+     *
+     * @return true if the matrix is on the heap in double precision
+     */
+    public boolean isHeap() {
+        return this.data != null;
+    }
+
     /**
      * Gets the value of the first element
      *
@@ -99,17 +238,48 @@ public class Matrix implements Serializable {
         return this.get(0, 0);
     }
 
+    /**
+     * Action over an index of the matrix
+     */
+    @FunctionalInterface
+    public interface IndexConsumer {
+
+        /**
+         * Performs the action over the given index
+         *
+         * @param i row index
+         * @param j col index
+         */
+        public void accept(int i, int j);
+    }
+
+    /**
+     * Function from an index of the matrix to a value
+     */
+    @FunctionalInterface
+    public interface IndexFunction {
+
+        /**
+         * Applies the function to the given index
+         *
+         * @param i row index
+         * @param j col index
+         *
+         * @return the value for the index
+         */
+        public double apply(int i, int j);
+    }
+
     /**
      * Performs an action for each index in the matrix
      *
      * @param action the action to perform
      */
-    public void iterate(BiConsumer<Integer, Integer> action) {
-        for (int s = 0; s < this.size; s++) {
-            int i = s / this.cols;
-            int j = s % this.cols;
-
-            action.accept(i, j);
+    public void iterate(IndexConsumer action) {
+        for (int i = 0; i < this.rows; i++) {
+            for (int j = 0; j < this.cols; j++) {
+                action.accept(i, j);
+            }
         }
     }
 
@@ -118,8 +288,10 @@ public class Matrix implements Serializable {
      *
      * @param action the action to perform
      */
-    public void foreach(Consumer<Double> action) {
-        this.iterate((i, j) -> action.accept(this.get(i, j)));
+    public void foreach(DoubleConsumer action) {
+        for (int s = 0; s < this.size; s++) {
+            action.accept(this.load(s));
+        }
     }
 
     /**
@@ -128,8 +300,14 @@ public class Matrix implements Serializable {
      *
      * @param function the function to apply
      */
-    public void map(BiFunction<Integer, Integer, Double> function) {
-        this.iterate((i, j) -> this.set(i, j, function.apply(i, j)));
+    public void map(IndexFunction function) {
+        int s = 0;
+
+        for (int i = 0; i < this.rows; i++) {
+            for (int j = 0; j < this.cols; j++) {
+                this.store(s++, function.apply(i, j));
+            }
+        }
     }
 
     /**
@@ -138,8 +316,141 @@ public class Matrix implements Serializable {
      *
      * @param function the function to apply
      */
-    public void apply(Function<Double, Double> function) {
-        this.map((i, j) -> function.apply(this.get(i, j)));
+    public void apply(DoubleUnaryOperator function) {
+        for (int s = 0; s < this.size; s++) {
+            this.store(s, function.applyAsDouble(this.load(s)));
+        }
+    }
+
+    /**
+     * Copies the matrix to the heap
+     */
+    private Matrix heap() {
+        Matrix matrix = new Matrix(this.rows, this.cols);
+        this.storage.get(0, matrix.data, 0, this.size);
+
+        return matrix;
+    }
+
+    /**
+     * Gets the element at the given index of the storage
+     */
+    private double load(int index) {
+        return this.data != null ? this.data[index] : this.storage.get(index);
+    }
+
+    /**
+     * Sets the element at the given index of the storage
+     */
+    private void store(int index, double value) {
+        if (this.data != null) {
+            this.data[index] = value;
+        } else {
+            this.storage.set(index, value);
+        }
+    }
+
+    /**
+     * Gets a view of the matrix with another shape and the same elements in
+     * row-major order, sharing its storage
+     *
+     * @param rows number of rows
+     * @param cols number of cols
+     *
+     * @return the view
+     *
+     * @throws Exception a base exception with an error message
+     */
+    public Matrix reshape(int rows, int cols) throws Exception {
+        if (rows * cols != this.size) {
+            throw new Exception(String.format(
+                "Shape mismatch in reshape, a = (%d, %d) and out = (%d, %d)",
+                this.rows,
+                this.cols,
+                rows,
+                cols
+            ));
+        }
+
+        // Sparse storage keeps its own shape, it is read through a view
+        if (this.storage instanceof Sparse) {
+            return new Matrix(
+                rows,
+                cols,
+                new Storage.View(this.storage, 0, this.size, this.size, this.size)
+            );
+        }
+
+        return new Matrix(rows, cols, this.storage);
+    }
+
+    /**
+     * Gets a view of a range of rows of the matrix, sharing its storage
+     *
+     * @param from first row, included
+     * @param to last row, excluded
+     *
+     * @return the view
+     *
+     * @throws Exception a base exception with an error message
+     */
+    public Matrix slice(int from, int to) throws Exception {
+        return this.block(from, 0, to - from, this.cols);
+    }
+
+    /**
+     * Gets a view of a block of the matrix, sharing its storage
+     *
+     * @param row first row of the block
+     * @param col first col of the block
+     * @param rows number of rows of the block
+     * @param cols number of cols of the block
+     *
+     * @return the view
+     *
+     * @throws Exception a base exception with an error message
+     */
+    public Matrix block(int row, int col, int rows, int cols) throws Exception {
+        if (
+            row < 0
+            || col < 0
+            || rows < 0
+            || cols < 0
+            || row + rows > this.rows
+            || col + cols > this.cols
+        ) {
+            throw new Exception(String.format(
+                "Shape mismatch in block, a = (%d, %d) and block = (%d, %d) "
+                + "at (%d, %d)",
+                this.rows,
+                this.cols,
+                rows,
+                cols,
+                row,
+                col
+            ));
+        }
+
+        Storage storage = this.storage;
+        int offset = row * this.cols + col;
+        int stride = this.cols;
+
+        // Views of views address the viewed storage directly
+        if (storage instanceof Storage.View) {
+            Storage.View view = (Storage.View) storage;
+
+            if (view.cols() == this.cols) {
+                storage = view.parent();
+                offset = view.offset() + row * view.stride() + col;
+                stride = view.stride();
+            }
+        }
+
+        return new Matrix(
+            rows,
+            cols,
+            new Storage.View(storage, offset, cols, stride, rows * cols)
+        );
     }
 
     /**
@@ -156,18 +467,101 @@ public class Matrix implements Serializable {
     }
 
     /**
-     * Transposes the matrix
+     * Transposes the matrix, a sparse matrix is transposed over the same
+     * non-zeros
      *
      * @return the transposed matrix
      */
     public Matrix transpose() {
+        if (this.storage instanceof Sparse) {
+            // Same non-zeros in the other format
+            return ((Sparse) this.storage).transpose().matrix();
+        }
+
+        if (!this.isHeap()) {
+            Matrix result = new Matrix(this.cols, this.rows);
+
+            for (int i = 0; i < this.rows; i++) {
+                for (int j = 0; j < this.cols; j++) {
+                    result.data[j * this.rows + i] = this.load(i * this.cols + j);
+                }
+            }
+
+            return result;
+        }
+
         Matrix result = new Matrix(this.cols, this.rows);
 
-        result.map((i, j) -> this.get(j, i));
+        this.transpose(result.data);
 
         return result;
     }
 
+    /**
+     * Transposes the matrix into the given matrix
+     *
+     * @param result the transposed matrix
+     *
+     * @throws Exception a base exception with an error message
+     */
+    public void transpose(Matrix result) throws Exception {
+        if (result.rows != this.cols || result.cols != this.rows) {
+            throw new Exception(String.format(
+                "Shape mismatch in transpose, a = (%d, %d) and out = (%d, %d)",
+                this.rows,
+                this.cols,
+                result.rows,
+                result.cols
+            ));
+        }
+
+        if (!this.isHeap() || !result.isHeap()) {
+            for (int i = 0; i < this.rows; i++) {
+                for (int j = 0; j < this.cols; j++) {
+                    result.store(j * this.rows + i, this.load(i * this.cols + j));
+                }
+            }
+
+            return;
+        }
+
+        this.transpose(result.data);
+    }
+
+    /**
+     * Transposes the matrix into the given array
+     *
+     * @param dst data of the transposed matrix
+     */
+    private void transpose(double[] dst) {
+        double[] src = this.data;
+        int rows = this.rows;
+        int cols = this.cols;
+        int tile = TILE;
+
+        // Copy square tiles so both matrices are accessed in cache lines
+        Parallel.forRange(
+            0,
+            (rows + tile - 1) / tile,
+            Math.max(1, Parallel.GRAIN / (tile * Math.max(1, cols))),
+            (from, to) -> {
+                for (int ib = from * tile; ib < Math.min(rows, to * tile); ib += tile) {
+                    int ie = Math.min(rows, ib + tile);
+
+                    for (int jb = 0; jb < cols; jb += tile) {
+                        int je = Math.min(cols, jb + tile);
+
+                        for (int i = ib; i < ie; i++) {
+                            for (int j = jb; j < je; j++) {
+                                dst[j * rows + i] = src[i * cols + j];
+                            }
+                        }
+                    }
+                }
+            }
+        );
+    }
+
     /**
      * Reduces the matrix along the specified axis, applying the given identity
      * and function
@@ -181,29 +575,61 @@ public class Matrix implements Serializable {
     public Matrix reduce(
         int axis,
         double identity,
-        BiFunction<Double, Double, Double> function
+        DoubleBinaryOperator function
     ) {
         Matrix result = new Matrix(
             axis == 0 ? this.rows : 1,
             axis == 1 ? this.cols : 1
         );
 
-        int range = axis == 0 ? this.cols : this.rows;
-
-        result.map((i, j) -> {
-            double value = identity;
+        if (!this.isHeap()) {
+            return this.heap().reduce(axis, identity, function);
+        }
 
-            for (int a = 0; a < range; a++) {
-                if (axis == 0) {
-                    value = function.apply(value, this.get(i, a));
+        double[] src = this.data;
+        double[] dst = result.data;
+        int rows = this.rows;
+        int cols = this.cols;
+
+        // Each task reduces its own rows (axis 0) or cols (axis 1), always in
+        // the same order, so the result does not depend on the threads
+        if (axis == 0) {
+            Parallel.forRange(
+                0,
+                rows,
+                Math.max(1, Parallel.GRAIN / Math.max(1, cols)),
+                (from, to) -> {
+                    for (int i = from; i < to; i++) {
+                        double value = identity;
+
+                        for (int j = 0; j < cols; j++) {
+                            value = function.applyAsDouble(value, src[i * cols + j]);
+                        }
+
+                        dst[i] = value;
+                    }
                 }
-                if (axis == 1) {
-                    value = function.apply(value, this.get(a, j));
-                }
-            }
+            );
+        }
 
-            return value;
-        });
+        if (axis == 1) {
+            Parallel.forRange(
+                0,
+                cols,
+                Math.max(1, Parallel.GRAIN / Math.max(1, rows)),
+                (from, to) -> {
+                    for (int j = from; j < to; j++) {
+                        dst[j] = identity;
+                    }
+
+                    for (int i = 0; i < rows; i++) {
+                        for (int j = from; j < to; j++) {
+                            dst[j] = function.applyAsDouble(dst[j], src[i * cols + j]);
+                        }
+                    }
+                }
+            );
+        }
 
         return result;
 
@@ -220,7 +646,7 @@ public class Matrix implements Serializable {
      */
     public double reduce(
         double identity,
-        BiFunction<Double, Double, Double> function
+        DoubleBinaryOperator function
     ) {
         Matrix result = this.reduce(0, identity, function)
             .reduce(1, identity, function);
@@ -234,7 +660,14 @@ public class Matrix implements Serializable {
      * @return the min value
      */
     public double min() {
-        return this.reduce(Double.MAX_VALUE, (y, x) -> Math.min(y, x));
+        double[] partials = this.partials(Kernels.ACTIVE::min);
+        double min = Double.POSITIVE_INFINITY;
+
+        for (double partial : partials) {
+            min = Math.min(min, partial);
+        }
+
+        return min;
     }
 
     /**
@@ -243,7 +676,14 @@ public class Matrix implements Serializable {
      * @return the max value
      */
     public double max() {
-        return this.reduce(Double.MIN_VALUE, (y, x) -> Math.max(y, x));
+        double[] partials = this.partials(Kernels.ACTIVE::max);
+        double max = Double.NEGATIVE_INFINITY;
+
+        for (double partial : partials) {
+            max = Math.max(max, partial);
+        }
+
+        return max;
     }
 
     /**
@@ -252,7 +692,58 @@ public class Matrix implements Serializable {
      * @return the sum value
      */
     public double sum() {
-        return this.reduce(0, (y, x) -> y + x);
+        double[] partials = this.partials(Kernels.ACTIVE::sum);
+        double sum = 0d;
+
+        for (double partial : partials) {
+            sum += partial;
+        }
+
+        return sum;
+    }
+
+    /**
+     * Range reduction of an array
+     */
+    @FunctionalInterface
+    private interface Partial {
+
+        double apply(double[] x, int from, int to);
+    }
+
+    /**
+     * Reduces fixed chunks of the data in parallel, so the partial results
+     * and the order they are combined in do not depend on the threads
+     *
+     * @param partial reduction of a chunk
+     *
+     * @return the result for each chunk
+     */
+    private double[] partials(Partial partial) {
+        int chunks = Math.max(1, (this.size + Parallel.GRAIN - 1) / Parallel.GRAIN);
+        double[] result = new double[chunks];
+        double[] src = this.data;
+        Storage storage = this.storage;
+        int size = this.size;
+
+        Parallel.forRange(0, chunks, 1, (from, to) -> {
+            // Off-heap chunks are copied to the heap first
+            double[] chunk = src != null ? null : new double[Parallel.GRAIN];
+
+            for (int c = from; c < to; c++) {
+                int start = c * Parallel.GRAIN;
+                int end = Math.min(size, (c + 1) * Parallel.GRAIN);
+
+                if (chunk == null) {
+                    result[c] = partial.apply(src, start, end);
+                } else {
+                    storage.get(start, chunk, 0, end - start);
+                    result[c] = partial.apply(chunk, 0, end - start);
+                }
+            }
+        });
+
+        return result;
     }
 
     /**
@@ -320,23 +811,20 @@ public class Matrix implements Serializable {
     }
 
     /**
-     * Saves the matrix to a file in the specified path
+     * Saves the matrix to a file in the specified path, in the binary format
+     * of {@link MatrixFile} with 64-bit elements
      *
      * @param path path
      *
      * @throws Exception a base exception with an error message
      */
     public void save(String path) throws Exception {
-        FileOutputStream fos = new FileOutputStream(path);
-
-        try (ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-            oos.writeObject(this);
-            oos.flush();
-        }
+        MatrixFile.save(this, path, MatrixFile.FLOAT64);
     }
 
     /**
-     * Loads a matrix from a file in the specified path
+     * Loads a matrix from a file in the specified path, either in the binary
+     * format of {@link MatrixFile} or in the legacy serialized format
      *
      * @param path path
      *
@@ -345,10 +833,6 @@ public class Matrix implements Serializable {
      * @throws Exception a base exception with an error message
      */
     public static Matrix load(String path) throws Exception {
-        FileInputStream fis = new FileInputStream(path);
-
-        try (ObjectInputStream ois = new ObjectInputStream(fis)) {
-            return (Matrix) ois.readObject();
-        }
+        return MatrixFile.load(path);
     }
 }
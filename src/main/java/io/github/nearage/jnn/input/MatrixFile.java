@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.input;
+
+import java.io.FileInputStream;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary matrix format
+ * 
+ * A 16-byte header, the magic "JNNM", the version (short), the data type
+ * (short), the rows (int) and the cols (int), followed by the elements in
+ * row-major order. Everything is little-endian. Files written with Java
+ * serialization by older versions are still read by {@link #load}.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public interface MatrixFile {
+
+    /**
+     * Magic number, "JNNM" read as a little-endian int
+     */
+    public static final int MAGIC = 0x4D4E4E4A;
+
+    /**
+     * Version of the format
+     */
+    public static final short VERSION = 1;
+
+    /**
+     * Data type of 64-bit floats
+     */
+    public static final short FLOAT64 = 0;
+
+    /**
+     * Data type of 32-bit floats
+     */
+    public static final short FLOAT32 = 1;
+
+    /**
+     * Size of the header in bytes
+     */
+    public static final int HEADER = 16;
+
+    /**
+     * Size of the buffer used to write the elements in bytes
+     */
+    public static final int CHUNK = 1 << 20;
+
+    /**
+     * Saves a matrix to a file in the specified path
+     * 
+     * @param matrix matrix to save
+     * @param path path
+     * @param dtype data type of the elements, FLOAT64 or FLOAT32
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static void save(Matrix matrix, String path, short dtype) throws Exception {
+        try (FileChannel channel = FileChannel.open(
+            Path.of(path),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING
+        )) {
+            write(matrix, dtype, channel);
+        }
+    }
+
+    /**
+     * Loads a matrix from a file in the specified path, mapping the file into
+     * memory and copying the elements in bulk. Files written with Java
+     * serialization are read with it.
+     * 
+     * @param path path
+     * 
+     * @return the loaded matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static Matrix load(String path) throws Exception {
+        try (FileChannel channel = FileChannel.open(
+            Path.of(path),
+            StandardOpenOption.READ
+        )) {
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+
+            channel.read(magic, 0);
+
+            if (magic.position() == 4 && magic.getInt(0) == MAGIC) {
+                MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_ONLY,
+                    0,
+                    channel.size()
+                );
+
+                return read(buffer);
+            }
+        }
+
+        // Legacy format
+        FileInputStream fis = new FileInputStream(path);
+
+        try (ObjectInputStream ois = new ObjectInputStream(fis)) {
+            return (Matrix) ois.readObject();
+        }
+    }
+
+    /**
+     * Maps a file in the specified path into memory and returns a matrix
+     * backed by the mapping, with no copy of its elements. The matrix is
+     * read-only, setting its elements throws a ReadOnlyBufferException.
+     * Closing the storage of the matrix unmaps the file.
+     * 
+     * @param path path
+     * 
+     * @return the mapped matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static Matrix map(String path) throws Exception {
+        try (FileChannel channel = FileChannel.open(
+            Path.of(path),
+            StandardOpenOption.READ
+        )) {
+            MappedByteBuffer buffer = channel.map(
+                FileChannel.MapMode.READ_ONLY,
+                0,
+                channel.size()
+            );
+
+            return view(buffer, buffer);
+        }
+    }
+
+    /**
+     * Writes a matrix, header and elements, to the given channel
+     * 
+     * @param matrix matrix to write
+     * @param dtype data type of the elements, FLOAT64 or FLOAT32
+     * @param channel channel to write to
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static void write(
+        Matrix matrix,
+        short dtype,
+        WritableByteChannel channel
+    ) throws Exception {
+        if (dtype != FLOAT64 && dtype != FLOAT32) {
+            throw new Exception(String.format("Invalid data type, dtype = %d", dtype));
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+
+        header.putInt(MAGIC)
+            .putShort(VERSION)
+            .putShort(dtype)
+            .putInt(matrix.rows)
+            .putInt(matrix.cols)
+            .flip();
+
+        drain(header, channel);
+
+        ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+        double[] data = matrix.isHeap() ? matrix.array() : null;
+        int width = dtype == FLOAT64 ? Double.BYTES : Float.BYTES;
+        int step = CHUNK / width;
+
+        for (int from = 0; from < matrix.size; from += step) {
+            int count = Math.min(step, matrix.size - from);
+
+            chunk.clear();
+
+            if (dtype == FLOAT64 && data != null) {
+                chunk.asDoubleBuffer().put(data, from, count);
+            } else if (dtype == FLOAT64 && matrix.storage().buffer() != null) {
+                chunk.asDoubleBuffer().put(
+                    matrix.storage().buffer().position(from).limit(from + count)
+                );
+            } else if (dtype == FLOAT64) {
+                DoubleBuffer doubles = chunk.asDoubleBuffer();
+                Storage storage = matrix.storage();
+
+                for (int s = from; s < from + count; s++) {
+                    doubles.put(storage.get(s));
+                }
+            } else {
+                FloatBuffer floats = chunk.asFloatBuffer();
+                Storage storage = matrix.storage();
+
+                for (int s = from; s < from + count; s++) {
+                    floats.put((float) (data != null ? data[s] : storage.get(s)));
+                }
+            }
+
+            chunk.limit(count * width);
+
+            drain(chunk, channel);
+        }
+    }
+
+    /**
+     * Reads a matrix, header and elements, from the given buffer, advancing
+     * its position past the elements
+     * 
+     * @param buffer buffer to read from
+     * 
+     * @return the read matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static Matrix read(ByteBuffer buffer) throws Exception {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        int magic = buffer.getInt();
+        short version = buffer.getShort();
+        short dtype = buffer.getShort();
+        int rows = buffer.getInt();
+        int cols = buffer.getInt();
+
+        if (magic != MAGIC || version != VERSION) {
+            throw new Exception(String.format(
+                "Invalid matrix header, magic = %08x and version = %d",
+                magic,
+                version
+            ));
+        }
+
+        Matrix matrix = new Matrix(rows, cols);
+
+        if (dtype == FLOAT64) {
+            DoubleBuffer doubles = buffer.asDoubleBuffer();
+
+            doubles.get(matrix.array(), 0, matrix.size);
+            buffer.position(buffer.position() + matrix.size * Double.BYTES);
+        } else if (dtype == FLOAT32) {
+            FloatBuffer floats = buffer.asFloatBuffer();
+            double[] data = matrix.array();
+
+            for (int s = 0; s < matrix.size; s++) {
+                data[s] = floats.get(s);
+            }
+
+            buffer.position(buffer.position() + matrix.size * Float.BYTES);
+        } else {
+            throw new Exception(String.format("Invalid data type, dtype = %d", dtype));
+        }
+
+        return matrix;
+    }
+
+    /**
+     * Reads a matrix header from the given buffer and returns a matrix backed
+     * by the elements that follow it, with no copy, advancing the position of
+     * the buffer past the elements. Only 64-bit elements can be viewed.
+     * 
+     * @param buffer buffer to read from
+     * @param owner buffer owning the memory, released when the storage of the
+     * matrix is closed, or null if it is owned elsewhere
+     * 
+     * @return the matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static Matrix view(ByteBuffer buffer, ByteBuffer owner) throws Exception {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        int magic = buffer.getInt();
+        short version = buffer.getShort();
+        short dtype = buffer.getShort();
+        int rows = buffer.getInt();
+        int cols = buffer.getInt();
+
+        if (magic != MAGIC || version != VERSION) {
+            throw new Exception(String.format(
+                "Invalid matrix header, magic = %08x and version = %d",
+                magic,
+                version
+            ));
+        }
+
+        if (dtype != FLOAT64) {
+            throw new Exception(String.format(
+                "Invalid data type for a view, dtype = %d",
+                dtype
+            ));
+        }
+
+        int bytes = rows * cols * Double.BYTES;
+        DoubleBuffer data = buffer.slice(buffer.position(), bytes)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .asDoubleBuffer();
+
+        buffer.position(buffer.position() + bytes);
+
+        return new Matrix(rows, cols, new Storage.Direct(owner, data));
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer to a channel
+     * 
+     * @param buffer buffer to write
+     * @param channel channel to write to
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private static void drain(
+        ByteBuffer buffer,
+        WritableByteChannel channel
+    ) throws Exception {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
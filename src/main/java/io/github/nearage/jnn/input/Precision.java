@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.input;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Precision of the elements of a matrix
+ * 
+ * Elements are always computed in double precision. Narrower precisions only
+ * change how they are stored, halving or quartering the memory of a matrix
+ * and the bandwidth needed to read it.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public enum Precision {
+
+    /**
+     * 64-bit floats
+     */
+    FLOAT64,
+
+    /**
+     * 32-bit floats
+     */
+    FLOAT32,
+
+    /**
+     * 16-bit brain floats, the upper half of a 32-bit float
+     */
+    BFLOAT16;
+
+    /**
+     * Gets the size of an element in bytes
+     * 
+     * @return size in bytes
+     */
+    public int bytes() {
+        switch (this) {
+            case FLOAT32:
+                return Float.BYTES;
+            case BFLOAT16:
+                return Short.BYTES;
+            default:
+                return Double.BYTES;
+        }
+    }
+
+    /**
+     * Writes elements in this precision to a buffer, at its position and in
+     * its byte order, advancing the position
+     * 
+     * @param src elements
+     * @param offset first element
+     * @param length number of elements
+     * @param dst buffer
+     */
+    public void encode(double[] src, int offset, int length, ByteBuffer dst) {
+        switch (this) {
+            case FLOAT32:
+                for (int s = offset; s < offset + length; s++) {
+                    dst.putFloat((float) src[s]);
+                }
+
+                break;
+            case BFLOAT16:
+                for (int s = offset; s < offset + length; s++) {
+                    dst.putShort(Storage.BFloat16.round((float) src[s]));
+                }
+
+                break;
+            default:
+                dst.asDoubleBuffer().put(src, offset, length);
+                dst.position(dst.position() + length * Double.BYTES);
+        }
+    }
+
+    /**
+     * Reads elements in this precision from a buffer, at its position and in
+     * its byte order, advancing the position
+     * 
+     * @param src buffer
+     * @param dst elements
+     * @param offset first element
+     * @param length number of elements
+     */
+    public void decode(ByteBuffer src, double[] dst, int offset, int length) {
+        switch (this) {
+            case FLOAT32:
+                for (int s = offset; s < offset + length; s++) {
+                    dst[s] = src.getFloat();
+                }
+
+                break;
+            case BFLOAT16:
+                for (int s = offset; s < offset + length; s++) {
+                    dst[s] = Float.intBitsToFloat(src.getShort() << 16);
+                }
+
+                break;
+            default:
+                src.asDoubleBuffer().get(dst, offset, length);
+                src.position(src.position() + length * Double.BYTES);
+        }
+    }
+
+    /**
+     * Creates a heap storage of this precision
+     * 
+     * @param size number of elements
+     * 
+     * @return the storage
+     */
+    public Storage storage(int size) {
+        switch (this) {
+            case FLOAT32:
+                return new Storage.Float32(new float[size]);
+            case BFLOAT16:
+                return new Storage.BFloat16(new short[size]);
+            default:
+                return Storage.heap(size);
+        }
+    }
+
+    /**
+     * Creates a matrix of this precision with the specified shape
+     * 
+     * @param rows number of rows
+     * @param cols number of cols
+     * 
+     * @return the matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public Matrix matrix(int rows, int cols) throws Exception {
+        if (this == FLOAT64) {
+            return new Matrix(rows, cols);
+        }
+
+        return new Matrix(rows, cols, this.storage(rows * cols));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.input;
+
+/**
+ * Shape of the samples of a batch of images, in channels, height and width
+ * 
+ * A batch of N images is a matrix of N rows, each one an image flattened in
+ * channel, row and col order, so the batch is laid out as NCHW in the flat
+ * array of the matrix.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public final class Shape {
+
+    /**
+     * Number of channels
+     */
+    public final int channels;
+
+    /**
+     * Height of each channel
+     */
+    public final int height;
+
+    /**
+     * Width of each channel
+     */
+    public final int width;
+
+    /**
+     * Creates a shape
+     * 
+     * @param channels number of channels
+     * @param height height of each channel
+     * @param width width of each channel
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public Shape(int channels, int height, int width) throws Exception {
+        if (channels <= 0 || height <= 0 || width <= 0) {
+            throw new Exception(String.format(
+                "Invalid shape, shape = (%d, %d, %d)",
+                channels,
+                height,
+                width
+            ));
+        }
+
+        this.channels = channels;
+        this.height = height;
+        this.width = width;
+    }
+
+    /**
+     * Gets the number of elements of a sample, the cols of a batch
+     * 
+     * @return number of elements
+     */
+    public int size() {
+        return this.channels * this.height * this.width;
+    }
+
+    /**
+     * Gets the index of an element in the row of its sample
+     * 
+     * @param c channel
+     * @param y row in the channel
+     * @param x col in the channel
+     * 
+     * @return the index
+     */
+    public int index(int c, int y, int x) {
+        return (c * this.height + y) * this.width + x;
+    }
+
+    /**
+     * Creates a batch of the given number of samples
+     * 
+     * @param samples number of samples
+     * 
+     * @return the batch
+     */
+    public Matrix batch(int samples) {
+        return new Matrix(samples, this.size());
+    }
+
+    /**
+     * Gets an element of a batch
+     * 
+     * @param batch batch
+     * @param n sample
+     * @param c channel
+     * @param y row in the channel
+     * @param x col in the channel
+     * 
+     * @return the element
+     */
+    public double get(Matrix batch, int n, int c, int y, int x) {
+        return batch.get(n, this.index(c, y, x));
+    }
+
+    /**
+     * Sets an element of a batch
+     * 
+     * @param batch batch
+     * @param n sample
+     * @param c channel
+     * @param y row in the channel
+     * @param x col in the channel
+     * @param value new value
+     */
+    public void set(Matrix batch, int n, int c, int y, int x, double value) {
+        batch.set(n, this.index(c, y, x), value);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("(%d, %d, %d)", this.channels, this.height, this.width);
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.input;
+
+import java.util.Arrays;
+
+/**
+ * Sparse storage of the elements of a matrix, in compressed sparse row (CSR)
+ * or compressed sparse col (CSC) format
+ * 
+ * Only the non-zeros are stored, as the values and the inner indices (cols
+ * for CSR, rows for CSC) of each outer line (rows for CSR, cols for CSC), with
+ * the lines delimited by pointers. The indices of a line are sorted. The
+ * transpose of a CSR matrix is the CSC matrix over the same arrays, so it is
+ * made without copies.
+ * 
+ * Products with a sparse operand only visit its non-zeros, see
+ * {@link io.github.nearage.jnn.util.SparseGemm}. Any other operation reads the
+ * zeros as usual. Existing non-zeros can be written, but writing a non-zero
+ * where there is none is not supported.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public final class Sparse implements Storage {
+
+    /**
+     * Number of rows
+     */
+    private final int rows;
+
+    /**
+     * Number of cols
+     */
+    private final int cols;
+
+    /**
+     * Whether the lines are the cols (CSC) instead of the rows (CSR)
+     */
+    private final boolean byCols;
+
+    /**
+     * Start of each line in the indices and values, followed by the number of
+     * non-zeros
+     */
+    private final int[] pointers;
+
+    /**
+     * Inner index of each non-zero
+     */
+    private final int[] indices;
+
+    /**
+     * Value of each non-zero
+     */
+    private final double[] values;
+
+    private Sparse(
+        int rows,
+        int cols,
+        boolean byCols,
+        int[] pointers,
+        int[] indices,
+        double[] values
+    ) {
+        this.rows = rows;
+        this.cols = cols;
+        this.byCols = byCols;
+        this.pointers = pointers;
+        this.indices = indices;
+        this.values = values;
+    }
+
+    /**
+     * Creates a CSR matrix over the given arrays, which are not copied
+     * 
+     * @param rows number of rows
+     * @param cols number of cols
+     * @param pointers start of each row, followed by the number of non-zeros
+     * @param indices col of each non-zero, sorted within each row
+     * @param values value of each non-zero
+     * 
+     * @return the matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static Matrix csr(
+        int rows,
+        int cols,
+        int[] pointers,
+        int[] indices,
+        double[] values
+    ) throws Exception {
+        return new Sparse(rows, cols, false, pointers, indices, values)
+            .check()
+            .matrix();
+    }
+
+    /**
+     * Creates a CSC matrix over the given arrays, which are not copied
+     * 
+     * @param rows number of rows
+     * @param cols number of cols
+     * @param pointers start of each col, followed by the number of non-zeros
+     * @param indices row of each non-zero, sorted within each col
+     * @param values value of each non-zero
+     * 
+     * @return the matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static Matrix csc(
+        int rows,
+        int cols,
+        int[] pointers,
+        int[] indices,
+        double[] values
+    ) throws Exception {
+        return new Sparse(rows, cols, true, pointers, indices, values)
+            .check()
+            .matrix();
+    }
+
+    /**
+     * Creates a CSR copy of the given matrix, keeping its non-zeros
+     * 
+     * @param matrix matrix
+     * 
+     * @return the CSR matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static Matrix csr(Matrix matrix) throws Exception {
+        return compress(matrix, false);
+    }
+
+    /**
+     * Creates a CSC copy of the given matrix, keeping its non-zeros
+     * 
+     * @param matrix matrix
+     * 
+     * @return the CSC matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static Matrix csc(Matrix matrix) throws Exception {
+        return compress(matrix, true);
+    }
+
+    /**
+     * Gets the number of rows
+     * 
+     * @return number of rows
+     */
+    public int rows() {
+        return this.rows;
+    }
+
+    /**
+     * Gets the number of cols
+     * 
+     * @return number of cols
+     */
+    public int cols() {
+        return this.cols;
+    }
+
+    /**
+     * Whether the storage is in CSC format
+     * 
+     * @return true for CSC, false for CSR
+     */
+    public boolean byCols() {
+        return this.byCols;
+    }
+
+    /**
+     * Gets the start of each line, followed by the number of non-zeros
+     * 
+     * @return the pointers
+     */
+    public int[] pointers() {
+        return this.pointers;
+    }
+
+    /**
+     * Gets the inner index of each non-zero
+     * 
+     * @return the indices
+     */
+    public int[] indices() {
+        return this.indices;
+    }
+
+    /**
+     * Gets the value of each non-zero
+     * 
+     * @return the values
+     */
+    public double[] values() {
+        return this.values;
+    }
+
+    /**
+     * Gets the number of non-zeros
+     * 
+     * @return number of non-zeros
+     */
+    public int nonZeros() {
+        return this.pointers[this.pointers.length - 1];
+    }
+
+    /**
+     * Gets the transpose, in the other format over the same arrays
+     * 
+     * @return the transposed storage
+     */
+    public Sparse transpose() {
+        return new Sparse(
+            this.cols,
+            this.rows,
+            !this.byCols,
+            this.pointers,
+            this.indices,
+            this.values
+        );
+    }
+
+    /**
+     * Creates a matrix over the storage
+     * 
+     * @return the matrix
+     */
+    public Matrix matrix() {
+        return new Matrix(this);
+    }
+
+    @Override
+    public int size() {
+        return this.rows * this.cols;
+    }
+
+    @Override
+    public double get(int index) {
+        int s = this.find(index);
+
+        return s < 0 ? 0d : this.values[s];
+    }
+
+    @Override
+    public void set(int index, double value) {
+        int s = this.find(index);
+
+        if (s >= 0) {
+            this.values[s] = value;
+        } else if (value != 0d) {
+            throw new UnsupportedOperationException(
+                "Sparse matrices can only write their non-zeros"
+            );
+        }
+    }
+
+    @Override
+    public void get(int index, double[] dst, int offset, int length) {
+        Arrays.fill(dst, offset, offset + length, 0d);
+
+        if (length == 0) {
+            return;
+        }
+
+        int end = index + length;
+        int first = index / this.cols;
+        int last = (end - 1) / this.cols;
+
+        if (!this.byCols) {
+            // Scatter the rows overlapping the range
+            for (int i = first; i <= last; i++) {
+                for (int s = this.pointers[i]; s < this.pointers[i + 1]; s++) {
+                    int at = i * this.cols + this.indices[s];
+
+                    if (at >= index && at < end) {
+                        dst[offset + at - index] = this.values[s];
+                    }
+                }
+            }
+
+            return;
+        }
+
+        // Scatter the rows of each col overlapping the range
+        for (int j = 0; j < this.cols; j++) {
+            int s = Arrays.binarySearch(
+                this.indices,
+                this.pointers[j],
+                this.pointers[j + 1],
+                first
+            );
+
+            for (s = s < 0 ? -s - 1 : s; s < this.pointers[j + 1]; s++) {
+                int i = this.indices[s];
+
+                if (i > last) {
+                    break;
+                }
+
+                int at = i * this.cols + j;
+
+                if (at >= index && at < end) {
+                    dst[offset + at - index] = this.values[s];
+                }
+            }
+        }
+    }
+
+    @Override
+    public void set(int index, double[] src, int offset, int length) {
+        for (int s = 0; s < length; s++) {
+            this.set(index + s, src[offset + s]);
+        }
+    }
+
+    /**
+     * Finds the non-zero at the given row-major index
+     * 
+     * @return its position in the values, or a negative number if it is zero
+     */
+    private int find(int index) {
+        int i = index / this.cols;
+        int j = index % this.cols;
+        int line = this.byCols ? j : i;
+
+        int s = Arrays.binarySearch(
+            this.indices,
+            this.pointers[line],
+            this.pointers[line + 1],
+            this.byCols ? i : j
+        );
+
+        return s < 0 ? -1 : s;
+    }
+
+    /**
+     * Checks the arrays of the storage
+     * 
+     * @return the storage
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private Sparse check() throws Exception {
+        int lines = this.byCols ? this.cols : this.rows;
+        int inner = this.byCols ? this.rows : this.cols;
+
+        if (
+            this.pointers.length != lines + 1
+            || this.pointers[0] != 0
+            || this.indices.length != this.pointers[lines]
+            || this.values.length != this.pointers[lines]
+        ) {
+            throw new Exception(String.format(
+                "Shape mismatch in sparse, pointers = %d, indices = %d, "
+                + "values = %d and expected = (%d, %d)",
+                this.pointers.length,
+                this.indices.length,
+                this.values.length,
+                this.rows,
+                this.cols
+            ));
+        }
+
+        for (int l = 0; l < lines; l++) {
+            if (this.pointers[l] > this.pointers[l + 1]) {
+                throw new Exception(String.format(
+                    "Invalid sparse pointers at line %d",
+                    l
+                ));
+            }
+
+            for (int s = this.pointers[l]; s < this.pointers[l + 1]; s++) {
+                int index = this.indices[s];
+
+                if (
+                    index < 0
+                    || index >= inner
+                    || (s > this.pointers[l] && index <= this.indices[s - 1])
+                ) {
+                    throw new Exception(String.format(
+                        "Invalid sparse index %d at line %d",
+                        index,
+                        l
+                    ));
+                }
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Compresses the non-zeros of a matrix
+     */
+    private static Matrix compress(
+        Matrix matrix,
+        boolean byCols
+    ) throws Exception {
+        int rows = matrix.rows;
+        int cols = matrix.cols;
+        int lines = byCols ? cols : rows;
+        double[] row = new double[cols];
+
+        // Count the non-zeros of each line
+        int[] pointers = new int[lines + 1];
+
+        for (int i = 0; i < rows; i++) {
+            matrix.storage().get(i * cols, row, 0, cols);
+
+            for (int j = 0; j < cols; j++) {
+                if (row[j] != 0d) {
+                    pointers[(byCols ? j : i) + 1]++;
+                }
+            }
+        }
+
+        for (int l = 0; l < lines; l++) {
+            pointers[l + 1] += pointers[l];
+        }
+
+        int[] indices = new int[pointers[lines]];
+        double[] values = new double[pointers[lines]];
+        int[] next = Arrays.copyOf(pointers, lines);
+
+        // Rows are visited in order, so the rows of each col stay sorted
+        for (int i = 0; i < rows; i++) {
+            matrix.storage().get(i * cols, row, 0, cols);
+
+            for (int j = 0; j < cols; j++) {
+                if (row[j] != 0d) {
+                    int s = next[byCols ? j : i]++;
+
+                    indices[s] = byCols ? i : j;
+                    values[s] = row[j];
+                }
+            }
+        }
+
+        return new Sparse(rows, cols, byCols, pointers, indices, values)
+            .matrix();
+    }
+}
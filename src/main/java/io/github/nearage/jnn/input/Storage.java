@@ -0,0 +1,630 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.input;
+
+import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storage of the elements of a matrix
+ * 
+ * Elements live either in a heap array or off the heap in a direct buffer,
+ * such as a memory-mapped file, and are stored with a {@link Precision},
+ * converted from and to doubles when they are read and written. Off-heap
+ * storage is not scanned nor copied by the garbage collector. It is released
+ * when it is closed, or when its arena is closed. Using it or any view of it
+ * afterwards throws an {@link IllegalStateException}, and buffers taken from
+ * it must not outlive it.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public interface Storage {
+
+    /**
+     * Gets the number of elements
+     * 
+     * @return number of elements
+     */
+    public int size();
+
+    /**
+     * Gets the element at the given index
+     * 
+     * @param index index
+     * 
+     * @return the element
+     */
+    public double get(int index);
+
+    /**
+     * Sets the element at the given index
+     * 
+     * @param index index
+     * @param value new value
+     */
+    public void set(int index, double value);
+
+    /**
+     * Copies length elements from the given index into an array
+     * 
+     * @param index first index
+     * @param dst destination array
+     * @param offset offset in the destination
+     * @param length number of elements
+     */
+    public void get(int index, double[] dst, int offset, int length);
+
+    /**
+     * Copies length elements of an array into the given index
+     * 
+     * @param index first index
+     * @param src source array
+     * @param offset offset in the source
+     * @param length number of elements
+     */
+    public void set(int index, double[] src, int offset, int length);
+
+    /**
+     * Gets the precision of the elements
+     * 
+     * @return the precision
+     */
+    public default Precision precision() {
+        return Precision.FLOAT64;
+    }
+
+    /**
+     * Gets the backing heap array
+     * 
+     * @return the array, or null if the storage is off the heap
+     */
+    public default double[] array() {
+        return null;
+    }
+
+    /**
+     * Gets a view of the backing buffer, in native byte order
+     * 
+     * @return the buffer, or null if the storage is on the heap
+     */
+    public default DoubleBuffer buffer() {
+        return null;
+    }
+
+    /**
+     * Releases the memory of the storage, if it can be released explicitly
+     */
+    public default void close() {
+    }
+
+    /**
+     * Creates a storage in a new heap array
+     * 
+     * @param size number of elements
+     * 
+     * @return the storage
+     */
+    public static Storage heap(int size) {
+        return new Heap(new double[size]);
+    }
+
+    /**
+     * Creates a storage in a new direct buffer, released when it is closed or
+     * when it is no longer reachable
+     * 
+     * @param size number of elements
+     * 
+     * @return the storage
+     */
+    public static Storage direct(int size) {
+        ByteBuffer bytes = ByteBuffer.allocateDirect(size * Double.BYTES)
+            .order(ByteOrder.nativeOrder());
+
+        return new Direct(bytes, bytes.asDoubleBuffer());
+    }
+
+    /**
+     * Heap storage
+     */
+    public static final class Heap implements Storage, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final double[] data;
+
+        /**
+         * Creates a storage backed by the given array
+         * 
+         * @param data backing array
+         */
+        public Heap(double[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int size() {
+            return this.data.length;
+        }
+
+        @Override
+        public double get(int index) {
+            return this.data[index];
+        }
+
+        @Override
+        public void set(int index, double value) {
+            this.data[index] = value;
+        }
+
+        @Override
+        public void get(int index, double[] dst, int offset, int length) {
+            System.arraycopy(this.data, index, dst, offset, length);
+        }
+
+        @Override
+        public void set(int index, double[] src, int offset, int length) {
+            System.arraycopy(src, offset, this.data, index, length);
+        }
+
+        @Override
+        public double[] array() {
+            return this.data;
+        }
+    }
+
+    /**
+     * Heap storage of 32-bit floats
+     */
+    public static final class Float32 implements Storage {
+
+        private final float[] data;
+
+        /**
+         * Creates a storage backed by the given array
+         * 
+         * @param data backing array
+         */
+        public Float32(float[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int size() {
+            return this.data.length;
+        }
+
+        @Override
+        public double get(int index) {
+            return this.data[index];
+        }
+
+        @Override
+        public void set(int index, double value) {
+            this.data[index] = (float) value;
+        }
+
+        @Override
+        public void get(int index, double[] dst, int offset, int length) {
+            float[] data = this.data;
+
+            for (int s = 0; s < length; s++) {
+                dst[offset + s] = data[index + s];
+            }
+        }
+
+        @Override
+        public void set(int index, double[] src, int offset, int length) {
+            float[] data = this.data;
+
+            for (int s = 0; s < length; s++) {
+                data[index + s] = (float) src[offset + s];
+            }
+        }
+
+        @Override
+        public Precision precision() {
+            return Precision.FLOAT32;
+        }
+    }
+
+    /**
+     * Heap storage of 16-bit brain floats, rounded to the nearest even
+     */
+    public static final class BFloat16 implements Storage {
+
+        private final short[] data;
+
+        /**
+         * Creates a storage backed by the given array
+         * 
+         * @param data backing array
+         */
+        public BFloat16(short[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int size() {
+            return this.data.length;
+        }
+
+        @Override
+        public double get(int index) {
+            return Float.intBitsToFloat(this.data[index] << 16);
+        }
+
+        @Override
+        public void set(int index, double value) {
+            this.data[index] = round((float) value);
+        }
+
+        @Override
+        public void get(int index, double[] dst, int offset, int length) {
+            short[] data = this.data;
+
+            for (int s = 0; s < length; s++) {
+                dst[offset + s] = Float.intBitsToFloat(data[index + s] << 16);
+            }
+        }
+
+        @Override
+        public void set(int index, double[] src, int offset, int length) {
+            short[] data = this.data;
+
+            for (int s = 0; s < length; s++) {
+                data[index + s] = round((float) src[offset + s]);
+            }
+        }
+
+        @Override
+        public Precision precision() {
+            return Precision.BFLOAT16;
+        }
+
+        /**
+         * Rounds a float to the nearest brain float, ties to even
+         */
+        static short round(float value) {
+            int bits = Float.floatToRawIntBits(value);
+
+            // Keep NaN a NaN
+            if ((bits & 0x7FFFFFFF) > 0x7F800000) {
+                return (short) ((bits >>> 16) | 0x40);
+            }
+
+            bits += 0x7FFF + ((bits >>> 16) & 1);
+
+            return (short) (bits >>> 16);
+        }
+    }
+
+    /**
+     * Off-heap storage in a direct buffer
+     */
+    public static final class Direct implements Storage {
+
+        /**
+         * Frees a direct buffer, or null if it is not supported
+         */
+        private static final MethodHandle CLEANER = cleaner();
+
+        /**
+         * Buffer owning the memory, or null if it is owned elsewhere
+         */
+        private ByteBuffer owner;
+
+        /**
+         * Elements of the storage, or null once it is closed
+         */
+        private DoubleBuffer data;
+
+        /**
+         * Creates a storage over a buffer of doubles
+         * 
+         * @param owner buffer owning the memory, released when the storage is
+         * closed, or null if it is owned elsewhere
+         * @param data elements of the storage
+         */
+        public Direct(ByteBuffer owner, DoubleBuffer data) {
+            this.owner = owner;
+            this.data = data;
+        }
+
+        @Override
+        public int size() {
+            return this.data().capacity();
+        }
+
+        @Override
+        public double get(int index) {
+            return this.data().get(index);
+        }
+
+        @Override
+        public void set(int index, double value) {
+            this.data().put(index, value);
+        }
+
+        @Override
+        public void get(int index, double[] dst, int offset, int length) {
+            this.data().get(index, dst, offset, length);
+        }
+
+        @Override
+        public void set(int index, double[] src, int offset, int length) {
+            this.data().put(index, src, offset, length);
+        }
+
+        /**
+         * Gets a duplicate of the buffer of the storage, which must not be used
+         * after the storage is closed
+         * 
+         * @return the buffer
+         */
+        @Override
+        public DoubleBuffer buffer() {
+            return this.data().duplicate();
+        }
+
+        /**
+         * Releases the memory of the storage if it owns it. Views of the
+         * storage throw once it is closed, as the storage itself does.
+         */
+        @Override
+        public synchronized void close() {
+            ByteBuffer owner = this.owner;
+
+            this.owner = null;
+            this.data = null;
+
+            if (owner != null && CLEANER != null) {
+                try {
+                    CLEANER.invokeExact(owner);
+                } catch (Throwable e) {
+                    // Left to the garbage collector
+                }
+            }
+        }
+
+        /**
+         * Gets the elements of the storage, checking that it is open
+         */
+        private DoubleBuffer data() {
+            DoubleBuffer data = this.data;
+
+            if (data == null) {
+                throw new IllegalStateException("Storage closed");
+            }
+
+            return data;
+        }
+
+        /**
+         * Looks up the method freeing direct buffers
+         */
+        private static MethodHandle cleaner() {
+            try {
+                Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+                Field field = unsafe.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+
+                return MethodHandles.lookup().findVirtual(
+                    unsafe,
+                    "invokeCleaner",
+                    MethodType.methodType(void.class, ByteBuffer.class)
+                ).bindTo(field.get(null));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * View of a region of another storage, in row-major order
+     * 
+     * The region has rows of the given number of cols, each one starting the
+     * given stride after the previous one, and shares the elements of the
+     * storage it views.
+     */
+    public static final class View implements Storage {
+
+        private final Storage parent;
+
+        private final int offset;
+
+        private final int cols;
+
+        private final int stride;
+
+        private final int size;
+
+        /**
+         * Creates a view of a region of a storage
+         * 
+         * @param parent viewed storage
+         * @param offset index of the first element in the parent
+         * @param cols elements of each row of the region
+         * @param stride distance between the starts of two rows in the parent
+         * @param size number of elements of the region
+         */
+        public View(Storage parent, int offset, int cols, int stride, int size) {
+            this.parent = parent;
+            this.offset = offset;
+            this.cols = cols;
+            this.stride = stride;
+            this.size = size;
+        }
+
+        /**
+         * Gets the viewed storage
+         * 
+         * @return the parent
+         */
+        public Storage parent() {
+            return this.parent;
+        }
+
+        /**
+         * Gets the index of the first element in the parent
+         * 
+         * @return the offset
+         */
+        public int offset() {
+            return this.offset;
+        }
+
+        /**
+         * Gets the number of elements of each row of the region
+         * 
+         * @return the cols
+         */
+        public int cols() {
+            return this.cols;
+        }
+
+        /**
+         * Gets the distance between the starts of two rows in the parent
+         * 
+         * @return the stride
+         */
+        public int stride() {
+            return this.stride;
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+
+        @Override
+        public double get(int index) {
+            return this.parent.get(this.map(index));
+        }
+
+        @Override
+        public void set(int index, double value) {
+            this.parent.set(this.map(index), value);
+        }
+
+        @Override
+        public void get(int index, double[] dst, int offset, int length) {
+            if (this.stride == this.cols) {
+                this.parent.get(this.offset + index, dst, offset, length);
+                return;
+            }
+
+            // One run of each row of the region
+            while (length > 0) {
+                int run = Math.min(length, this.cols - index % this.cols);
+
+                this.parent.get(this.map(index), dst, offset, run);
+
+                index += run;
+                offset += run;
+                length -= run;
+            }
+        }
+
+        @Override
+        public void set(int index, double[] src, int offset, int length) {
+            if (this.stride == this.cols) {
+                this.parent.set(this.offset + index, src, offset, length);
+                return;
+            }
+
+            while (length > 0) {
+                int run = Math.min(length, this.cols - index % this.cols);
+
+                this.parent.set(this.map(index), src, offset, run);
+
+                index += run;
+                offset += run;
+                length -= run;
+            }
+        }
+
+        @Override
+        public Precision precision() {
+            return this.parent.precision();
+        }
+
+        /**
+         * Maps an index of the region to an index of the parent
+         */
+        private int map(int index) {
+            return this.offset + index / this.cols * this.stride + index % this.cols;
+        }
+    }
+
+    /**
+     * Scope of off-heap storages, all of them released together when it is
+     * closed
+     */
+    public static final class Arena implements AutoCloseable {
+
+        private final List<Storage> storages = new ArrayList<>();
+
+        /**
+         * Creates a storage in a new direct buffer owned by the arena
+         * 
+         * @param size number of elements
+         * 
+         * @return the storage
+         */
+        public synchronized Storage direct(int size) {
+            Storage storage = Storage.direct(size);
+
+            this.storages.add(storage);
+
+            return storage;
+        }
+
+        /**
+         * Creates a matrix in a new direct buffer owned by the arena
+         * 
+         * @param rows number of rows
+         * @param cols number of cols
+         * 
+         * @return the matrix
+         * 
+         * @throws Exception a base exception with an error message
+         */
+        public Matrix matrix(int rows, int cols) throws Exception {
+            return new Matrix(rows, cols, this.direct(rows * cols));
+        }
+
+        /**
+         * Releases every storage of the arena
+         */
+        @Override
+        public synchronized void close() {
+            for (int s = this.storages.size() - 1; s >= 0; s--) {
+                this.storages.get(s).close();
+            }
+
+            this.storages.clear();
+        }
+    }
+}
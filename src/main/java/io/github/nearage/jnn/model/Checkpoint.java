@@ -0,0 +1,935 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.model;
+
+import io.github.nearage.jnn.input.Matrix;
+import io.github.nearage.jnn.input.MatrixFile;
+import io.github.nearage.jnn.input.Precision;
+import io.github.nearage.jnn.input.Shape;
+import io.github.nearage.jnn.model.layer.Conv;
+import io.github.nearage.jnn.model.layer.Dense;
+import io.github.nearage.jnn.model.layer.Flatten;
+import io.github.nearage.jnn.model.optimizer.Adam;
+import io.github.nearage.jnn.model.optimizer.AdamW;
+import io.github.nearage.jnn.model.optimizer.RmsProp;
+import io.github.nearage.jnn.model.optimizer.Sgd;
+import io.github.nearage.jnn.processing.Activation;
+import io.github.nearage.jnn.processing.Layer;
+import io.github.nearage.jnn.processing.Optimizer;
+import io.github.nearage.jnn.util.Matrices;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checkpoint of a Sequential model
+ * 
+ * A checkpoint is a single file with a 16-byte header, the magic "JNNC", the
+ * version (short), the precision of the parameters (short), the number of
+ * layers (int) and the number of optimizer state matrices (int), followed by
+ * a 16-byte descriptor for each layer, its kind (short), its activation
+ * (short), its units (int), whether it is built (int) and a reserved int,
+ * each one followed by the geometry of convolution layers, the channels,
+ * height and width of the input, the kernel, the stride and the padding (6
+ * ints), and by the weights and biases of the layer if it is built.
+ * The layers are followed by a 48-byte descriptor of the optimizer, its kind
+ * (short, -1 if it can not be stored), a reserved short, its number of state
+ * matrices per parameter (int), the number of steps taken (long) and four
+ * hyperparameters (doubles), and then by its state, for the weights and then
+ * the biases of every built layer, in 64-bit floats. Matrices are stored in
+ * the format of {@link MatrixFile}, parameters in 32-bit floats for models of
+ * narrower precision, and everything is little-endian.
+ * 
+ * Files are written to a temporary file that replaces the previous checkpoint
+ * once it is complete, and read by mapping them into memory. A checkpoint
+ * attached to a model with {@link Sequential#setCheckpoint} also saves the
+ * model every few epochs while it trains, copying the parameters between two
+ * epochs and writing them on a background thread.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public class Checkpoint implements AutoCloseable {
+
+    /**
+     * Magic number, "JNNC" read as a little-endian int
+     */
+    public static final int MAGIC = 0x434E4E4A;
+
+    /**
+     * Version of the format
+     */
+    public static final short VERSION = 3;
+
+    /**
+     * Size of the header and of each layer descriptor in bytes
+     */
+    private static final int HEADER = 16;
+
+    /**
+     * Size of the geometry of a convolution layer in bytes
+     */
+    private static final int GEOMETRY = 24;
+
+    /**
+     * Size of the descriptor of the optimizer in bytes
+     */
+    private static final int OPTIMIZER = 48;
+
+    /**
+     * Kinds of layer
+     */
+    private static final short DENSE = 0, FLATTEN = 1, CONV = 2;
+
+    /**
+     * Kinds of optimizer
+     */
+    private static final short SGD = 0, RMSPROP = 1, ADAM = 2, ADAMW = 3;
+
+    /**
+     * Activation functions by identifier
+     */
+    private static final Activation[][] ACTIVATIONS = {
+        Activation.RectifiedLinearUnit,
+        Activation.Sigmoid,
+        Activation.Softmax
+    };
+
+    /**
+     * Path of the checkpoint
+     */
+    private final String path;
+
+    /**
+     * Number of epochs between two checkpoints
+     */
+    private final int every;
+
+    /**
+     * Thread writing the checkpoints
+     */
+    private final ExecutorService writer;
+
+    /**
+     * Copy of the weights of the model being written
+     */
+    private Matrix[] weights;
+
+    /**
+     * Copy of the biases of the model being written
+     */
+    private Matrix[] biases;
+
+    /**
+     * Copy of the optimizer state of the model being written
+     */
+    private Matrix[][] states;
+
+    /**
+     * Write in progress, if any
+     */
+    private Future<?> pending;
+
+    /**
+     * Creates a periodic checkpoint
+     * 
+     * @param path path of the checkpoint
+     * @param every number of epochs between two checkpoints
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public Checkpoint(String path, int every) throws Exception {
+        if (every < 1) {
+            throw new Exception(String.format(
+                "Invalid checkpoint interval, every = %d",
+                every
+            ));
+        }
+
+        this.path = path;
+        this.every = every;
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jnn-checkpoint");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+
+    /**
+     * Saves the model after the given epoch if a checkpoint is due, copying
+     * its parameters and writing them in the background. The checkpoint is
+     * skipped if the previous one is still being written.
+     * 
+     * @param model model being trained
+     * @param epoch epoch that has just finished, from 0
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public void epoch(Sequential model, int epoch) throws Exception {
+        if ((epoch + 1) % this.every != 0) {
+            return;
+        }
+
+        if (this.pending != null) {
+            if (!this.pending.isDone()) {
+                return;
+            }
+
+            this.await();
+        }
+
+        Layer[] layers = model.layers;
+
+        if (this.weights == null || this.weights.length != layers.length) {
+            this.weights = new Matrix[layers.length];
+            this.biases = new Matrix[layers.length];
+            this.states = new Matrix[2 * layers.length][];
+        }
+
+        for (int l = 0; l < layers.length; l++) {
+            this.weights[l] = snapshot(layers[l].weights, this.weights[l]);
+            this.biases[l] = snapshot(layers[l].biases, this.biases[l]);
+        }
+
+        for (int p = 0; p < this.states.length; p++) {
+            Matrix[] state = model.getState(p);
+
+            if (state == null) {
+                this.states[p] = null;
+                continue;
+            }
+
+            if (
+                this.states[p] == null
+                || this.states[p].length != state.length
+            ) {
+                this.states[p] = new Matrix[state.length];
+            }
+
+            for (int s = 0; s < state.length; s++) {
+                this.states[p][s] = snapshot(state[s], this.states[p][s]);
+            }
+        }
+
+        Matrix[] weights = this.weights;
+        Matrix[] biases = this.biases;
+        Matrix[][] states = this.states;
+        Precision precision = model.getPrecision();
+        Optimizer optimizer = model.getOptimizer();
+        long steps = model.getSteps();
+
+        this.pending = this.writer.submit(() -> {
+            write(
+                layers,
+                weights,
+                biases,
+                precision,
+                optimizer,
+                states,
+                steps,
+                this.path
+            );
+
+            return null;
+        });
+    }
+
+    /**
+     * Waits for the checkpoint being written, if any
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public void await() throws Exception {
+        Future<?> pending = this.pending;
+
+        if (pending == null) {
+            return;
+        }
+
+        this.pending = null;
+
+        try {
+            pending.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception
+                ? (Exception) e.getCause()
+                : e;
+        }
+    }
+
+    /**
+     * Waits for the checkpoint being written and stops the writing thread
+     * 
+     * @throws IOException if the checkpoint could not be written, or the
+     * wait was interrupted
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.await();
+        } catch (IOException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IOException("Interrupted while writing the checkpoint", e);
+        } catch (Exception e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            this.writer.shutdown();
+        }
+    }
+
+    /**
+     * Saves the given model and the state of its optimizer to a checkpoint in
+     * the specified path
+     * 
+     * @param model model to save
+     * @param path path of the checkpoint
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static void save(Sequential model, String path) throws Exception {
+        Layer[] layers = model.layers;
+        Matrix[] weights = new Matrix[layers.length];
+        Matrix[] biases = new Matrix[layers.length];
+        Matrix[][] states = new Matrix[2 * layers.length][];
+
+        for (int l = 0; l < layers.length; l++) {
+            weights[l] = layers[l].weights;
+            biases[l] = layers[l].biases;
+            states[2 * l] = model.getState(2 * l);
+            states[2 * l + 1] = model.getState(2 * l + 1);
+        }
+
+        write(
+            layers,
+            weights,
+            biases,
+            model.getPrecision(),
+            model.getOptimizer(),
+            states,
+            model.getSteps(),
+            path
+        );
+    }
+
+    /**
+     * Loads a model from a checkpoint in the specified path, with the
+     * optimizer and the state it had reached, so training resumes where it
+     * stopped
+     * 
+     * @param path path of the checkpoint
+     * 
+     * @return the loaded model
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static Sequential load(String path) throws Exception {
+        return load(path, false);
+    }
+
+    /**
+     * Loads a model for inference from a checkpoint in the specified path,
+     * with its weights and biases backed by a mapping of the file, off the
+     * heap and with no copy. The parameters are read-only, so the model can
+     * not be trained.
+     * 
+     * @param path path of the checkpoint
+     * 
+     * @return the loaded model
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static Sequential map(String path) throws Exception {
+        return load(path, true);
+    }
+
+    /**
+     * Loads a model from a checkpoint in the specified path, either copying
+     * its parameters to the heap or backing them by the mapping
+     * 
+     * @param path path of the checkpoint
+     * @param view whether to back the parameters by the mapping
+     * 
+     * @return the loaded model
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private static Sequential load(String path, boolean view) throws Exception {
+        try (FileChannel channel = FileChannel.open(
+            Path.of(path),
+            StandardOpenOption.READ
+        )) {
+            MappedByteBuffer buffer = channel.map(
+                FileChannel.MapMode.READ_ONLY,
+                0,
+                channel.size()
+            );
+
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            int magic = buffer.getInt();
+            short version = buffer.getShort();
+            short precision = buffer.getShort();
+            int length = buffer.getInt();
+            int states = buffer.getInt();
+
+            if (magic != MAGIC || version < 1 || version > VERSION) {
+                throw new Exception(String.format(
+                    "Invalid checkpoint header, magic = %08x and version = %d",
+                    magic,
+                    version
+                ));
+            }
+
+            if (precision < 0 || precision >= Precision.values().length) {
+                throw new Exception(String.format(
+                    "Invalid precision in checkpoint, precision = %d",
+                    precision
+                ));
+            }
+
+            Layer[] layers = new Layer[length];
+
+            for (int l = 0; l < length; l++) {
+                short kind = buffer.getShort();
+                short activation = buffer.getShort();
+                int units = buffer.getInt();
+                boolean built = buffer.getInt() != 0;
+                buffer.getInt();
+
+                if (kind == CONV && version < 2) {
+                    throw new Exception(
+                        "Conv layers need a checkpoint of version 2"
+                    );
+                }
+
+                layers[l] = layer(kind, activation, units, buffer);
+
+                if (built) {
+                    layers[l].weights = matrix(buffer, view);
+                    layers[l].biases = matrix(buffer, view);
+                }
+            }
+
+            Sequential model = new Sequential(layers);
+            model.setPrecision(Precision.values()[precision]);
+
+            // Mapped models can not be trained, their optimizer is not read
+            if (version >= 3 && !view) {
+                restore(model, states, buffer);
+            }
+
+            return model;
+        }
+    }
+
+    /**
+     * Writes the given layers and parameters to a checkpoint in the specified
+     * path, replacing it once it is complete
+     * 
+     * @param layers layers of the model
+     * @param weights weights of each layer, null if it is not built
+     * @param biases biases of each layer, null if it is not built
+     * @param precision precision of the parameters
+     * @param optimizer optimizer of the model
+     * @param states optimizer state of each parameter, null if it has none
+     * @param steps number of steps taken with the optimizer
+     * @param path path of the checkpoint
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private static void write(
+        Layer[] layers,
+        Matrix[] weights,
+        Matrix[] biases,
+        Precision precision,
+        Optimizer optimizer,
+        Matrix[][] states,
+        long steps,
+        String path
+    ) throws Exception {
+        ByteBuffer descriptor = describe(optimizer, steps);
+        int slots = descriptor.getInt(4);
+
+        // State is stored only once every built parameter has it
+        int count = 0;
+
+        for (int l = 0; l < layers.length && slots > 0; l++) {
+            if (weights[l] == null || biases[l] == null) {
+                continue;
+            }
+
+            if (
+                states[2 * l] == null
+                || states[2 * l].length != slots
+                || states[2 * l + 1] == null
+                || states[2 * l + 1].length != slots
+            ) {
+                count = 0;
+                break;
+            }
+
+            count += 2 * slots;
+        }
+
+        // Narrower parameters fit exactly in 32-bit floats
+        short dtype = precision == Precision.FLOAT64
+            ? MatrixFile.FLOAT64
+            : MatrixFile.FLOAT32;
+
+        Path target = Path.of(path);
+        Path temporary = Path.of(path + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(
+            temporary,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING
+        )) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+            header.putInt(MAGIC)
+                .putShort(VERSION)
+                .putShort((short) precision.ordinal())
+                .putInt(layers.length)
+                .putInt(count)
+                .flip();
+
+            drain(header, channel);
+
+            for (int l = 0; l < layers.length; l++) {
+                boolean built = weights[l] != null && biases[l] != null;
+
+                header.clear();
+                describe(layers[l], header);
+                header.putInt(built ? 1 : 0)
+                    .putInt(0)
+                    .flip();
+
+                drain(header, channel);
+
+                if (layers[l] instanceof Conv) {
+                    drain(geometry((Conv) layers[l]), channel);
+                }
+
+                if (built) {
+                    MatrixFile.write(weights[l], dtype, channel);
+                    MatrixFile.write(biases[l], dtype, channel);
+                }
+            }
+
+            drain(descriptor, channel);
+
+            for (int l = 0; l < layers.length && count > 0; l++) {
+                if (weights[l] == null || biases[l] == null) {
+                    continue;
+                }
+
+                for (int p = 2 * l; p <= 2 * l + 1; p++) {
+                    for (Matrix state : states[p]) {
+                        MatrixFile.write(state, MatrixFile.FLOAT64, channel);
+                    }
+                }
+            }
+        }
+
+        Files.move(
+            temporary,
+            target,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE
+        );
+    }
+
+    /**
+     * Puts the kind, number of state matrices, steps and hyperparameters of
+     * an optimizer into a new buffer, with kind -1 for optimizers that can
+     * not be stored
+     * 
+     * @param optimizer optimizer to describe
+     * @param steps number of steps taken with the optimizer
+     * 
+     * @return the buffer, ready to be written
+     */
+    private static ByteBuffer describe(Optimizer optimizer, long steps) {
+        ByteBuffer buffer = ByteBuffer.allocate(OPTIMIZER)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+        // Subclasses may keep other state, only these exact classes are known
+        Class<?> type = optimizer.getClass();
+
+        if (type == Sgd.class) {
+            Sgd sgd = (Sgd) optimizer;
+
+            buffer.putShort(SGD)
+                .putShort((short) 0)
+                .putInt(sgd.slots())
+                .putLong(steps)
+                .putDouble(sgd.getMomentum())
+                .putDouble(sgd.isNesterov() ? 1d : 0d)
+                .putDouble(sgd.getDecay())
+                .putDouble(0d);
+        } else if (type == RmsProp.class) {
+            RmsProp rmsProp = (RmsProp) optimizer;
+
+            buffer.putShort(RMSPROP)
+                .putShort((short) 0)
+                .putInt(rmsProp.slots())
+                .putLong(steps)
+                .putDouble(rmsProp.getRho())
+                .putDouble(rmsProp.getEpsilon())
+                .putDouble(rmsProp.getDecay())
+                .putDouble(0d);
+        } else if (type == Adam.class || type == AdamW.class) {
+            Adam adam = (Adam) optimizer;
+
+            buffer.putShort(type == Adam.class ? ADAM : ADAMW)
+                .putShort((short) 0)
+                .putInt(adam.slots())
+                .putLong(steps)
+                .putDouble(adam.getBeta1())
+                .putDouble(adam.getBeta2())
+                .putDouble(adam.getEpsilon())
+                .putDouble(adam.getDecay());
+        } else {
+            buffer.putShort((short) -1)
+                .putShort((short) 0)
+                .putInt(0)
+                .putLong(0L)
+                .putDouble(0d)
+                .putDouble(0d)
+                .putDouble(0d)
+                .putDouble(0d);
+        }
+
+        return buffer.flip();
+    }
+
+    /**
+     * Reads the descriptor of the optimizer and its state from a buffer,
+     * setting them on the model
+     * 
+     * @param model model, with its layers read
+     * @param count number of state matrices
+     * @param buffer buffer, at the descriptor of the optimizer
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private static void restore(
+        Sequential model,
+        int count,
+        ByteBuffer buffer
+    ) throws Exception {
+        short kind = buffer.getShort();
+        buffer.getShort();
+        int slots = buffer.getInt();
+        long steps = buffer.getLong();
+        double a = buffer.getDouble();
+        double b = buffer.getDouble();
+        double c = buffer.getDouble();
+        double d = buffer.getDouble();
+
+        Optimizer optimizer;
+
+        switch (kind) {
+            case -1:
+                return;
+            case SGD:
+                optimizer = new Sgd(a, b != 0d, c);
+                break;
+            case RMSPROP:
+                optimizer = new RmsProp(a, b, c);
+                break;
+            case ADAM:
+                optimizer = new Adam(a, b, c, d);
+                break;
+            case ADAMW:
+                optimizer = new AdamW(a, b, c, d);
+                break;
+            default:
+                throw new Exception(String.format(
+                    "Invalid optimizer in checkpoint, optimizer = %d",
+                    kind
+                ));
+        }
+
+        Layer[] layers = model.layers;
+        int built = 0;
+
+        for (Layer layer : layers) {
+            built += layer.weights != null && layer.biases != null ? 1 : 0;
+        }
+
+        if (
+            slots != optimizer.slots()
+            || (count != 0 && count != 2 * built * slots)
+        ) {
+            throw new Exception(String.format(
+                "Invalid optimizer state in checkpoint, slots = %d and "
+                + "states = %d",
+                slots,
+                count
+            ));
+        }
+
+        Matrix[][] states = count > 0 ? new Matrix[2 * layers.length][] : null;
+
+        for (int l = 0; l < layers.length && count > 0; l++) {
+            if (layers[l].weights == null || layers[l].biases == null) {
+                continue;
+            }
+
+            for (int p = 2 * l; p <= 2 * l + 1; p++) {
+                Matrix parameter = p == 2 * l
+                    ? layers[l].weights
+                    : layers[l].biases;
+
+                states[p] = new Matrix[slots];
+
+                for (int s = 0; s < slots; s++) {
+                    Matrix state = MatrixFile.read(buffer);
+
+                    if (
+                        state.rows != parameter.rows
+                        || state.cols != parameter.cols
+                    ) {
+                        throw new Exception(String.format(
+                            "Shape mismatch in optimizer state of layer %d, "
+                            + "state = (%d, %d) and parameter = (%d, %d)",
+                            l,
+                            state.rows,
+                            state.cols,
+                            parameter.rows,
+                            parameter.cols
+                        ));
+                    }
+
+                    states[p][s] = state;
+                }
+            }
+        }
+
+        model.setOptimizer(optimizer, states, steps);
+    }
+
+    /**
+     * Reads a matrix from a buffer, either copying it to the heap or backing
+     * it by the buffer if its elements are 64-bit floats
+     * 
+     * @param buffer buffer to read from
+     * @param view whether to back the matrix by the buffer
+     * 
+     * @return the matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private static Matrix matrix(ByteBuffer buffer, boolean view) throws Exception {
+        // Data type of the matrix, after its magic and version
+        short dtype = buffer.order(ByteOrder.LITTLE_ENDIAN)
+            .getShort(buffer.position() + 6);
+
+        if (view && dtype == MatrixFile.FLOAT64) {
+            return MatrixFile.view(buffer, null);
+        }
+
+        return MatrixFile.read(buffer);
+    }
+
+    /**
+     * Puts the kind, activation and units of a layer into a buffer
+     * 
+     * @param layer layer to describe
+     * @param buffer buffer
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private static void describe(Layer layer, ByteBuffer buffer) throws Exception {
+        if (layer instanceof Dense) {
+            Dense dense = (Dense) layer;
+
+            buffer.putShort(DENSE)
+                .putShort(activation(dense.getActivation()))
+                .putInt(dense.getNeurs());
+        } else if (layer instanceof Flatten) {
+            buffer.putShort(FLATTEN)
+                .putShort((short) -1)
+                .putInt(((Flatten) layer).getRows());
+        } else if (layer instanceof Conv) {
+            Conv conv = (Conv) layer;
+
+            buffer.putShort(CONV)
+                .putShort(activation(conv.getActivation()))
+                .putInt(conv.getFilters());
+        } else {
+            throw new Exception(String.format(
+                "Unsupported layer in checkpoint, layer = %s",
+                layer.getClass().getSimpleName()
+            ));
+        }
+    }
+
+    /**
+     * Puts the geometry of a convolution layer into a new buffer
+     * 
+     * @param conv convolution layer
+     * 
+     * @return the buffer, ready to be written
+     */
+    private static ByteBuffer geometry(Conv conv) {
+        return ByteBuffer.allocate(GEOMETRY)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .putInt(conv.getInput().channels)
+            .putInt(conv.getInput().height)
+            .putInt(conv.getInput().width)
+            .putInt(conv.getKernel())
+            .putInt(conv.getStride())
+            .putInt(conv.getPadding())
+            .flip();
+    }
+
+    /**
+     * Creates a layer from its kind, activation and units, reading the
+     * geometry of convolution layers from the buffer
+     * 
+     * @param kind kind of layer
+     * @param activation identifier of the activation
+     * @param units units of the layer
+     * @param buffer buffer, at the end of the descriptor
+     * 
+     * @return the layer
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private static Layer layer(
+        short kind,
+        short activation,
+        int units,
+        ByteBuffer buffer
+    ) throws Exception {
+        if (
+            (kind == DENSE || kind == CONV)
+            && (activation < 0 || activation >= ACTIVATIONS.length)
+        ) {
+            throw new Exception(String.format(
+                "Invalid activation in checkpoint, activation = %d",
+                activation
+            ));
+        }
+
+        switch (kind) {
+            case DENSE:
+                return new Dense(units, ACTIVATIONS[activation]);
+            case FLATTEN:
+                // Rows were not stored before version 2
+                return new Flatten(Math.max(1, units));
+            case CONV:
+                Shape input = new Shape(
+                    buffer.getInt(),
+                    buffer.getInt(),
+                    buffer.getInt()
+                );
+
+                return new Conv(
+                    input,
+                    units,
+                    buffer.getInt(),
+                    buffer.getInt(),
+                    buffer.getInt(),
+                    ACTIVATIONS[activation]
+                );
+            default:
+                throw new Exception(String.format(
+                    "Invalid layer in checkpoint, kind = %d",
+                    kind
+                ));
+        }
+    }
+
+    /**
+     * Gets the identifier of an activation function
+     * 
+     * @param activation activation function
+     * 
+     * @return the identifier
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private static short activation(Activation[] activation) throws Exception {
+        for (short a = 0; a < ACTIVATIONS.length; a++) {
+            if (ACTIVATIONS[a] == activation) {
+                return a;
+            }
+        }
+
+        throw new Exception("Unsupported activation in checkpoint");
+    }
+
+    /**
+     * Copies a matrix into a snapshot, allocating it if needed
+     * 
+     * @param matrix matrix to copy, may be null
+     * @param snapshot previous snapshot, may be null
+     * 
+     * @return the snapshot, null if the matrix is null
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private static Matrix snapshot(Matrix matrix, Matrix snapshot) throws Exception {
+        if (matrix == null) {
+            return null;
+        }
+
+        if (
+            snapshot == null
+            || snapshot.rows != matrix.rows
+            || snapshot.cols != matrix.cols
+        ) {
+            snapshot = new Matrix(matrix.rows, matrix.cols);
+        }
+
+        Matrices.copyInto(matrix, snapshot);
+
+        return snapshot;
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer to a channel
+     * 
+     * @param buffer buffer to write
+     * @param channel channel to write to
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws Exception {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
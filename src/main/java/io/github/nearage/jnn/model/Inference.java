@@ -0,0 +1,481 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.model;
+
+import io.github.nearage.jnn.input.Matrix;
+import io.github.nearage.jnn.processing.Model;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the predictions of a model to many callers at once
+ * 
+ * Samples submitted from any thread wait in a bounded queue until a single
+ * thread takes them, up to a maximum batch or a maximum wait after the first
+ * one, and predicts them together. Batches are padded to a few sizes, so the
+ * model plans at most four workspaces and never allocates while serving. The
+ * model should not be trained while it is served.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public class Inference implements AutoCloseable {
+
+    /**
+     * Number of recent latencies kept for the percentiles
+     */
+    private static final int LATENCIES = 1 << 14;
+
+    /**
+     * Sample waiting for its prediction
+     */
+    private static final class Request {
+        private final Matrix sample;
+        private final CompletableFuture<Matrix> result = new CompletableFuture<>();
+        private final long submitted = System.nanoTime();
+
+        private Request(Matrix sample) {
+            this.sample = sample;
+        }
+    }
+
+    /**
+     * Model making the predictions
+     */
+    private final Model model;
+
+    /**
+     * Number of cols of each sample
+     */
+    private final int inputs;
+
+    /**
+     * Maximum number of samples predicted together
+     */
+    private final int maxBatch;
+
+    /**
+     * Maximum time the first sample of a batch waits for others, in
+     * nanoseconds
+     */
+    private final long maxWait;
+
+    /**
+     * Samples waiting to be taken
+     */
+    private final BlockingQueue<Request> queue;
+
+    /**
+     * Sizes the batches are padded to, ascending
+     */
+    private final int[] sizes;
+
+    /**
+     * Input buffer for each size
+     */
+    private final Matrix[] buffers;
+
+    /**
+     * Thread predicting the batches
+     */
+    private final Thread dispatcher;
+
+    /**
+     * Recent latencies in nanoseconds, from the submission of a sample to
+     * its prediction
+     */
+    private final long[] latencies = new long[LATENCIES];
+
+    private long requests;
+    private long batches;
+    private volatile boolean closed;
+
+    /**
+     * Creates an inference server with batches of up to 64 samples, a wait of
+     * up to a millisecond and room for 1024 samples
+     * 
+     * @param model model making the predictions
+     * @param inputs number of cols of each sample
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public Inference(Model model, int inputs) throws Exception {
+        this(model, inputs, 64, 1000L, 1024);
+    }
+
+    /**
+     * Creates an inference server
+     * 
+     * @param model model making the predictions
+     * @param inputs number of cols of each sample
+     * @param maxBatch maximum number of samples predicted together
+     * @param maxWait maximum time the first sample of a batch waits for
+     * others, in microseconds
+     * @param capacity maximum number of samples waiting
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public Inference(
+        Model model,
+        int inputs,
+        int maxBatch,
+        long maxWait,
+        int capacity
+    ) throws Exception {
+        if (inputs < 1 || maxBatch < 1 || maxWait < 0L || capacity < 1) {
+            throw new Exception(String.format(
+                "Invalid inference settings, inputs = %d, maxBatch = %d, "
+                + "maxWait = %d and capacity = %d",
+                inputs,
+                maxBatch,
+                maxWait,
+                capacity
+            ));
+        }
+
+        this.model = model;
+        this.inputs = inputs;
+        this.maxBatch = maxBatch;
+        this.maxWait = TimeUnit.MICROSECONDS.toNanos(maxWait);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+
+        // Single samples, small, medium and full batches
+        this.sizes = Arrays.stream(new int[] {
+            1,
+            (maxBatch + 15) / 16,
+            (maxBatch + 3) / 4,
+            maxBatch
+        }).distinct().toArray();
+
+        this.buffers = new Matrix[this.sizes.length];
+
+        for (int s = 0; s < this.sizes.length; s++) {
+            this.buffers[s] = new Matrix(this.sizes[s], inputs);
+        }
+
+        this.dispatcher = new Thread(this::dispatch, "jnn-inference");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Submits a sample for prediction without waiting for it
+     * 
+     * @param sample sample of shape (1, inputs)
+     * 
+     * @return the future prediction of shape (1, outputs), failed if the
+     * model fails or the server is closed before predicting it
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public CompletableFuture<Matrix> submit(Matrix sample) throws Exception {
+        if (sample.rows != 1 || sample.cols != this.inputs) {
+            throw new Exception(String.format(
+                "Shape mismatch in inference, sample = (%d, %d) and "
+                + "expected = (1, %d)",
+                sample.rows,
+                sample.cols,
+                this.inputs
+            ));
+        }
+
+        if (this.closed) {
+            throw new Exception("Inference closed");
+        }
+
+        Request request = new Request(sample);
+
+        if (!this.queue.offer(request)) {
+            throw new Exception(String.format(
+                "Inference queue full, capacity = %d",
+                this.queue.size() + this.queue.remainingCapacity()
+            ));
+        }
+
+        // Requests queued while closing are failed here or by close
+        if (this.closed && this.queue.remove(request)) {
+            request.result.completeExceptionally(
+                new Exception("Inference closed")
+            );
+        }
+
+        return request.result;
+    }
+
+    /**
+     * Predicts a sample, waiting for its batch
+     * 
+     * @param sample sample of shape (1, inputs)
+     * 
+     * @return the prediction of shape (1, outputs)
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public Matrix predict(Matrix sample) throws Exception {
+        try {
+            return this.submit(sample).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception
+                ? (Exception) e.getCause()
+                : e;
+        }
+    }
+
+    /**
+     * Takes and predicts batches until the server is closed, closing it if
+     * the thread stops for any other reason
+     */
+    private void dispatch() {
+        List<Request> batch = new ArrayList<>(this.maxBatch);
+
+        try {
+            this.serve(batch);
+        } finally {
+            this.closed = true;
+            this.fail(batch);
+        }
+    }
+
+    /**
+     * Takes and predicts batches until the server is closed
+     * 
+     * @param batch list holding the batch being taken
+     */
+    private void serve(List<Request> batch) {
+        while (!this.closed) {
+            try {
+                Request first = this.queue.take();
+                batch.add(first);
+
+                // Wait for more samples until the batch is full or the first
+                // one has waited long enough
+                long deadline = first.submitted + this.maxWait;
+
+                while (batch.size() < this.maxBatch) {
+                    this.queue.drainTo(batch, this.maxBatch - batch.size());
+
+                    long remaining = deadline - System.nanoTime();
+
+                    if (batch.size() == this.maxBatch || remaining <= 0L) {
+                        break;
+                    }
+
+                    Request next = this.queue.poll(
+                        remaining,
+                        TimeUnit.NANOSECONDS
+                    );
+
+                    if (next == null) {
+                        break;
+                    }
+
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            this.predict(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Predicts a batch of requests, completing their results
+     * 
+     * @param batch requests to predict
+     */
+    private void predict(List<Request> batch) {
+        int count = batch.size();
+        int s = 0;
+
+        while (this.sizes[s] < count) {
+            s++;
+        }
+
+        Matrix input = this.buffers[s];
+
+        try {
+            // Padding rows keep stale samples, their predictions are ignored
+            for (int r = 0; r < count; r++) {
+                batch.get(r).sample.storage().get(
+                    0,
+                    input.array(), r * this.inputs,
+                    this.inputs
+                );
+            }
+
+            Matrix[] activations = this.model.activate(input);
+            Matrix output = activations[activations.length - 1];
+            Matrix[] predictions = new Matrix[count];
+            long now = System.nanoTime();
+
+            for (int r = 0; r < count; r++) {
+                predictions[r] = new Matrix(1, output.cols);
+
+                output.storage().get(
+                    r * output.cols,
+                    predictions[r].array(), 0,
+                    output.cols
+                );
+            }
+
+            synchronized (this.latencies) {
+                for (int r = 0; r < count; r++) {
+                    this.latencies[(int) (this.requests++ % LATENCIES)] =
+                        now - batch.get(r).submitted;
+                }
+
+                this.batches++;
+            }
+
+            // Completed outside the lock, since callers may continue on this
+            // thread
+            for (int r = 0; r < count; r++) {
+                batch.get(r).result.complete(predictions[r]);
+            }
+        } catch (Exception e) {
+            // A failed batch fails its requests only, errors stop the
+            // dispatcher and close the server
+            for (Request request : batch) {
+                request.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Fails the given requests and every waiting one because the server is
+     * closed
+     * 
+     * @param batch requests taken from the queue
+     */
+    private void fail(List<Request> batch) {
+        this.queue.drainTo(batch);
+
+        for (Request request : batch) {
+            request.result.completeExceptionally(
+                new Exception("Inference closed")
+            );
+        }
+
+        batch.clear();
+    }
+
+    /**
+     * Gets a percentile of the recent latencies, from the submission of a
+     * sample to its prediction
+     * 
+     * @param percentile percentile, from 0 to 100
+     * 
+     * @return the latency in microseconds, or 0 before any prediction
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public double getLatency(double percentile) throws Exception {
+        if (!(percentile >= 0d && percentile <= 100d)) {
+            throw new Exception(String.format(
+                "Invalid percentile, percentile = %f",
+                percentile
+            ));
+        }
+
+        long[] recent;
+
+        synchronized (this.latencies) {
+            recent = Arrays.copyOf(
+                this.latencies,
+                (int) Math.min(this.requests, LATENCIES)
+            );
+        }
+
+        if (recent.length == 0) {
+            return 0d;
+        }
+
+        Arrays.sort(recent);
+
+        int index = (int) Math.ceil(percentile / 100d * recent.length) - 1;
+
+        return recent[Math.max(0, index)] / 1e3;
+    }
+
+    /**
+     * Gets the median of the recent latencies
+     * 
+     * @return the latency in microseconds
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public double getP50() throws Exception {
+        return this.getLatency(50d);
+    }
+
+    /**
+     * Gets the 99th percentile of the recent latencies
+     * 
+     * @return the latency in microseconds
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public double getP99() throws Exception {
+        return this.getLatency(99d);
+    }
+
+    /**
+     * Gets the number of samples predicted
+     * 
+     * @return number of samples
+     */
+    public long getRequests() {
+        synchronized (this.latencies) {
+            return this.requests;
+        }
+    }
+
+    /**
+     * Gets the number of batches predicted
+     * 
+     * @return number of batches
+     */
+    public long getBatches() {
+        synchronized (this.latencies) {
+            return this.batches;
+        }
+    }
+
+    /**
+     * Stops the server, failing the samples not predicted yet
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.dispatcher.interrupt();
+
+        try {
+            this.dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.fail(new ArrayList<>());
+    }
+}
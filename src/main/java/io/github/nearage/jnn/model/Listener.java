@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.model;
+
+/**
+ * Training listener
+ * 
+ * Receives the {@link Metrics} of a training as it goes. Every method does
+ * nothing by default, and all of them are called on the training thread, so
+ * they should return quickly.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public interface Listener {
+
+    /**
+     * Called before the first epoch
+     * 
+     * @param metrics metrics of the training
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public default void started(Metrics metrics) throws Exception {
+    }
+
+    /**
+     * Called after each batch
+     * 
+     * @param metrics metrics of the training
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public default void batch(Metrics metrics) throws Exception {
+    }
+
+    /**
+     * Called after each epoch
+     * 
+     * @param metrics metrics of the training
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public default void epoch(Metrics metrics) throws Exception {
+    }
+
+    /**
+     * Called after the last epoch
+     * 
+     * @param metrics metrics of the training
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public default void finished(Metrics metrics) throws Exception {
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.model;
+
+import io.github.nearage.jnn.util.Counters;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * Metrics of a training
+ * 
+ * Updated by the model after each batch and read by its {@link Listener}s, or
+ * through JMX. Layer times, and the products counted by {@link Counters}, are
+ * only measured while a model trains with listeners. Products and allocations
+ * are counted across every thread, so they include the ones of other models
+ * running at the same time, and allocations of threads that end during an
+ * epoch are dropped. Values read from other threads may lag behind.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public class Metrics implements MetricsMXBean {
+
+    /**
+     * Threads of the JVM, if they measure their allocations
+     */
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private final int epochs;
+    private final long[] forwardNanos;
+    private final long[] backwardNanos;
+
+    private int epoch;
+    private int batch;
+    private int batchSamples;
+    private double batchLoss;
+    private long batchNanos;
+    private long epochSamples;
+    private double epochLoss;
+    private long epochNanos;
+    private long flops;
+    private long productNanos;
+    private long allocatedBytes;
+    private long totalSamples;
+    private long totalNanos;
+
+    /**
+     * Start of the training, epoch and batch
+     */
+    private long trainingStart;
+    private long epochStart;
+    private long batchStart;
+
+    /**
+     * Counters at the start of the epoch
+     */
+    private long flopsStart;
+    private long productNanosStart;
+
+    /**
+     * Threads alive at the start of the epoch, sorted, and the bytes each
+     * one had allocated
+     */
+    private long[] threadIds = new long[0];
+    private long[] threadBytes = new long[0];
+
+    /**
+     * Creates the metrics of a training
+     * 
+     * @param layers number of layers of the model
+     * @param epochs number of epochs of the training
+     */
+    Metrics(int layers, int epochs) {
+        this.epochs = epochs;
+        this.forwardNanos = new long[layers];
+        this.backwardNanos = new long[layers];
+    }
+
+    /**
+     * Starts the training, counting products until it stops
+     */
+    void start() {
+        Counters.enable();
+
+        this.trainingStart = System.nanoTime();
+    }
+
+    /**
+     * Starts an epoch
+     * 
+     * @param epoch epoch, starting at 0
+     */
+    void startEpoch(int epoch) {
+        this.epoch = epoch + 1;
+        this.batch = 0;
+        this.epochSamples = 0L;
+        this.epochLoss = 0d;
+        this.epochNanos = 0L;
+        this.flops = 0L;
+        this.productNanos = 0L;
+        this.allocatedBytes = THREADS != null ? 0L : -1L;
+
+        Arrays.fill(this.forwardNanos, 0L);
+        Arrays.fill(this.backwardNanos, 0L);
+
+        this.flopsStart = Counters.flops();
+        this.productNanosStart = Counters.nanos();
+        this.threads(true);
+        this.epochStart = System.nanoTime();
+    }
+
+    /**
+     * Starts a batch
+     */
+    void startBatch() {
+        this.batchStart = System.nanoTime();
+    }
+
+    /**
+     * Adds the time of a layer in a forward pass
+     * 
+     * @param layer layer
+     * @param nanos nanoseconds
+     */
+    void forward(int layer, long nanos) {
+        this.forwardNanos[layer] += nanos;
+    }
+
+    /**
+     * Adds the time of a layer in a backward pass and its correction
+     * 
+     * @param layer layer
+     * @param nanos nanoseconds
+     */
+    void backward(int layer, long nanos) {
+        this.backwardNanos[layer] += nanos;
+    }
+
+    /**
+     * Ends the batch started last
+     * 
+     * @param samples number of samples of the batch
+     * @param loss loss of the batch
+     */
+    void endBatch(int samples, double loss) {
+        this.endBatch(samples, loss, this.batchStart);
+    }
+
+    /**
+     * Ends a batch started at the given time, for batches trained at the
+     * same time by several workers
+     * 
+     * @param samples number of samples of the batch
+     * @param loss loss of the batch
+     * @param start start of the batch, from {@link System#nanoTime}
+     */
+    void endBatch(int samples, double loss, long start) {
+        long now = System.nanoTime();
+        long allocated = this.threads(false);
+
+        this.batch++;
+        this.batchSamples = samples;
+        this.batchLoss = loss;
+        this.batchNanos = now - start;
+        this.epochLoss = (this.epochLoss * this.epochSamples + loss * samples)
+            / (this.epochSamples + samples);
+        this.epochSamples += samples;
+        this.epochNanos = now - this.epochStart;
+        this.totalSamples += samples;
+        this.totalNanos = now - this.trainingStart;
+        this.flops = Counters.flops() - this.flopsStart;
+        this.productNanos = Counters.nanos() - this.productNanosStart;
+        this.allocatedBytes = allocated;
+    }
+
+    /**
+     * Stops the training, also if it fails
+     */
+    void stop() {
+        Counters.disable();
+    }
+
+    @Override
+    public int getEpochs() {
+        return this.epochs;
+    }
+
+    @Override
+    public int getEpoch() {
+        return this.epoch;
+    }
+
+    @Override
+    public int getBatch() {
+        return this.batch;
+    }
+
+    @Override
+    public int getBatchSamples() {
+        return this.batchSamples;
+    }
+
+    @Override
+    public double getBatchLoss() {
+        return this.batchLoss;
+    }
+
+    @Override
+    public long getBatchNanos() {
+        return this.batchNanos;
+    }
+
+    @Override
+    public long getEpochSamples() {
+        return this.epochSamples;
+    }
+
+    @Override
+    public double getEpochLoss() {
+        return this.epochLoss;
+    }
+
+    @Override
+    public long getEpochNanos() {
+        return this.epochNanos;
+    }
+
+    @Override
+    public double getSamplesPerSecond() {
+        return this.epochNanos == 0L
+            ? 0d
+            : this.epochSamples * 1e9 / this.epochNanos;
+    }
+
+    @Override
+    public long[] getForwardNanos() {
+        return this.forwardNanos.clone();
+    }
+
+    @Override
+    public long[] getBackwardNanos() {
+        return this.backwardNanos.clone();
+    }
+
+    /**
+     * Gets the time a layer took in forward passes in the epoch so far
+     * 
+     * @param layer layer
+     * 
+     * @return nanoseconds
+     */
+    public long getForwardNanos(int layer) {
+        return this.forwardNanos[layer];
+    }
+
+    /**
+     * Gets the time a layer took in backward passes and corrections in the
+     * epoch so far
+     * 
+     * @param layer layer
+     * 
+     * @return nanoseconds
+     */
+    public long getBackwardNanos(int layer) {
+        return this.backwardNanos[layer];
+    }
+
+    /**
+     * Gets the number of layers of the model
+     * 
+     * @return number of layers
+     */
+    public int getLayers() {
+        return this.forwardNanos.length;
+    }
+
+    @Override
+    public long getFlops() {
+        return this.flops;
+    }
+
+    @Override
+    public long getProductNanos() {
+        return this.productNanos;
+    }
+
+    @Override
+    public double getGflops() {
+        return this.productNanos == 0L
+            ? 0d
+            : (double) this.flops / this.productNanos;
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return this.allocatedBytes;
+    }
+
+    @Override
+    public long getTotalSamples() {
+        return this.totalSamples;
+    }
+
+    @Override
+    public long getTotalNanos() {
+        return this.totalNanos;
+    }
+
+    /**
+     * Gets the bytes allocated by every live thread since the start of the
+     * epoch, counting threads started since then from 0
+     * 
+     * @param start whether to take the counts at the start of the epoch
+     * 
+     * @return bytes, or -1 if the JVM does not measure them
+     */
+    private long threads(boolean start) {
+        if (THREADS == null) {
+            return -1L;
+        }
+
+        long[] ids = THREADS.getAllThreadIds();
+        long[] bytes = THREADS.getThreadAllocatedBytes(ids);
+
+        if (start) {
+            long[] sorted = ids.clone();
+            Arrays.sort(sorted);
+
+            this.threadIds = sorted;
+            this.threadBytes = new long[sorted.length];
+
+            for (int t = 0; t < ids.length; t++) {
+                this.threadBytes[Arrays.binarySearch(sorted, ids[t])] = bytes[t];
+            }
+
+            return 0L;
+        }
+
+        long total = 0L;
+
+        for (int t = 0; t < ids.length; t++) {
+            // Threads that ended are reported as -1
+            if (bytes[t] < 0L) {
+                continue;
+            }
+
+            int index = Arrays.binarySearch(this.threadIds, ids[t]);
+
+            total += index >= 0
+                ? Math.max(0L, bytes[t] - this.threadBytes[index])
+                : bytes[t];
+        }
+
+        return total;
+    }
+
+    /**
+     * Gets the threads of the JVM if they measure their allocations, or null
+     */
+    private static com.sun.management.ThreadMXBean threads() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        if (
+            threads instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) threads)
+                .isThreadAllocatedMemorySupported()
+            && ((com.sun.management.ThreadMXBean) threads)
+                .isThreadAllocatedMemoryEnabled()
+        ) {
+            return (com.sun.management.ThreadMXBean) threads;
+        }
+
+        return null;
+    }
+}
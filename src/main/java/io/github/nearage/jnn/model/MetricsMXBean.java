@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.model;
+
+/**
+ * Management interface of the {@link Metrics} of a training, see
+ * {@link io.github.nearage.jnn.model.listener.Jmx}
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public interface MetricsMXBean {
+
+    /**
+     * Gets the number of epochs of the training
+     * 
+     * @return number of epochs
+     */
+    public int getEpochs();
+
+    /**
+     * Gets the current epoch, starting at 1
+     * 
+     * @return current epoch
+     */
+    public int getEpoch();
+
+    /**
+     * Gets the current batch of the epoch, starting at 1
+     * 
+     * @return current batch
+     */
+    public int getBatch();
+
+    /**
+     * Gets the number of samples of the last batch
+     * 
+     * @return number of samples
+     */
+    public int getBatchSamples();
+
+    /**
+     * Gets the loss of the last batch
+     * 
+     * @return loss
+     */
+    public double getBatchLoss();
+
+    /**
+     * Gets the time the last batch took, from the moment its worker took it
+     * with hogwild workers
+     * 
+     * @return nanoseconds
+     */
+    public long getBatchNanos();
+
+    /**
+     * Gets the number of samples of the epoch so far
+     * 
+     * @return number of samples
+     */
+    public long getEpochSamples();
+
+    /**
+     * Gets the loss of the epoch so far, averaged over its samples
+     * 
+     * @return loss
+     */
+    public double getEpochLoss();
+
+    /**
+     * Gets the time the epoch took so far
+     * 
+     * @return nanoseconds
+     */
+    public long getEpochNanos();
+
+    /**
+     * Gets the samples trained per second in the epoch so far
+     * 
+     * @return samples per second
+     */
+    public double getSamplesPerSecond();
+
+    /**
+     * Gets the time each layer took in forward passes in the epoch so far
+     * 
+     * @return nanoseconds of each layer
+     */
+    public long[] getForwardNanos();
+
+    /**
+     * Gets the time each layer took in backward passes and corrections in the
+     * epoch so far
+     * 
+     * @return nanoseconds of each layer
+     */
+    public long[] getBackwardNanos();
+
+    /**
+     * Gets the floating point operations of the products of matrices in the
+     * epoch so far
+     * 
+     * @return floating point operations
+     */
+    public long getFlops();
+
+    /**
+     * Gets the time spent in products of matrices in the epoch so far
+     * 
+     * @return nanoseconds
+     */
+    public long getProductNanos();
+
+    /**
+     * Gets the GFLOP/s achieved by the products of matrices in the epoch so
+     * far
+     * 
+     * @return GFLOP/s
+     */
+    public double getGflops();
+
+    /**
+     * Gets the bytes allocated by every thread in the epoch so far, including
+     * kernel threads and workers
+     * 
+     * @return bytes, or -1 if the JVM does not measure them
+     */
+    public long getAllocatedBytes();
+
+    /**
+     * Gets the number of samples of the whole training so far
+     * 
+     * @return number of samples
+     */
+    public long getTotalSamples();
+
+    /**
+     * Gets the time the whole training took so far
+     * 
+     * @return nanoseconds
+     */
+    public long getTotalNanos();
+}
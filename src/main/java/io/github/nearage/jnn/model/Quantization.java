@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.model;
+
+import io.github.nearage.jnn.input.Matrix;
+import io.github.nearage.jnn.model.layer.Dense;
+import io.github.nearage.jnn.model.layer.QuantizedDense;
+import io.github.nearage.jnn.processing.Layer;
+import io.github.nearage.jnn.processing.Model;
+
+/**
+ * Post-training quantization of Sequential models
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public interface Quantization {
+
+    /**
+     * Creates a copy of a trained model with every dense layer quantized to
+     * 8-bit weights, for inference. Other layers are shared with the model.
+     * Integer products only speed up small batches, larger ones run in double
+     * precision over the 8-bit weights, see {@link QuantizedDense}.
+     * 
+     * @param model trained model
+     * 
+     * @return the quantized model
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static Sequential quantize(Sequential model) throws Exception {
+        Layer[] layers = new Layer[model.layers.length];
+
+        for (int l = 0; l < layers.length; l++) {
+            Layer layer = model.layers[l];
+
+            if (layer instanceof Dense) {
+                if (layer.weights == null) {
+                    throw new Exception("Model not built");
+                }
+
+                layers[l] = new QuantizedDense((Dense) layer);
+            } else {
+                layers[l] = layer;
+            }
+        }
+
+        return new Sequential(layers);
+    }
+
+    /**
+     * Compares the predictions of a quantized model with the ones of its
+     * reference model for the given input
+     * 
+     * The input is predicted in slices small enough for the integer products
+     * of quantized layers, so the comparison measures them whatever the size
+     * of the input.
+     * 
+     * @param reference reference model
+     * @param quantized quantized model
+     * @param input input samples
+     * 
+     * @return the comparison
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static Comparison compare(
+        Model reference,
+        Model quantized,
+        Matrix input
+    ) throws Exception {
+        Matrix expected = reference.predict(input);
+        Matrix actual = new Matrix(expected.rows, expected.cols);
+        int step = Math.max(1, input.rows);
+
+        while (step > 1 && !QuantizedDense.integer(step)) {
+            step /= 2;
+        }
+
+        for (int from = 0; from < input.rows; from += step) {
+            int to = Math.min(input.rows, from + step);
+
+            quantized.predict(input.slice(from, to), actual.slice(from, to));
+        }
+
+        double max = 0d;
+        double sum = 0d;
+        double squares = 0d;
+        double norm = 0d;
+        int agreements = 0;
+
+        for (int i = 0; i < expected.rows; i++) {
+            int e = 0;
+            int a = 0;
+
+            for (int j = 0; j < expected.cols; j++) {
+                double x = expected.get(i, j);
+                double d = Math.abs(actual.get(i, j) - x);
+
+                max = Math.max(max, d);
+                sum += d;
+                squares += d * d;
+                norm += x * x;
+
+                e = x > expected.get(i, e) ? j : e;
+                a = actual.get(i, j) > actual.get(i, a) ? j : a;
+            }
+
+            agreements += e == a ? 1 : 0;
+        }
+
+        return new Comparison(
+            max,
+            sum / expected.size,
+            norm == 0d ? 0d : Math.sqrt(squares / norm),
+            (double) agreements / expected.rows,
+            bytes(reference),
+            bytes(quantized)
+        );
+    }
+
+    /**
+     * Gets the size of the weights of a model in bytes
+     * 
+     * @param model model
+     * 
+     * @return size in bytes
+     */
+    private static long bytes(Model model) {
+        long bytes = 0;
+
+        for (Layer layer : model.layers) {
+            if (layer instanceof QuantizedDense) {
+                bytes += ((QuantizedDense) layer).bytes();
+            } else if (layer.weights != null) {
+                bytes += (long) layer.weights.size
+                    * layer.weights.precision().bytes();
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Comparison of a quantized model with its reference model
+     */
+    public static class Comparison {
+
+        /**
+         * Max absolute error of the predictions
+         */
+        public final double maxError;
+
+        /**
+         * Mean absolute error of the predictions
+         */
+        public final double meanError;
+
+        /**
+         * Norm of the error relative to the norm of the reference predictions
+         */
+        public final double relativeError;
+
+        /**
+         * Fraction of samples with the same largest output in both models
+         */
+        public final double agreement;
+
+        /**
+         * Size of the weights of the reference model in bytes
+         */
+        public final long referenceBytes;
+
+        /**
+         * Size of the weights of the quantized model in bytes
+         */
+        public final long quantizedBytes;
+
+        /**
+         * Creates a comparison
+         * 
+         * @param maxError max absolute error
+         * @param meanError mean absolute error
+         * @param relativeError relative error
+         * @param agreement fraction of samples with the same largest output
+         * @param referenceBytes size of the weights of the reference model
+         * @param quantizedBytes size of the weights of the quantized model
+         */
+        public Comparison(
+            double maxError,
+            double meanError,
+            double relativeError,
+            double agreement,
+            long referenceBytes,
+            long quantizedBytes
+        ) {
+            this.maxError = maxError;
+            this.meanError = meanError;
+            this.relativeError = relativeError;
+            this.agreement = agreement;
+            this.referenceBytes = referenceBytes;
+            this.quantizedBytes = quantizedBytes;
+        }
+
+        /**
+         * Prints the comparison
+         */
+        public void print() {
+            System.out.printf(
+                "%s%n"
+                + " max error:      %.8f%n"
+                + " mean error:     %.8f%n"
+                + " relative error: %.8f%n"
+                + " agreement:      %.4f%n"
+                + " weights:        %d -> %d bytes%n%n",
+                getClass().getSimpleName(),
+                this.maxError,
+                this.meanError,
+                this.relativeError,
+                this.agreement,
+                this.referenceBytes,
+                this.quantizedBytes
+            );
+        }
+    }
+}
@@ -16,19 +16,112 @@
  */
 package io.github.nearage.jnn.model;
 
+import io.github.nearage.jnn.input.Batch;
+import io.github.nearage.jnn.input.Dataset;
 import io.github.nearage.jnn.input.Matrix;
+import io.github.nearage.jnn.model.listener.Console;
+import io.github.nearage.jnn.model.optimizer.Sgd;
+import io.github.nearage.jnn.processing.Cluster;
 import io.github.nearage.jnn.processing.Layer;
 import io.github.nearage.jnn.processing.Loss;
 import io.github.nearage.jnn.processing.Model;
+import io.github.nearage.jnn.processing.Optimizer;
 import io.github.nearage.jnn.util.Matrices;
+import io.github.nearage.jnn.util.Parallel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 /**
  * Sequential model
  * 
+ * Activations and training buffers are planned once per input shape and
+ * thread and reused, so the arrays returned by activate are overwritten by
+ * the next call with the same shape on the same thread. Once built, the model
+ * can predict from several threads at once, while training or changing its
+ * settings takes it for a single thread.
+ * 
  * @author Nearage <https://github.com/Nearage>
  */
 public class Sequential extends Model {
 
+    /**
+     * Maximum number of input shapes with a workspace
+     */
+    private static final int WORKSPACES = 4;
+
+    /**
+     * Workspaces of the current thread by input shape, the least recently
+     * used is dropped first
+     */
+    private final ThreadLocal<Map<Long, Workspace>> workspaces = ThreadLocal
+        .withInitial(Sequential::workspaces);
+
+    /**
+     * Workspaces of each worker by input shape, see {@link #setWorkers}
+     */
+    private final List<Map<Long, Workspace>> shards = new ArrayList<>();
+
+    /**
+     * Most recently used workspace of the current thread
+     */
+    private final ThreadLocal<Workspace> workspace = new ThreadLocal<>();
+
+    /**
+     * Checkpoint saved while training, if any
+     */
+    private Checkpoint checkpoint;
+
+    /**
+     * Listeners of the training
+     */
+    private Listener[] listeners = { new Console() };
+
+    /**
+     * Optimizer correcting the parameters
+     */
+    private Optimizer optimizer = new Sgd();
+
+    /**
+     * State of the optimizer for each parameter, the weights of layer l at
+     * 2 * l and its biases at 2 * l + 1, allocated on the first correction
+     */
+    private Matrix[][] states;
+
+    /**
+     * Number of steps taken with the optimizer
+     */
+    private long steps;
+
+    /**
+     * Number of workers training in parallel
+     */
+    private int workers = 1;
+
+    /**
+     * Whether the workers correct the parameters without synchronization
+     */
+    private boolean hogwild;
+
+    /**
+     * Cluster training the model together, or null
+     */
+    private Cluster cluster;
+
+    /**
+     * Whether the parameters have been taken from the first member of the
+     * cluster
+     */
+    private boolean joined;
+
+    /**
+     * Parameters or gradients exchanged with the cluster, one after another
+     */
+    private double[] shared;
+
     /**
      * Creates a Sequential model with the given layers
      * 
@@ -38,30 +131,325 @@ public class Sequential extends Model {
         super(layers);
     }
     
+    /**
+     * Sets the checkpoint saved periodically while the model trains
+     * 
+     * @param checkpoint checkpoint, null to stop saving checkpoints
+     */
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Sets the listeners receiving the metrics of the training, a
+     * {@link Console} by default
+     * 
+     * @param listeners listeners, none to train silently
+     */
+    public void setListeners(Listener... listeners) {
+        this.listeners = listeners.clone();
+    }
+
+    /**
+     * Sets the optimizer correcting the parameters, plain gradient descent by
+     * default, discarding the state of the previous one
+     * 
+     * @param optimizer optimizer
+     */
+    public void setOptimizer(Optimizer optimizer) {
+        this.optimizer = optimizer;
+        this.states = null;
+        this.steps = 0L;
+    }
+
+    /**
+     * Gets the optimizer correcting the parameters
+     * 
+     * @return the optimizer
+     */
+    public Optimizer getOptimizer() {
+        return this.optimizer;
+    }
+
+    /**
+     * Gets the state of the optimizer of a parameter, the weights of layer l
+     * at 2 * l and its biases at 2 * l + 1
+     * 
+     * @param index index of the parameter
+     * 
+     * @return the state matrices, or null before the first correction
+     */
+    Matrix[] getState(int index) {
+        return this.states != null ? this.states[index] : null;
+    }
+
+    /**
+     * Gets the number of steps taken with the optimizer
+     * 
+     * @return number of steps
+     */
+    long getSteps() {
+        return this.steps;
+    }
+
+    /**
+     * Sets the optimizer along with the state it had reached, so training
+     * resumes where it stopped
+     * 
+     * @param optimizer optimizer
+     * @param states state of each parameter, or null for a new state
+     * @param steps number of steps taken with the optimizer
+     */
+    void setOptimizer(Optimizer optimizer, Matrix[][] states, long steps) {
+        this.optimizer = optimizer;
+        this.states = states;
+        this.steps = steps;
+    }
+
+    /**
+     * Sets the number of workers training the model in parallel on their own
+     * threads, 1 by default
+     * 
+     * Synchronous workers split every batch by rows and compute the gradients
+     * of their share, which are summed in a fixed order before a single
+     * correction, so the training does not depend on the threads. Hogwild
+     * workers take whole batches and correct the shared parameters without
+     * any synchronization, trading determinism for no waiting. The kernels of
+     * each worker run on its own thread, so the workers are best set to the
+     * number of cores.
+     * 
+     * @param workers number of workers
+     * @param hogwild whether the workers correct the parameters without
+     * synchronization
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public void setWorkers(int workers, boolean hogwild) throws Exception {
+        if (workers < 1) {
+            throw new Exception(String.format(
+                "Invalid workers, workers = %d",
+                workers
+            ));
+        }
+
+        this.workers = workers;
+        this.hogwild = hogwild;
+        this.shards.clear();
+    }
+
+    /**
+     * Gets the number of workers training the model in parallel
+     * 
+     * @return number of workers
+     */
+    public int getWorkers() {
+        return this.workers;
+    }
+
+    /**
+     * Checks whether the workers correct the parameters without
+     * synchronization
+     * 
+     * @return whether the workers are hogwild
+     */
+    public boolean isHogwild() {
+        return this.hogwild;
+    }
+
+    /**
+     * Sets the cluster training the model together with this process, each
+     * member on its own share of the data, see {@link Dataset#shard}
+     * 
+     * The members start from the parameters of the first one and sum their
+     * gradients before every correction, so their parameters stay the same.
+     * Every member must train with the same epochs and number of batches, and
+     * the listeners of each member report the loss of its own share.
+     * Synchronous workers sum their gradients before the cluster does, hogwild
+     * workers can not train in a cluster.
+     * 
+     * @param cluster cluster, null to train alone
+     */
+    public void setCluster(Cluster cluster) {
+        this.cluster = cluster;
+        this.joined = false;
+    }
+
     @Override
     public Matrix[] activate(Matrix input) throws Exception {
+        return Parallel.call(
+            this.parallelism,
+            () -> this.forward(input, this.workspace(input), null)
+        );
+    }
+
+    /**
+     * Generates an activation for each layer of the model into the buffers of
+     * the given workspace, on the current thread settings
+     * 
+     * @param input input data
+     * @param workspace workspace for the input shape
+     * @param metrics metrics timing each layer, or null
+     * 
+     * @return array of activations
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private Matrix[] forward(
+        Matrix input,
+        Workspace workspace,
+        Metrics metrics
+    ) throws Exception {
         // Array of activations
-        Matrix[] result = new Matrix[this.layers.length + 1];
+        Matrix[] result = workspace.activations;
 
         // Set first element to input
         result[0] = input;
 
+        // Whether the current activation is not a planned buffer
+        boolean moved = true;
+
         // Iterate layers
         for (int l = 0; l < this.layers.length; l++) {
-            result[l + 1] = this.layers[l].activate(result[l]);
+            // Layers that only view their input share its elements, the
+            // views of planned buffers are planned too
+            if (workspace.views[l]) {
+                if (moved) {
+                    result[l + 1] = this.layers[l].view(result[l]);
+                }
+
+                continue;
+            }
+
+            long start = metrics != null ? System.nanoTime() : 0L;
+
+            this.layers[l].activate(result[l], result[l + 1]);
+            moved = false;
+
+            if (metrics != null) {
+                metrics.forward(l, System.nanoTime() - start);
+            }
         }
 
         // Return array of activations
         return result;
     }
+
+    /**
+     * Gets the workspace of the current thread for the shape of the given
+     * input, planning a new one if there is none
+     * 
+     * @param input input data
+     * 
+     * @return the workspace
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private Workspace workspace(Matrix input) throws Exception {
+        Workspace workspace = this.workspace.get();
+
+        if (
+            workspace != null
+            && workspace.rows == input.rows
+            && workspace.cols == input.cols
+        ) {
+            return workspace;
+        }
+
+        workspace = this.workspace(input, this.workspaces.get());
+        this.workspace.set(workspace);
+
+        return workspace;
+    }
+
+    /**
+     * Gets the workspace for the shape of the given input from the given
+     * workspaces, planning a new one if there is none
+     * 
+     * @param input input data
+     * @param workspaces workspaces by input shape
+     * 
+     * @return the workspace
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private Workspace workspace(
+        Matrix input,
+        Map<Long, Workspace> workspaces
+    ) throws Exception {
+        long shape = (long) input.rows << 32 | input.cols;
+        Workspace workspace = workspaces.get(shape);
+
+        if (workspace == null) {
+            // Layers are built by the first workspace of any thread
+            synchronized (this) {
+                workspace = new Workspace(this.layers, input.rows, input.cols);
+
+                // Layers built by the workspace start in double precision
+                this.convert();
+            }
+
+            workspaces.put(shape, workspace);
+        }
+
+        return workspace;
+    }
+
+    /**
+     * Gets the workspaces of the given worker
+     * 
+     * @param worker worker
+     * 
+     * @return workspaces by input shape
+     */
+    private Map<Long, Workspace> shard(int worker) {
+        while (this.shards.size() <= worker) {
+            this.shards.add(workspaces());
+        }
+
+        return this.shards.get(worker);
+    }
+
+    /**
+     * Creates an empty map of workspaces by input shape, dropping the least
+     * recently used one beyond {@link #WORKSPACES}
+     * 
+     * @return the map
+     */
+    private static Map<Long, Workspace> workspaces() {
+        return new LinkedHashMap<>(WORKSPACES, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<Long, Workspace> eldest
+            ) {
+                return this.size() > WORKSPACES;
+            }
+        };
+    }
     
     @Override
     public Matrix predict(Matrix input) throws Exception {
         // Activation of the model
         Matrix[] result = this.activate(input);
 
-        // Return last activation
-        return result[result.length - 1];
+        // Last activation
+        Matrix last = result[result.length - 1];
+
+        // Return a copy, the activation is reused by the next call
+        Matrix prediction = new Matrix(last.rows, last.cols);
+        Matrices.copyInto(last, prediction);
+
+        return prediction;
+    }
+
+    @Override
+    public void predict(Matrix input, Matrix output) throws Exception {
+        // Activation of the model
+        Matrix[] result = this.activate(input);
+
+        // Copy last activation
+        Matrices.copyInto(result[result.length - 1], output);
     }
     
     @Override
@@ -72,71 +460,826 @@ public class Sequential extends Model {
         Loss[] loss,
         double learningRate
     ) throws Exception {
-        System.out.println("Training..." + System.lineSeparator());
-
-        // Iterate epochs
-        for (int e = 0; e < epochs; e++) {
-            // Activation of the model
-            Matrix[] activations = this.activate(input);
-            // Deltas for each layer
-            Matrix[] deltas = new Matrix[this.layers.length + 1];
-            // Last activation
-            Matrix prediction = activations[activations.length - 1];
-            // Last layer
-            Layer lastLayer = this.layers[this.layers.length - 1];
-
-            // Last layer deltas
-            deltas[deltas.length - 1] = Matrices.mul(
-                loss[1].apply(prediction, target),
-                lastLayer.propagate(prediction)
+        Parallel.call(this.parallelism, () -> {
+            this.fit(epochs, input, target, loss, learningRate);
+
+            return null;
+        });
+    }
+
+    @Override
+    public void train(
+        int epochs,
+        Dataset dataset,
+        Loss[] loss,
+        double learningRate
+    ) throws Exception {
+        Parallel.call(this.parallelism, () -> {
+            this.fit(epochs, dataset, loss, learningRate);
+
+            return null;
+        });
+    }
+
+    @Override
+    public void train(
+        int epochs,
+        Iterable<Batch> batches,
+        Loss[] loss,
+        double learningRate
+    ) throws Exception {
+        Parallel.call(this.parallelism, () -> {
+            this.fit(epochs, batches, loss, learningRate);
+
+            return null;
+        });
+    }
+
+    /**
+     * Trains the model on the current thread settings
+     * 
+     * @param epochs number of epochs to train
+     * @param input input data
+     * @param target target data
+     * @param loss loss function
+     * @param learningRate learing rate
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private void fit(
+        int epochs,
+        Matrix input,
+        Matrix target,
+        Loss[] loss,
+        double learningRate
+    ) throws Exception {
+        // A single batch with the whole input
+        this.fit(
+            epochs,
+            List.of(new Batch(input, target)),
+            loss,
+            learningRate
+        );
+    }
+
+    /**
+     * Trains the model over the mini-batches of a dataset on the current
+     * thread settings
+     * 
+     * @param epochs number of epochs to train
+     * @param dataset dataset with the mini-batches
+     * @param loss loss function
+     * @param learningRate learing rate
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private void fit(
+        int epochs,
+        Dataset dataset,
+        Loss[] loss,
+        double learningRate
+    ) throws Exception {
+        Random rng = new Random();
+
+        // Order of the batches, shuffled every epoch
+        int[] order = new int[dataset.inputs.length];
+
+        for (int n = 0; n < order.length; n++) {
+            order[n] = n;
+        }
+
+        Iterable<Batch> batches = () -> {
+            // Fisher-Yates shuffle
+            for (int n = order.length - 1; n > 0; n--) {
+                int r = rng.nextInt(n + 1);
+                int t = order[n];
+
+                order[n] = order[r];
+                order[r] = t;
+            }
+
+            return new Iterator<Batch>() {
+                private int n;
+
+                @Override
+                public boolean hasNext() {
+                    return this.n < order.length;
+                }
+
+                @Override
+                public Batch next() {
+                    int b = order[this.n++];
+
+                    return new Batch(dataset.inputs[b], dataset.targets[b]);
+                }
+            };
+        };
+
+        this.fit(epochs, batches, loss, learningRate);
+    }
+
+    /**
+     * Trains the model over the mini-batches of every iteration of the given
+     * batches on the current thread settings
+     * 
+     * @param epochs number of epochs to train
+     * @param batches batches, iterated once per epoch
+     * @param loss loss function
+     * @param learningRate learing rate
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private void fit(
+        int epochs,
+        Iterable<Batch> batches,
+        Loss[] loss,
+        double learningRate
+    ) throws Exception {
+        if (this.cluster != null && this.workers > 1 && this.hogwild) {
+            throw new Exception("Hogwild workers can not train in a cluster");
+        }
+
+        // Metrics are only measured for listeners
+        Metrics metrics = this.listeners.length > 0
+            ? new Metrics(this.layers.length, epochs)
+            : null;
+
+        if (metrics != null) {
+            metrics.start();
+        }
+
+        try {
+            for (Listener listener : this.listeners) {
+                listener.started(metrics);
+            }
+
+            // Iterate epochs
+            for (int e = 0; e < epochs; e++) {
+                if (metrics != null) {
+                    metrics.startEpoch(e);
+                }
+
+                Iterator<Batch> pass = batches.iterator();
+
+                try {
+                    // Hogwild workers take the batches themselves
+                    if (this.workers > 1 && this.hogwild) {
+                        this.hogwild(pass, loss, learningRate, metrics);
+                    }
+
+                    // Iterate batches
+                    while (pass.hasNext()) {
+                        Batch batch = pass.next();
+
+                        if (metrics != null) {
+                            metrics.startBatch();
+                        }
+
+                        boolean synchronous = this.workers > 1
+                            || this.cluster != null;
+
+                        double value = synchronous
+                            ? this.step(
+                                batch.input,
+                                batch.target,
+                                loss,
+                                learningRate,
+                                metrics != null
+                            )
+                            : this.step(
+                                batch.input,
+                                batch.target,
+                                loss,
+                                learningRate,
+                                metrics
+                            );
+
+                        if (metrics != null) {
+                            metrics.endBatch(batch.input.rows, value);
+
+                            for (Listener listener : this.listeners) {
+                                listener.batch(metrics);
+                            }
+                        }
+                    }
+                } finally {
+                    if (pass instanceof AutoCloseable) {
+                        ((AutoCloseable) pass).close();
+                    }
+                }
+
+                for (Listener listener : this.listeners) {
+                    listener.epoch(metrics);
+                }
+
+                this.checkpoint(e);
+            }
+
+            this.checkpoint(-1);
+
+            for (Listener listener : this.listeners) {
+                listener.finished(metrics);
+            }
+        } finally {
+            if (metrics != null) {
+                metrics.stop();
+            }
+        }
+    }
+
+    /**
+     * Saves a checkpoint after the given epoch if one is due, or waits for the
+     * last one at the end of the training
+     * 
+     * @param epoch epoch that has just finished, -1 at the end
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private void checkpoint(int epoch) throws Exception {
+        if (this.checkpoint == null) {
+            return;
+        }
+
+        if (epoch < 0) {
+            this.checkpoint.await();
+        } else {
+            this.checkpoint.epoch(this, epoch);
+        }
+    }
+
+    /**
+     * Performs one training step, a forward and a backward pass followed by
+     * the correction of every layer, over the given input
+     * 
+     * @param input input data
+     * @param target target data
+     * @param loss loss function
+     * @param learningRate learing rate
+     * @param metrics metrics timing each layer, or null
+     * 
+     * @return the loss of the prediction, or NaN without metrics
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private double step(
+        Matrix input,
+        Matrix target,
+        Loss[] loss,
+        double learningRate,
+        Metrics metrics
+    ) throws Exception {
+        // Buffers for the input shape
+        Workspace workspace = this.workspace(input);
+        workspace.train();
+
+        Matrix prediction = this.pass(
+            input,
+            target,
+            loss,
+            workspace,
+            learningRate,
+            ++this.steps,
+            metrics
+        );
+
+        return metrics != null
+            ? loss[0].apply(prediction, target).peek()
+            : Double.NaN;
+    }
+
+    /**
+     * Performs one synchronous training step split across the workers, each
+     * computing the gradients of a share of the rows, followed by a single
+     * correction with the sum of their gradients and the ones of every member
+     * of the cluster, if any
+     * 
+     * @param input input data
+     * @param target target data
+     * @param loss loss function
+     * @param learningRate learing rate
+     * @param measure whether to measure the loss
+     * 
+     * @return the loss of the prediction, or NaN if it is not measured
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private double step(
+        Matrix input,
+        Matrix target,
+        Loss[] loss,
+        double learningRate,
+        boolean measure
+    ) throws Exception {
+        // Input rows of each sample, more than one when layers such as
+        // Flatten merge rows into samples
+        int rows = target.rows > 0 ? input.rows / target.rows : 0;
+
+        if (rows == 0 || rows * target.rows != input.rows) {
+            throw new Exception(String.format(
+                "Shape mismatch in step, input rows = %d and target rows = %d",
+                input.rows,
+                target.rows
+            ));
+        }
+
+        int count = Math.min(this.workers, target.rows);
+        Matrix[] inputs = new Matrix[count];
+        Matrix[] targets = new Matrix[count];
+        Matrix[] predictions = new Matrix[count];
+        Workspace[] workspaces = new Workspace[count];
+
+        // Shares of the samples, viewed in place, and their buffers, planned
+        // before the workers start
+        for (int w = 0; w < count; w++) {
+            int from = (int) ((long) target.rows * w / count);
+            int to = (int) ((long) target.rows * (w + 1) / count);
+
+            inputs[w] = count > 1 ? input.slice(from * rows, to * rows) : input;
+            targets[w] = count > 1 ? target.slice(from, to) : target;
+            workspaces[w] = this.workspace(inputs[w], this.shard(w));
+            workspaces[w].train();
+        }
+
+        // Members start from the parameters of the first one, once the
+        // layers are built
+        if (this.cluster != null && !this.joined) {
+            double[] values = this.share(null, true);
+
+            this.cluster.broadcast(values);
+            this.share(null, false);
+            this.joined = true;
+        }
+
+        this.run(count, w -> {
+            predictions[w] = this.pass(
+                inputs[w],
+                targets[w],
+                loss,
+                workspaces[w],
+                learningRate,
+                0L,
+                null
             );
+        });
 
-            // Iterate layers
-            for (int l = this.layers.length - 1; l >= 0; l--) {
-                // Layer deltas
-                deltas[l] = Matrices.mul(
-                    Matrices.dot(
-                        deltas[l + 1],
-                        this.layers[l].weights.transpose()
-                    ),
-                    this.layers[l].propagate(activations[l])
-                );
+        long step = ++this.steps;
+        Matrix[] terms = new Matrix[count];
 
-                // Previous layer deltas
-                Matrix delta = Matrices.dot(
-                    activations[l].transpose(),
-                    deltas[l + 1]
-                );
-                
-                delta.apply(x -> x * learningRate);
+        // Sums of the gradients into the ones of the first worker
+        for (int p = 0; count > 1 && p < 2 * this.layers.length; p++) {
+            if (this.parameter(p) == null) {
+                continue;
+            }
+
+            for (int w = 0; w < count; w++) {
+                terms[w] = gradient(workspaces[w], p);
+            }
+
+            Matrices.sumInto(terms, terms[0]);
+        }
+
+        // Sums of the gradients of every member
+        if (this.cluster != null) {
+            double[] values = this.share(workspaces[0], true);
+
+            this.cluster.sum(values);
+            this.share(workspaces[0], false);
+        }
+
+        // Correction of every parameter
+        for (int p = 0; p < 2 * this.layers.length; p++) {
+            Matrix parameter = this.parameter(p);
+
+            if (parameter == null) {
+                continue;
+            }
+
+            this.optimizer.update(
+                parameter,
+                gradient(workspaces[0], p),
+                this.state(p, parameter),
+                learningRate,
+                step
+            );
+        }
+
+        if (!measure) {
+            return Double.NaN;
+        }
+
+        // Losses are averages, weighed by the samples of each share
+        double value = 0d;
+
+        for (int w = 0; w < count; w++) {
+            value += loss[0].apply(predictions[w], targets[w]).peek()
+                * targets[w].rows / target.rows;
+        }
+
+        return value;
+    }
+
+    /**
+     * Trains the model over the given batches with hogwild workers, each
+     * taking the next batch and correcting the shared parameters without any
+     * synchronization
+     * 
+     * @param pass batches left in the epoch
+     * @param loss loss function
+     * @param learningRate learing rate
+     * @param metrics metrics of the training, or null
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private void hogwild(
+        Iterator<Batch> pass,
+        Loss[] loss,
+        double learningRate,
+        Metrics metrics
+    ) throws Exception {
+        List<Map<Long, Workspace>> shards = new ArrayList<>();
+
+        // Workspaces and optimizer state are shared with the workers, so
+        // they are created before they start
+        for (int w = 0; w < this.workers; w++) {
+            shards.add(this.shard(w));
+        }
+
+        for (int p = 0; p < 2 * this.layers.length; p++) {
+            Matrix parameter = this.parameter(p);
+
+            if (!this.optimizer.plain() && parameter != null) {
+                this.state(p, parameter);
+            }
+        }
+
+        this.run(this.workers, w -> {
+            while (true) {
+                Batch batch;
+                Workspace workspace;
+                long step;
+                long start;
+
+                // Batches are taken and planned one worker at a time
+                synchronized (pass) {
+                    if (!pass.hasNext()) {
+                        return;
+                    }
+
+                    batch = pass.next();
+                    step = ++this.steps;
+                    workspace = this.workspace(batch.input, shards.get(w));
+                    workspace.train();
+
+                    // Each worker times its own batch, they overlap
+                    start = System.nanoTime();
+                }
 
-                // Layer weights correction
-                this.layers[l].weights = Matrices.sub(
-                    this.layers[l].weights,
-                    delta
+                Matrix prediction = this.pass(
+                    batch.input,
+                    batch.target,
+                    loss,
+                    workspace,
+                    learningRate,
+                    step,
+                    null
                 );
 
-                // Previous deltas average
-                double avg = deltas[l + 1].avg();
+                if (metrics != null) {
+                    double value = loss[0].apply(prediction, batch.target)
+                        .peek();
 
-                // Layer biases correction
-                this.layers[l].biases.apply(x -> x - avg * learningRate);
+                    synchronized (pass) {
+                        metrics.endBatch(batch.input.rows, value, start);
+
+                        for (Listener listener : this.listeners) {
+                            listener.batch(metrics);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets a parameter of the model, the weights of layer l at 2 * l and its
+     * biases at 2 * l + 1
+     * 
+     * @param p index of the parameter
+     * 
+     * @return the parameter, or null if the layer has none
+     */
+    private Matrix parameter(int p) {
+        Layer layer = this.layers[p / 2];
+
+        return p % 2 == 0 ? layer.weights : layer.biases;
+    }
+
+    /**
+     * Gets the gradient of a parameter of the model in a workspace
+     * 
+     * @param workspace workspace
+     * @param p index of the parameter
+     * 
+     * @return the gradient
+     */
+    private static Matrix gradient(Workspace workspace, int p) {
+        return p % 2 == 0
+            ? workspace.gradients[p / 2]
+            : workspace.biasGradients[p / 2];
+    }
+
+    /**
+     * Copies every parameter, or every gradient of a workspace, one after
+     * another to the values exchanged with the cluster, or back
+     * 
+     * @param workspace workspace with the gradients, or null for the
+     * parameters
+     * @param out whether to copy to the values, or back from them
+     * 
+     * @return the values
+     */
+    private double[] share(Workspace workspace, boolean out) {
+        int length = 0;
+
+        for (int p = 0; p < 2 * this.layers.length; p++) {
+            Matrix parameter = this.parameter(p);
+
+            length += parameter != null ? parameter.size : 0;
+        }
+
+        if (this.shared == null || this.shared.length != length) {
+            this.shared = new double[length];
+        }
+
+        double[] values = this.shared;
+        int offset = 0;
+
+        for (int p = 0; p < 2 * this.layers.length; p++) {
+            Matrix parameter = this.parameter(p);
+
+            if (parameter == null) {
+                continue;
+            }
+
+            Matrix matrix = workspace != null
+                ? gradient(workspace, p)
+                : parameter;
+
+            if (out) {
+                matrix.storage().get(0, values, offset, matrix.size);
+            } else {
+                matrix.storage().set(0, values, offset, matrix.size);
+            }
+
+            offset += matrix.size;
+        }
+
+        return values;
+    }
+
+    /**
+     * Work of a worker
+     */
+    @FunctionalInterface
+    private interface Work {
+
+        /**
+         * Runs the work of the given worker
+         * 
+         * @param worker worker
+         * 
+         * @throws Exception a base exception with an error message
+         */
+        void run(int worker) throws Exception;
+    }
+
+    /**
+     * Runs the given work on the given number of workers, each on its own
+     * thread running its kernels serially, and waits for all of them
+     * 
+     * @param workers number of workers
+     * @param work work of each worker
+     * 
+     * @throws Exception the first exception thrown by a worker
+     */
+    private void run(int workers, Work work) throws Exception {
+        // A single worker keeps the current thread settings
+        if (workers == 1) {
+            work.run(0);
+            return;
+        }
+
+        Exception[] errors = new Exception[workers];
+
+        Parallel.call(workers, () -> {
+            Parallel.forRange(0, workers, 1, (from, to) -> {
+                for (int w = from; w < to; w++) {
+                    int worker = w;
+
+                    try {
+                        Parallel.call(1, () -> {
+                            work.run(worker);
+
+                            return null;
+                        });
+                    } catch (Exception e) {
+                        errors[worker] = e;
+                    }
+                }
+            });
+
+            return null;
+        });
+
+        for (Exception error : errors) {
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Performs a forward and a backward pass over the given input with the
+     * buffers of the given workspace, correcting every layer as soon as its
+     * deltas are known, or only computing the gradients of every layer
+     * 
+     * @param input input data
+     * @param target target data
+     * @param loss loss function
+     * @param workspace workspace for the input shape, planned for training
+     * @param learningRate learing rate
+     * @param step number of the correction, or 0 to only compute the
+     * gradients into the workspace
+     * @param metrics metrics timing each layer, or null
+     * 
+     * @return the prediction of the forward pass
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private Matrix pass(
+        Matrix input,
+        Matrix target,
+        Loss[] loss,
+        Workspace workspace,
+        double learningRate,
+        long step,
+        Metrics metrics
+    ) throws Exception {
+        // Activation of the model
+        Matrix[] activations = this.forward(input, workspace, metrics);
+        // Deltas for each layer
+        Matrix[] deltas = workspace.deltas;
+        // Last activation
+        Matrix prediction = activations[activations.length - 1];
+        // Last layer
+        Layer lastLayer = this.layers[this.layers.length - 1];
+
+        long start = metrics != null ? System.nanoTime() : 0L;
+
+        // Last layer deltas
+        Matrix last = deltas[deltas.length - 1];
+        Matrix derivative = workspace.derivatives[deltas.length - 1];
+
+        loss[1].apply(prediction, target, last);
+        lastLayer.propagate(prediction, derivative);
+        Matrices.mulInto(last, derivative, last);
+
+        // Iterate layers
+        for (int l = this.layers.length - 1; l >= 0; l--) {
+            Layer layer = this.layers[l];
+
+            // Layer deltas, not needed for the first layer
+            if (l > 0) {
+                // Views share the deltas of their output
+                if (!workspace.views[l]) {
+                    layer.backward(activations[l], deltas[l + 1], deltas[l]);
+                }
+
+                // Derivative of the activation of the previous layer, one
+                // for views
+                if (!workspace.views[l - 1]) {
+                    this.layers[l - 1].propagate(
+                        activations[l],
+                        workspace.derivatives[l]
+                    );
+
+                    Matrices.mulInto(
+                        deltas[l],
+                        workspace.derivatives[l],
+                        deltas[l]
+                    );
+                }
             }
 
-            // Print status 10 times while training
-            if ((e + 1) % (epochs / 10) == 0) {
-                System.out.printf("Epoch %d error: %.8f%n",
-                    e + 1,
-                    loss[0].apply(prediction, target).peek()
+            // Layer weights and biases correction, or only their gradients
+            if (step > 0L) {
+                this.correct(
+                    l,
+                    activations[l],
+                    deltas[l + 1],
+                    workspace,
+                    learningRate,
+                    step
                 );
+            } else {
+                layer.gradient(
+                    activations[l],
+                    deltas[l + 1],
+                    workspace.gradients[l],
+                    workspace.biasGradients[l]
+                );
+            }
+
+            if (metrics != null) {
+                long now = System.nanoTime();
+
+                metrics.backward(l, now - start);
+                start = now;
             }
         }
 
-        System.out.println(
-            System.lineSeparator()
-            + "...done"
-            + System.lineSeparator()
-        );
+        return prediction;
+    }
+
+    /**
+     * Corrects the weights and biases of a layer with the optimizer. Plain
+     * gradient descent is left to the layer, which may skip the gradients
+     * 
+     * @param l index of the layer
+     * @param input input of the layer
+     * @param delta deltas of the output of the layer
+     * @param workspace workspace holding the gradients
+     * @param learningRate learing rate
+     * @param step number of the correction
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private void correct(
+        int l,
+        Matrix input,
+        Matrix delta,
+        Workspace workspace,
+        double learningRate,
+        long step
+    ) throws Exception {
+        Layer layer = this.layers[l];
+        Matrix weights = workspace.gradients[l];
+        Matrix biases = workspace.biasGradients[l];
+
+        if (this.optimizer.plain()) {
+            layer.update(input, delta, weights, biases, learningRate);
+            return;
+        }
+
+        layer.gradient(input, delta, weights, biases);
+
+        if (layer.weights != null) {
+            this.optimizer.update(
+                layer.weights,
+                weights,
+                this.state(2 * l, layer.weights),
+                learningRate,
+                step
+            );
+        }
+
+        if (layer.biases != null) {
+            this.optimizer.update(
+                layer.biases,
+                biases,
+                this.state(2 * l + 1, layer.biases),
+                learningRate,
+                step
+            );
+        }
+    }
+
+    /**
+     * Gets the optimizer state of a parameter, allocating it on first use
+     * 
+     * @param index index of the parameter
+     * @param parameter parameter
+     * 
+     * @return the state matrices
+     */
+    private Matrix[] state(int index, Matrix parameter) {
+        if (this.states == null) {
+            this.states = new Matrix[2 * this.layers.length][];
+        }
+
+        Matrix[] state = this.states[index];
+
+        if (state == null) {
+            state = new Matrix[this.optimizer.slots()];
+
+            for (int s = 0; s < state.length; s++) {
+                state[s] = new Matrix(parameter.rows, parameter.cols);
+            }
+
+            this.states[index] = state;
+        }
+
+        return state;
     }
     
     @Override
@@ -146,16 +1289,12 @@ public class Sequential extends Model {
         int params = 0;
 
         for (Layer layer : this.layers) {
-            if (layer.weights == null) {
-                throw new Exception("Model not built");
-            }
-
             layerDescription.append(String.format("  %s: %d params%n",
                 layer.getClass().getSimpleName(),
-                layer.weights.size + layer.biases.size
+                layer.params()
             ));
 
-            params += layer.weights.size + layer.biases.size;
+            params += layer.params();
         }
 
         System.out.printf("%s%n"
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.model;
+
+import io.github.nearage.jnn.input.Matrix;
+import io.github.nearage.jnn.processing.Layer;
+
+/**
+ * Buffers of a Sequential model for one input shape
+ * 
+ * The buffers are sized once from the layers and reused by every activation
+ * and training step with the same input shape. Layers activate in place, so no
+ * separate pre-activation buffers are needed.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+class Workspace {
+
+    /**
+     * Rows of the input
+     */
+    final int rows;
+
+    /**
+     * Cols of the input
+     */
+    final int cols;
+
+    /**
+     * Layers of the model
+     */
+    private final Layer[] layers;
+
+    /**
+     * Activations, the first one is the input of the current step
+     */
+    final Matrix[] activations;
+
+    /**
+     * Whether each layer only views its input, see {@link Layer#view}
+     */
+    final boolean[] views;
+
+    /**
+     * Propagations of the activations, none for the outputs of views but the
+     * last one
+     */
+    Matrix[] derivatives;
+
+    /**
+     * Deltas for each layer, the first one is never computed
+     */
+    Matrix[] deltas;
+
+    /**
+     * Weights gradients for each layer
+     */
+    Matrix[] gradients;
+
+    /**
+     * Biases gradients for each layer
+     */
+    Matrix[] biasGradients;
+
+    /**
+     * Plans the activation buffers of the given layers for the given input
+     * shape, building the layers if needed
+     * 
+     * @param layers layers of the model
+     * @param rows rows of the input
+     * @param cols cols of the input
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    Workspace(Layer[] layers, int rows, int cols) throws Exception {
+        this.rows = rows;
+        this.cols = cols;
+        this.layers = layers;
+        this.activations = new Matrix[layers.length + 1];
+        this.views = new boolean[layers.length];
+
+        int width = cols;
+
+        for (int l = 0; l < layers.length; l++) {
+            width = layers[l].build(width);
+
+            // The first layer is probed with a buffer of the input shape, its
+            // view is made again for each input
+            Matrix source = l > 0 ? this.activations[l] : new Matrix(rows, cols);
+            Matrix view = layers[l].view(source);
+
+            this.views[l] = view != null;
+            this.activations[l + 1] = view != null
+                ? view
+                : new Matrix(source.rows, width);
+        }
+    }
+
+    /**
+     * Plans the training buffers, if they are not planned yet
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    void train() throws Exception {
+        if (this.deltas != null) {
+            return;
+        }
+
+        int length = this.layers.length;
+
+        this.derivatives = new Matrix[length + 1];
+        this.deltas = new Matrix[length + 1];
+        this.gradients = new Matrix[length];
+        this.biasGradients = new Matrix[length];
+
+        for (int l = length; l > 0; l--) {
+            Matrix activation = this.activations[l];
+            Matrix weights = this.layers[l - 1].weights;
+            Matrix biases = this.layers[l - 1].biases;
+
+            if (this.deltas[l] == null) {
+                this.deltas[l] = new Matrix(activation.rows, activation.cols);
+            }
+
+            // Reshapes have a derivative of one
+            if (l == length || !this.views[l - 1]) {
+                this.derivatives[l] = new Matrix(activation.rows, activation.cols);
+            }
+
+            // Layers that only view their input share the deltas of their
+            // output
+            if (l > 1 && this.views[l - 1]) {
+                this.deltas[l - 1] = this.layers[l - 1].viewDelta(this.deltas[l]);
+            }
+
+            if (weights != null) {
+                this.gradients[l - 1] = new Matrix(weights.rows, weights.cols);
+            }
+
+            if (biases != null) {
+                this.biasGradients[l - 1] = new Matrix(biases.rows, biases.cols);
+            }
+        }
+    }
+}
@@ -0,0 +1,508 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.model.cluster;
+
+import io.github.nearage.jnn.input.Precision;
+import io.github.nearage.jnn.processing.Cluster;
+import io.github.nearage.jnn.util.Kernels;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cluster of processes connected in a ring over TCP
+ * 
+ * Every member listens on its own address, connects to the next member and
+ * accepts the previous one. Sums are ring all-reduces: the values are split
+ * in a chunk per member, each chunk is summed as it travels once around the
+ * ring and the sums travel around once more, so every member sends and
+ * receives about twice its values whatever the number of members. Every chunk
+ * is summed in the same order and by a single member, so all members get the
+ * same result.
+ * 
+ * Values are written to direct buffers straight from their arrays and sent
+ * in the precision of the ring, narrower precisions compressing the
+ * gradients to a half or a quarter. Broadcasts are always sent in double
+ * precision.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public class Ring implements Cluster, AutoCloseable {
+
+    /**
+     * Number of values sent or received at once
+     */
+    private static final int PIECE = 1 << 15;
+
+    /**
+     * Milliseconds to wait for the other members to start
+     */
+    private static final long TIMEOUT = 60_000L;
+
+    private final int rank;
+    private final int size;
+    private final Precision precision;
+
+    private final ServerSocketChannel server;
+    private final SocketChannel next;
+    private final SocketChannel previous;
+
+    /**
+     * Thread sending to the next member while the previous one is read
+     */
+    private final ExecutorService sender;
+
+    /**
+     * Buffers of the values sent and received
+     */
+    private final ByteBuffer out = ByteBuffer.allocateDirect(PIECE * Double.BYTES)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer in = ByteBuffer.allocateDirect(PIECE * Double.BYTES)
+        .order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Values received, before they are added
+     */
+    private final double[] piece = new double[PIECE];
+
+    /**
+     * Joins a ring sending values in double precision, waiting for the
+     * neighbours of this member to start
+     * 
+     * @param rank index of this member in the members
+     * @param members addresses of every member, the same list for all of them
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public Ring(int rank, List<InetSocketAddress> members) throws Exception {
+        this(rank, members, Precision.FLOAT64);
+    }
+
+    /**
+     * Joins a ring sending the values of sums in the given precision, waiting
+     * for the neighbours of this member to start
+     * 
+     * @param rank index of this member in the members
+     * @param members addresses of every member, the same list for all of them
+     * @param precision precision of the values sent in sums
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public Ring(
+        int rank,
+        List<InetSocketAddress> members,
+        Precision precision
+    ) throws Exception {
+        if (rank < 0 || rank >= members.size()) {
+            throw new Exception(String.format(
+                "Invalid ring, rank = %d and members = %d",
+                rank,
+                members.size()
+            ));
+        }
+
+        this.rank = rank;
+        this.size = members.size();
+        this.precision = precision;
+
+        if (this.size == 1) {
+            this.server = null;
+            this.next = null;
+            this.previous = null;
+            this.sender = null;
+
+            return;
+        }
+
+        ServerSocketChannel server = ServerSocketChannel.open();
+        SocketChannel next = null;
+        SocketChannel previous = null;
+
+        try {
+            // Listen first, so the previous member can connect before this
+            // one accepts it
+            server.bind(members.get(rank));
+
+            next = connect(members.get((rank + 1) % this.size));
+            server.socket().setSoTimeout((int) TIMEOUT);
+            previous = server.socket().accept().getChannel();
+            previous.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            this.handshake(next, previous);
+        } catch (Exception e) {
+            close(next);
+            close(previous);
+            close(server);
+
+            throw e;
+        }
+
+        this.server = server;
+        this.next = next;
+        this.previous = previous;
+        this.sender = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "jnn-ring-" + rank);
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+
+    @Override
+    public int rank() {
+        return this.rank;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Gets the precision of the values sent in sums
+     * 
+     * @return the precision
+     */
+    public Precision getPrecision() {
+        return this.precision;
+    }
+
+    @Override
+    public synchronized void sum(double[] values) throws Exception {
+        int size = this.size;
+        int rank = this.rank;
+
+        if (size == 1) {
+            return;
+        }
+
+        // Each chunk is sent on by the member that has just added its values
+        for (int s = 0; s < size - 1; s++) {
+            this.exchange(
+                values,
+                Math.floorMod(rank - s, size),
+                Math.floorMod(rank - s - 1, size),
+                true
+            );
+        }
+
+        // Sums are sent in the precision of the ring, this member rounds its
+        // own as well so every member gets the same values
+        int owned = (rank + 1) % size;
+
+        if (this.precision != Precision.FLOAT64) {
+            this.round(
+                values,
+                start(values, owned, size),
+                start(values, owned + 1, size)
+            );
+        }
+
+        // Each sum is sent on around the ring
+        for (int s = 0; s < size - 1; s++) {
+            this.exchange(
+                values,
+                Math.floorMod(rank - s + 1, size),
+                Math.floorMod(rank - s, size),
+                false
+            );
+        }
+    }
+
+    @Override
+    public synchronized void broadcast(double[] values) throws Exception {
+        if (this.size == 1) {
+            return;
+        }
+
+        boolean last = (this.rank + 1) % this.size == 0;
+
+        // The values are passed on piece by piece, the last member keeps them
+        for (int s = 0; s < values.length; s += PIECE) {
+            int to = Math.min(values.length, s + PIECE);
+
+            if (this.rank != 0) {
+                this.receive(values, s, to, Precision.FLOAT64, false);
+            }
+
+            if (!last) {
+                this.send(values, s, to, Precision.FLOAT64);
+            }
+        }
+    }
+
+    /**
+     * Closes the connections and stops the sending thread, waiting a moment
+     * for it to stop
+     */
+    @Override
+    public void close() {
+        if (this.sender != null) {
+            this.sender.shutdownNow();
+        }
+
+        close(this.next);
+        close(this.previous);
+        close(this.server);
+
+        if (this.sender == null) {
+            return;
+        }
+
+        try {
+            this.sender.awaitTermination(1L, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sends a chunk of values to the next member while another one is
+     * received from the previous member
+     * 
+     * @param values values
+     * @param sent chunk sent
+     * @param received chunk received
+     * @param add whether to add the values received, or to overwrite
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private void exchange(
+        double[] values,
+        int sent,
+        int received,
+        boolean add
+    ) throws Exception {
+        int size = this.size;
+
+        Future<?> sending = this.sender.submit(() -> {
+            this.send(
+                values,
+                start(values, sent, size),
+                start(values, sent + 1, size),
+                this.precision
+            );
+
+            return null;
+        });
+
+        try {
+            this.receive(
+                values,
+                start(values, received, size),
+                start(values, received + 1, size),
+                this.precision,
+                add
+            );
+        } catch (Exception e) {
+            sending.cancel(true);
+
+            throw e;
+        }
+
+        try {
+            sending.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception
+                ? (Exception) e.getCause()
+                : e;
+        }
+    }
+
+    /**
+     * Sends [from, to) of the values to the next member
+     */
+    private void send(
+        double[] values,
+        int from,
+        int to,
+        Precision precision
+    ) throws Exception {
+        ByteBuffer out = this.out;
+
+        for (int s = from; s < to; s += PIECE) {
+            int length = Math.min(PIECE, to - s);
+
+            out.clear();
+            precision.encode(values, s, length, out);
+            out.flip();
+
+            while (out.hasRemaining()) {
+                this.next.write(out);
+            }
+        }
+    }
+
+    /**
+     * Receives [from, to) of the values from the previous member, adding them
+     * or overwriting
+     */
+    private void receive(
+        double[] values,
+        int from,
+        int to,
+        Precision precision,
+        boolean add
+    ) throws Exception {
+        ByteBuffer in = this.in;
+
+        for (int s = from; s < to; s += PIECE) {
+            int length = Math.min(PIECE, to - s);
+
+            in.clear();
+            in.limit(length * precision.bytes());
+
+            while (in.hasRemaining()) {
+                if (this.previous.read(in) < 0) {
+                    throw new Exception(String.format(
+                        "Ring member %d disconnected",
+                        Math.floorMod(this.rank - 1, this.size)
+                    ));
+                }
+            }
+
+            in.flip();
+
+            if (add) {
+                precision.decode(in, this.piece, 0, length);
+                Kernels.ACTIVE.axpy(1d, this.piece, 0, values, s, length);
+            } else {
+                precision.decode(in, values, s, length);
+            }
+        }
+    }
+
+    /**
+     * Rounds [from, to) of the values to the precision of the ring
+     */
+    private void round(double[] values, int from, int to) {
+        ByteBuffer in = this.in;
+
+        for (int s = from; s < to; s += PIECE) {
+            int length = Math.min(PIECE, to - s);
+
+            in.clear();
+            this.precision.encode(values, s, length, in);
+            in.flip();
+            this.precision.decode(in, values, s, length);
+        }
+    }
+
+    /**
+     * Introduces this member to the next one and checks the previous one
+     */
+    private void handshake(
+        SocketChannel next,
+        SocketChannel previous
+    ) throws Exception {
+        ByteBuffer hello = ByteBuffer.allocate(3 * Integer.BYTES);
+
+        hello.putInt(this.rank).putInt(this.size).putInt(this.precision.ordinal());
+        hello.flip();
+
+        while (hello.hasRemaining()) {
+            next.write(hello);
+        }
+
+        hello.clear();
+
+        while (hello.hasRemaining()) {
+            if (previous.read(hello) < 0) {
+                throw new Exception("Ring member disconnected");
+            }
+        }
+
+        hello.flip();
+
+        int rank = hello.getInt();
+        int size = hello.getInt();
+        int precision = hello.getInt();
+
+        if (
+            rank != Math.floorMod(this.rank - 1, this.size)
+            || size != this.size
+            || precision != this.precision.ordinal()
+        ) {
+            throw new Exception(String.format(
+                "Invalid ring member, rank = %d, size = %d and precision = %d",
+                rank,
+                size,
+                precision
+            ));
+        }
+    }
+
+    /**
+     * Gets the first value of a chunk
+     */
+    private static int start(double[] values, int chunk, int size) {
+        return (int) ((long) values.length * chunk / size);
+    }
+
+    /**
+     * Connects to a member, waiting for it to listen
+     */
+    private static SocketChannel connect(
+        InetSocketAddress address
+    ) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while (true) {
+            try {
+                SocketChannel channel = SocketChannel.open(address);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+                return channel;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new Exception(String.format(
+                        "Ring member %s not reachable",
+                        address
+                    ));
+                }
+
+                Thread.sleep(100L);
+            }
+        }
+    }
+
+    /**
+     * Closes a channel, if any, ignoring errors
+     */
+    private static void close(Channel channel) {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+}
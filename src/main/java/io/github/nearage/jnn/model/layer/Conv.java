@@ -17,23 +17,609 @@
 package io.github.nearage.jnn.model.layer;
 
 import io.github.nearage.jnn.input.Matrix;
+import io.github.nearage.jnn.input.Shape;
+import io.github.nearage.jnn.processing.Activation;
 import io.github.nearage.jnn.processing.Layer;
+import io.github.nearage.jnn.util.Gemm;
+import io.github.nearage.jnn.util.Matrices;
+import io.github.nearage.jnn.util.Parallel;
+import java.util.Arrays;
 
 /**
- * TODO: Convolutional layer
+ * 2-D convolution layer
+ * 
+ * Inputs and outputs are batches of images in NCHW layout, see {@link Shape}.
+ * Each filter spans every input channel with a square kernel, moves with the
+ * given stride and sees the input padded with zeros on every side.
+ * 
+ * The convolution is lowered to a single product of the {@link Gemm} engine.
+ * Every output position of the batch gets a row of patches with the input
+ * window it sees (im2col), which is multiplied by the weights, one col of
+ * kernel weights per filter, with the bias and the activation fused. The
+ * backward pass multiplies the deltas by the weights back into patches and
+ * adds them into the input positions they came from (col2im). Patches are
+ * kept in scratch buffers of the current thread, reused while the batch size
+ * does not change.
  * 
  * @author Nearage <https://github.com/Nearage>
  */
 public class Conv extends Layer {
 
+    /**
+     * Shape of the input
+     */
+    private final Shape input;
+
+    /**
+     * Shape of the output
+     */
+    private final Shape output;
+
+    /**
+     * Number of filters
+     */
+    private final int filters;
+
+    /**
+     * Side of the kernel
+     */
+    private final int kernel;
+
+    /**
+     * Step between two windows
+     */
+    private final int stride;
+
+    /**
+     * Zeros added on every side of the input
+     */
+    private final int padding;
+
+    /**
+     * Activation functions
+     */
+    private final Activation[] activation;
+
+    /**
+     * Scratch buffers of the current thread
+     */
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(
+        Scratch::new
+    );
+
+    /**
+     * Scratch buffers of a thread
+     */
+    private static final class Scratch {
+
+        /**
+         * Patches of every output position, or their deltas
+         */
+        Matrix patches;
+
+        /**
+         * Output or deltas of every position, one col per filter
+         */
+        Matrix positions;
+
+        /**
+         * Copy of a matrix that is not on the heap
+         */
+        Matrix staged;
+    }
+
+    /**
+     * Creates a convolution layer with stride 1 and no padding
+     * 
+     * @param input shape of the input
+     * @param filters number of filters
+     * @param kernel side of the kernel
+     * @param activation activation function
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public Conv(
+        Shape input,
+        int filters,
+        int kernel,
+        Activation[] activation
+    ) throws Exception {
+        this(input, filters, kernel, 1, 0, activation);
+    }
+
+    /**
+     * Creates a convolution layer
+     * 
+     * @param input shape of the input
+     * @param filters number of filters
+     * @param kernel side of the kernel
+     * @param stride step between two windows
+     * @param padding zeros added on every side of the input
+     * @param activation activation function
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public Conv(
+        Shape input,
+        int filters,
+        int kernel,
+        int stride,
+        int padding,
+        Activation[] activation
+    ) throws Exception {
+        if (
+            filters <= 0
+            || kernel <= 0
+            || stride <= 0
+            || padding < 0
+            || input.height + 2 * padding < kernel
+            || input.width + 2 * padding < kernel
+        ) {
+            throw new Exception(String.format(
+                "Invalid conv, input = %s, filters = %d, kernel = %d, "
+                + "stride = %d and padding = %d",
+                input,
+                filters,
+                kernel,
+                stride,
+                padding
+            ));
+        }
+
+        this.input = input;
+        this.filters = filters;
+        this.kernel = kernel;
+        this.stride = stride;
+        this.padding = padding;
+        this.activation = activation;
+        this.output = new Shape(
+            filters,
+            (input.height + 2 * padding - kernel) / stride + 1,
+            (input.width + 2 * padding - kernel) / stride + 1
+        );
+    }
+
+    /**
+     * Gets the shape of the input
+     * 
+     * @return shape of the input
+     */
+    public Shape getInput() {
+        return this.input;
+    }
+
+    /**
+     * Gets the shape of the output
+     * 
+     * @return shape of the output
+     */
+    public Shape getOutput() {
+        return this.output;
+    }
+
+    /**
+     * Gets the number of filters
+     * 
+     * @return number of filters
+     */
+    public int getFilters() {
+        return this.filters;
+    }
+
+    /**
+     * Gets the side of the kernel
+     * 
+     * @return side of the kernel
+     */
+    public int getKernel() {
+        return this.kernel;
+    }
+
+    /**
+     * Gets the step between two windows
+     * 
+     * @return the stride
+     */
+    public int getStride() {
+        return this.stride;
+    }
+
+    /**
+     * Gets the zeros added on every side of the input
+     * 
+     * @return the padding
+     */
+    public int getPadding() {
+        return this.padding;
+    }
+
+    /**
+     * Gets the activation functions
+     * 
+     * @return activation functions
+     */
+    public Activation[] getActivation() {
+        return this.activation;
+    }
+
+    @Override
+    public int build(int inputs) throws Exception {
+        if (inputs != this.input.size()) {
+            throw new Exception(String.format(
+                "Shape mismatch in conv, inputs = %d and expected = %s",
+                inputs,
+                this.input
+            ));
+        }
+
+        if (this.weights == null) {
+            this.weights = new Matrix(this.depth(), this.filters);
+            this.weights.randomize(-1, 1);
+            this.biases = new Matrix(1, this.filters);
+            this.biases.randomize(-1, 1);
+        }
+
+        return this.output.size();
+    }
+
     @Override
     public Matrix activate(Matrix input) throws Exception {
-        return null;
+        Matrix a = new Matrix(input.rows, this.build(input.cols));
+
+        this.activate(input, a);
+
+        return a;
+    }
+
+    @Override
+    public void activate(Matrix input, Matrix output) throws Exception {
+        this.build(input.cols);
+
+        Scratch scratch = this.scratch.get();
+        int samples = input.rows;
+        int positions = samples * this.output.height * this.output.width;
+
+        Matrix patches = this.patches(input, scratch);
+        Matrix result = scratch.positions = fit(
+            scratch.positions,
+            positions,
+            this.filters
+        );
+
+        // Row epilogues would see the filters of one position, not a sample
+        Gemm.Epilogue epilogue = this.activation[0].epilogue();
+
+        if (epilogue != null && epilogue.rows()) {
+            epilogue = null;
+        }
+
+        // Fused product, bias and activation, if it can be fused
+        Matrices.affineInto(patches, this.weights, this.biases, epilogue, result);
+
+        this.channels(result.array(), samples, output);
+
+        if (epilogue == null) {
+            this.activation[0].apply(output, output);
+        }
     }
 
     @Override
     public Matrix propagate(Matrix input) throws Exception {
-        return null;
+        return this.activation[1].apply(input);
+    }
+
+    @Override
+    public void propagate(Matrix input, Matrix output) throws Exception {
+        this.activation[1].apply(input, output);
+    }
+
+    @Override
+    public void backward(
+        Matrix input,
+        Matrix delta,
+        Matrix output
+    ) throws Exception {
+        Scratch scratch = this.scratch.get();
+        Matrix positions = this.positions(delta, scratch);
+
+        Matrix patches = scratch.patches = fit(
+            scratch.patches,
+            positions.rows,
+            this.depth()
+        );
+
+        // Deltas of the patches
+        Matrices.dotInto(positions, this.weights, false, true, patches);
+
+        // Added into the input positions they came from
+        if (output.isHeap()) {
+            this.col2im(patches.array(), input.rows, output.array());
+        } else {
+            Matrix staged = scratch.staged = fit(
+                scratch.staged,
+                output.rows,
+                output.cols
+            );
+
+            this.col2im(patches.array(), input.rows, staged.array());
+            Matrices.copyInto(staged, output);
+        }
+    }
+
+    @Override
+    public void gradient(
+        Matrix input,
+        Matrix delta,
+        Matrix weights,
+        Matrix biases
+    ) throws Exception {
+        Scratch scratch = this.scratch.get();
+        Matrix positions = this.positions(delta, scratch);
+        Matrix patches = this.patches(input, scratch);
+
+        // Weights gradient
+        Matrices.dotInto(patches, positions, true, false, weights);
+
+        // Biases gradient, the deltas of each filter summed over every
+        // position
+        Matrices.sumInto(positions, 1, biases);
+    }
+
+    /**
+     * Gets the number of weights of each filter
+     */
+    private int depth() {
+        return this.input.channels * this.kernel * this.kernel;
+    }
+
+    /**
+     * Fills the patches of the given input, one row per output position
+     * 
+     * @param input input batch
+     * @param scratch scratch buffers
+     * 
+     * @return the patches
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private Matrix patches(Matrix input, Scratch scratch) throws Exception {
+        int samples = input.rows;
+        int height = this.output.height;
+        int width = this.output.width;
+        int depth = this.depth();
+
+        double[] x;
+
+        if (input.isHeap()) {
+            x = input.array();
+        } else {
+            scratch.staged = fit(scratch.staged, input.rows, input.cols);
+            Matrices.copyInto(input, scratch.staged);
+            x = scratch.staged.array();
+        }
+
+        scratch.patches = fit(scratch.patches, samples * height * width, depth);
+
+        double[] p = scratch.patches.array();
+        int channels = this.input.channels;
+        int inHeight = this.input.height;
+        int inWidth = this.input.width;
+        int kernel = this.kernel;
+        int stride = this.stride;
+        int padding = this.padding;
+        int sample = this.input.size();
+
+        // Each task fills the rows of whole output rows
+        Parallel.forRange(
+            0,
+            samples * height,
+            Math.max(1, Parallel.GRAIN / Math.max(1, width * depth)),
+            (from, to) -> {
+                for (int r = from; r < to; r++) {
+                    int xn = r / height * sample;
+                    int oy = r % height;
+
+                    for (int ox = 0; ox < width; ox++) {
+                        int pr = (r * width + ox) * depth;
+
+                        for (int c = 0; c < channels; c++) {
+                            for (int ky = 0; ky < kernel; ky++) {
+                                int iy = oy * stride - padding + ky;
+
+                                if (iy < 0 || iy >= inHeight) {
+                                    Arrays.fill(p, pr, pr + kernel, 0d);
+                                    pr += kernel;
+                                    continue;
+                                }
+
+                                int xr = xn + (c * inHeight + iy) * inWidth;
+
+                                for (int kx = 0; kx < kernel; kx++) {
+                                    int ix = ox * stride - padding + kx;
+
+                                    p[pr++] = ix >= 0 && ix < inWidth
+                                        ? x[xr + ix]
+                                        : 0d;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        );
+
+        return scratch.patches;
+    }
+
+    /**
+     * Adds the deltas of the patches into the input positions they came from
+     * 
+     * @param p deltas of the patches
+     * @param samples number of samples
+     * @param dx deltas of the input, overwritten
+     */
+    private void col2im(double[] p, int samples, double[] dx) {
+        int height = this.output.height;
+        int width = this.output.width;
+        int depth = this.depth();
+        int channels = this.input.channels;
+        int inHeight = this.input.height;
+        int inWidth = this.input.width;
+        int kernel = this.kernel;
+        int stride = this.stride;
+        int padding = this.padding;
+        int sample = this.input.size();
+
+        // Overlapping windows add into the same sample, so samples are split
+        Parallel.forRange(
+            0,
+            samples,
+            Math.max(1, Parallel.GRAIN / Math.max(1, height * width * depth)),
+            (from, to) -> {
+                Arrays.fill(dx, from * sample, to * sample, 0d);
+
+                for (int n = from; n < to; n++) {
+                    int xn = n * sample;
+
+                    for (int oy = 0; oy < height; oy++) {
+                        for (int ox = 0; ox < width; ox++) {
+                            int pr = ((n * height + oy) * width + ox) * depth;
+
+                            for (int c = 0; c < channels; c++) {
+                                for (int ky = 0; ky < kernel; ky++) {
+                                    int iy = oy * stride - padding + ky;
+
+                                    if (iy < 0 || iy >= inHeight) {
+                                        pr += kernel;
+                                        continue;
+                                    }
+
+                                    int xr = xn + (c * inHeight + iy) * inWidth;
+
+                                    for (int kx = 0; kx < kernel; kx++, pr++) {
+                                        int ix = ox * stride - padding + kx;
+
+                                        if (ix >= 0 && ix < inWidth) {
+                                            dx[xr + ix] += p[pr];
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        );
+    }
+
+    /**
+     * Copies the result of every position, one col per filter, into the
+     * channels of the output batch
+     * 
+     * @param y result of every position
+     * @param samples number of samples
+     * @param output output batch
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private void channels(
+        double[] y,
+        int samples,
+        Matrix output
+    ) throws Exception {
+        Scratch scratch = this.scratch.get();
+        double[] out;
+
+        if (output.isHeap()) {
+            out = output.array();
+        } else {
+            scratch.staged = fit(scratch.staged, output.rows, output.cols);
+            out = scratch.staged.array();
+        }
+
+        int filters = this.filters;
+        int area = this.output.height * this.output.width;
+
+        Parallel.forRange(
+            0,
+            samples,
+            Math.max(1, Parallel.GRAIN / Math.max(1, area * filters)),
+            (from, to) -> {
+                for (int n = from; n < to; n++) {
+                    int yn = n * area * filters;
+
+                    for (int f = 0; f < filters; f++) {
+                        for (int a = 0; a < area; a++) {
+                            out[yn + f * area + a] = y[yn + a * filters + f];
+                        }
+                    }
+                }
+            }
+        );
+
+        if (!output.isHeap()) {
+            Matrices.copyInto(scratch.staged, output);
+        }
+    }
+
+    /**
+     * Copies the channels of the deltas of the output batch into the deltas
+     * of every position, one col per filter
+     * 
+     * @param delta deltas of the output batch
+     * @param scratch scratch buffers
+     * 
+     * @return the deltas of every position
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private Matrix positions(Matrix delta, Scratch scratch) throws Exception {
+        double[] d;
+
+        if (delta.isHeap()) {
+            d = delta.array();
+        } else {
+            scratch.staged = fit(scratch.staged, delta.rows, delta.cols);
+            Matrices.copyInto(delta, scratch.staged);
+            d = scratch.staged.array();
+        }
+
+        int samples = delta.rows;
+        int filters = this.filters;
+        int area = this.output.height * this.output.width;
+
+        scratch.positions = fit(scratch.positions, samples * area, filters);
+
+        double[] y = scratch.positions.array();
+
+        Parallel.forRange(
+            0,
+            samples,
+            Math.max(1, Parallel.GRAIN / Math.max(1, area * filters)),
+            (from, to) -> {
+                for (int n = from; n < to; n++) {
+                    int yn = n * area * filters;
+
+                    for (int a = 0; a < area; a++) {
+                        for (int f = 0; f < filters; f++) {
+                            y[yn + a * filters + f] = d[yn + f * area + a];
+                        }
+                    }
+                }
+            }
+        );
+
+        return scratch.positions;
+    }
+
+    /**
+     * Gets a matrix of the given shape, reusing the given one if it fits
+     */
+    private static Matrix fit(Matrix matrix, int rows, int cols) {
+        if (matrix != null && matrix.rows == rows && matrix.cols == cols) {
+            return matrix;
+        }
+
+        return new Matrix(rows, cols);
     }
-    
 }
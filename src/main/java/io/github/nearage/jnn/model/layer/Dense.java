@@ -19,6 +19,7 @@ package io.github.nearage.jnn.model.layer;
 import io.github.nearage.jnn.input.Matrix;
 import io.github.nearage.jnn.processing.Activation;
 import io.github.nearage.jnn.processing.Layer;
+import io.github.nearage.jnn.util.Gemm;
 import io.github.nearage.jnn.util.Matrices;
 
 /**
@@ -48,25 +49,130 @@ public class Dense extends Layer {
         this.activation = activation;
     }
 
+    /**
+     * Gets the number of neurons
+     * 
+     * @return number of neurons
+     */
+    public int getNeurs() {
+        return this.neurs;
+    }
+
+    /**
+     * Gets the activation functions
+     * 
+     * @return activation functions
+     */
+    public Activation[] getActivation() {
+        return this.activation;
+    }
+
     @Override
-    public Matrix activate(Matrix input) throws Exception {
+    public int build(int inputs) throws Exception {
         if (this.weights == null) {
-            this.weights = new Matrix(input.cols, neurs);
+            this.weights = new Matrix(inputs, neurs);
             this.weights.randomize(-1, 1);
             this.biases = new Matrix(1, neurs);
             this.biases.randomize(-1, 1);
         }
 
-        Matrix z = Matrices.dot(input, this.weights);
-        z.map((i, j) -> z.get(i, j) + this.biases.get(0, j));
-        Matrix a = this.activation[0].apply(z);
+        return this.neurs;
+    }
+
+    @Override
+    public Matrix activate(Matrix input) throws Exception {
+        Matrix a = new Matrix(input.rows, this.build(input.cols));
+
+        this.activate(input, a);
 
         return a;
     }
 
+    @Override
+    public void activate(Matrix input, Matrix output) throws Exception {
+        this.build(input.cols);
+
+        Gemm.Epilogue epilogue = this.activation[0].epilogue();
+
+        // Fused product, bias and activation, if it can be fused
+        Matrices.affineInto(
+            input,
+            this.weights,
+            this.biases,
+            epilogue,
+            output
+        );
+
+        if (epilogue == null) {
+            this.activation[0].apply(output, output);
+        }
+    }
+
     @Override
     public Matrix propagate(Matrix input) throws Exception {
         return this.activation[1].apply(input);
     }
 
+    @Override
+    public void propagate(Matrix input, Matrix output) throws Exception {
+        this.activation[1].apply(input, output);
+    }
+
+    @Override
+    public void backward(
+        Matrix input,
+        Matrix delta,
+        Matrix output
+    ) throws Exception {
+        Matrices.dotInto(delta, this.weights, false, true, output);
+    }
+
+    @Override
+    public void gradient(
+        Matrix input,
+        Matrix delta,
+        Matrix weights,
+        Matrix biases
+    ) throws Exception {
+        // Weights gradient
+        Matrices.dotInto(input, delta, true, false, weights);
+
+        // Biases gradient, the deltas of each neuron summed over the batch
+        Matrices.sumInto(delta, 1, biases);
+    }
+
+    @Override
+    public void update(
+        Matrix input,
+        Matrix delta,
+        Matrix weights,
+        Matrix biases,
+        double learningRate
+    ) throws Exception {
+        if (input.sparse() != null) {
+            // Weights correction, only the rows of the non-zero input cols
+            // have a gradient
+            Matrices.axpyDot(
+                -learningRate,
+                input,
+                delta,
+                true,
+                false,
+                this.weights
+            );
+        } else {
+            // Weights gradient
+            Matrices.dotInto(input, delta, true, false, weights);
+
+            // Weights correction
+            Matrices.axpy(-learningRate, weights, this.weights);
+        }
+
+        // Biases gradient
+        Matrices.sumInto(delta, 1, biases);
+
+        // Biases correction
+        Matrices.axpy(-learningRate, biases, this.biases);
+    }
+
 }
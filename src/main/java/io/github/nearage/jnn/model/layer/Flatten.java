@@ -18,22 +18,140 @@ package io.github.nearage.jnn.model.layer;
 
 import io.github.nearage.jnn.input.Matrix;
 import io.github.nearage.jnn.processing.Layer;
+import io.github.nearage.jnn.util.Matrices;
 
 /**
- * TODO: Flatten layer
+ * Flatten layer
+ * 
+ * Joins every given number of consecutive rows of its input into a single
+ * row, so samples given as several rows, such as the rows of an image, become
+ * one row each. Batches whose samples are already rows, such as NCHW batches,
+ * pass through with one row per sample. The output is a view of the input and
+ * the deltas of the input are a view of the deltas of the output, so nothing
+ * is copied in either direction.
  * 
  * @author Nearage <https://github.com/Nearage>
  */
 public class Flatten extends Layer {
 
+    /**
+     * Rows of each sample
+     */
+    private final int rows;
+
+    /**
+     * Creates a flatten layer for samples of one row
+     */
+    public Flatten() {
+        this(1);
+    }
+
+    /**
+     * Creates a flatten layer for samples of the given number of rows
+     * 
+     * @param rows rows of each sample
+     */
+    public Flatten(int rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * Gets the number of rows of each sample
+     * 
+     * @return rows of each sample
+     */
+    public int getRows() {
+        return this.rows;
+    }
+
     @Override
     public Matrix activate(Matrix input) throws Exception {
-        return null;
+        return this.view(input);
+    }
+
+    @Override
+    public void activate(Matrix input, Matrix output) throws Exception {
+        Matrices.copyInto(this.view(input), output);
+    }
+
+    @Override
+    public Matrix view(Matrix input) throws Exception {
+        if (input.rows % this.rows != 0) {
+            throw new Exception(String.format(
+                "Shape mismatch in flatten, input = (%d, %d) and rows = %d",
+                input.rows,
+                input.cols,
+                this.rows
+            ));
+        }
+
+        if (this.rows == 1) {
+            return input;
+        }
+
+        return input.reshape(input.rows / this.rows, input.cols * this.rows);
+    }
+
+    @Override
+    public Matrix viewDelta(Matrix delta) throws Exception {
+        if (this.rows == 1) {
+            return delta;
+        }
+
+        return delta.reshape(delta.rows * this.rows, delta.cols / this.rows);
     }
 
     @Override
     public Matrix propagate(Matrix input) throws Exception {
-        return null;
+        Matrix result = new Matrix(input.rows, input.cols);
+
+        this.propagate(input, result);
+
+        return result;
+    }
+
+    @Override
+    public void propagate(Matrix input, Matrix output) throws Exception {
+        output.apply(x -> 1d);
+    }
+
+    @Override
+    public void backward(
+        Matrix input,
+        Matrix delta,
+        Matrix output
+    ) throws Exception {
+        Matrices.copyInto(this.viewDelta(delta), output);
+    }
+
+    @Override
+    public void gradient(
+        Matrix input,
+        Matrix delta,
+        Matrix weights,
+        Matrix biases
+    ) throws Exception {
+        // No parameters
+    }
+
+    @Override
+    public void update(
+        Matrix input,
+        Matrix delta,
+        Matrix weights,
+        Matrix biases,
+        double learningRate
+    ) throws Exception {
+        // No parameters
+    }
+
+    @Override
+    public int build(int inputs) throws Exception {
+        return inputs * this.rows;
+    }
+
+    @Override
+    public int params() throws Exception {
+        return 0;
     }
-    
 }
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.model.layer;
+
+import io.github.nearage.jnn.input.Matrix;
+import io.github.nearage.jnn.input.Storage;
+import io.github.nearage.jnn.processing.Activation;
+import io.github.nearage.jnn.processing.Layer;
+import io.github.nearage.jnn.util.Gemm;
+import io.github.nearage.jnn.util.Int8;
+import io.github.nearage.jnn.util.Matrices;
+
+/**
+ * Dense layer with 8-bit weights, for inference
+ * 
+ * The weights of each neuron are quantized with their own scale. Inputs are
+ * quantized row by row when the layer is activated, the product accumulates
+ * in integers and is dequantized together with the bias and the activation.
+ * The layer can not be trained, its weights matrix is null.
+ * 
+ * Integer products are only faster for small batches, since widening the
+ * 8-bit values costs more than it saves once the product is large enough to
+ * keep the double kernel busy. Larger batches, see {@link #integer}, are
+ * multiplied in double precision by the {@link Gemm} kernel, which reads the
+ * 8-bit weights and dequantizes each panel of them as it packs it, so no copy
+ * of the weights is kept.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public class QuantizedDense extends Layer {
+
+    /**
+     * Number of inputs
+     */
+    private final int inputs;
+
+    /**
+     * Number of neurons
+     */
+    private final int neurs;
+
+    /**
+     * Activation functions
+     */
+    private final Activation[] activation;
+
+    /**
+     * Quantized weights, the ones of each neuron in a col
+     */
+    private final byte[] values;
+
+    /**
+     * Scale of the weights of each neuron
+     */
+    private final double[] scales;
+
+    /**
+     * Quantized weights as a matrix, dequantized as the kernel reads them
+     */
+    private final Matrix quantized;
+
+    /**
+     * Quantized input of the current thread
+     */
+    private final ThreadLocal<byte[]> input = ThreadLocal.withInitial(
+        () -> new byte[0]
+    );
+
+    /**
+     * Scales of the quantized input of the current thread
+     */
+    private final ThreadLocal<double[]> inputScales = ThreadLocal.withInitial(
+        () -> new double[0]
+    );
+
+    /**
+     * Creates a quantized copy of a built dense layer
+     * 
+     * @param dense dense layer
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public QuantizedDense(Dense dense) throws Exception {
+        if (dense.weights == null) {
+            throw new Exception("Layer not built");
+        }
+
+        Matrix weights = dense.weights;
+
+        this.inputs = weights.rows;
+        this.neurs = weights.cols;
+        this.activation = dense.getActivation();
+        this.values = new byte[this.inputs * this.neurs];
+        this.scales = new double[this.neurs];
+        this.biases = new Matrix(1, this.neurs);
+
+        Matrices.copyInto(dense.biases, this.biases);
+
+        double[] column = new double[this.inputs];
+        byte[] quantized = new byte[this.inputs];
+
+        // Quantize the weights of each neuron with their own scale
+        for (int j = 0; j < this.neurs; j++) {
+            for (int i = 0; i < this.inputs; i++) {
+                column[i] = weights.get(i, j);
+            }
+
+            this.scales[j] = Int8.quantize(
+                column, 0, this.inputs,
+                quantized, 0
+            );
+
+            for (int i = 0; i < this.inputs; i++) {
+                this.values[i * this.neurs + j] = quantized[i];
+            }
+        }
+
+        this.quantized = new Matrix(
+            this.inputs,
+            this.neurs,
+            new Weights(this.values, this.scales)
+        );
+    }
+
+    /**
+     * Checks whether a batch of the given rows is multiplied in integers.
+     * Batches of fewer rows than a row block of {@link Gemm} are, since the
+     * double kernel dequantizes every weight once per batch and only makes up
+     * for it when a whole block of rows reuses each panel.
+     * 
+     * @param rows rows of the batch
+     * 
+     * @return true if the batch is multiplied in integers
+     */
+    public static boolean integer(int rows) {
+        return rows < Gemm.MC;
+    }
+
+    /**
+     * Gets the number of neurons
+     * 
+     * @return number of neurons
+     */
+    public int getNeurs() {
+        return this.neurs;
+    }
+
+    /**
+     * Gets the activation functions
+     * 
+     * @return activation functions
+     */
+    public Activation[] getActivation() {
+        return this.activation;
+    }
+
+    /**
+     * Gets the size of the quantized weights and their scales in bytes
+     * 
+     * @return size in bytes
+     */
+    public long bytes() {
+        return this.values.length + (long) this.scales.length * Double.BYTES;
+    }
+
+    @Override
+    public int build(int inputs) throws Exception {
+        if (inputs != this.inputs) {
+            throw new Exception(String.format(
+                "Shape mismatch in quantized dense, inputs = %d and expected = %d",
+                inputs,
+                this.inputs
+            ));
+        }
+
+        return this.neurs;
+    }
+
+    @Override
+    public int params() throws Exception {
+        return this.values.length + this.biases.size;
+    }
+
+    @Override
+    public Matrix activate(Matrix input) throws Exception {
+        Matrix a = new Matrix(input.rows, this.build(input.cols));
+
+        this.activate(input, a);
+
+        return a;
+    }
+
+    @Override
+    public void activate(Matrix input, Matrix output) throws Exception {
+        this.build(input.cols);
+
+        if (output.rows != input.rows || output.cols != this.neurs) {
+            throw new Exception(String.format(
+                "Shape mismatch in quantized dense, out = (%d, %d) and expected = (%d, %d)",
+                output.rows,
+                output.cols,
+                input.rows,
+                this.neurs
+            ));
+        }
+
+        // Large batches are faster in double precision
+        if (!integer(input.rows)) {
+            Gemm.Epilogue epilogue = this.activation[0].epilogue();
+
+            Matrices.affineInto(
+                input,
+                this.quantized,
+                this.biases,
+                epilogue,
+                output
+            );
+
+            if (epilogue == null) {
+                this.activation[0].apply(output, output);
+            }
+
+            return;
+        }
+
+        int rows = input.rows;
+        byte[] q = this.input.get();
+        double[] qs = this.inputScales.get();
+
+        if (q.length < rows * this.inputs) {
+            q = new byte[rows * this.inputs];
+            this.input.set(q);
+        }
+
+        if (qs.length < rows) {
+            qs = new double[rows];
+            this.inputScales.set(qs);
+        }
+
+        // Quantize each row of the input with its own scale
+        Matrix x = input.isHeap() ? input : this.heap(input);
+        double[] xs = x.array();
+
+        for (int i = 0; i < rows; i++) {
+            qs[i] = Int8.quantize(xs, i * this.inputs, this.inputs, q, i * this.inputs);
+        }
+
+        Gemm.Epilogue epilogue = this.activation[0].epilogue();
+        Matrix out = output.isHeap() ? output : new Matrix(output.rows, output.cols);
+        Matrix bias = this.biases.isHeap() ? this.biases : this.heap(this.biases);
+
+        Int8.multiply(
+            rows, this.neurs, this.inputs,
+            q, qs,
+            this.values, this.scales,
+            out.array(), out.cols,
+            bias.array(), epilogue
+        );
+
+        if (epilogue == null) {
+            this.activation[0].apply(out, out);
+        }
+
+        if (out != output) {
+            Matrices.copyInto(out, output);
+        }
+    }
+
+    @Override
+    public Matrix propagate(Matrix input) throws Exception {
+        return this.activation[1].apply(input);
+    }
+
+    @Override
+    public void propagate(Matrix input, Matrix output) throws Exception {
+        this.activation[1].apply(input, output);
+    }
+
+    /**
+     * Copies a matrix to the heap
+     */
+    private Matrix heap(Matrix matrix) throws Exception {
+        Matrix result = new Matrix(matrix.rows, matrix.cols);
+        Matrices.copyInto(matrix, result);
+
+        return result;
+    }
+
+    /**
+     * Read-only storage of quantized weights, dequantized on every read
+     */
+    private static final class Weights implements Storage {
+
+        private final byte[] values;
+
+        private final double[] scales;
+
+        /**
+         * Creates a storage over the given weights
+         * 
+         * @param values quantized weights, the ones of each neuron in a col
+         * @param scales scale of the weights of each neuron
+         */
+        Weights(byte[] values, double[] scales) {
+            this.values = values;
+            this.scales = scales;
+        }
+
+        @Override
+        public int size() {
+            return this.values.length;
+        }
+
+        @Override
+        public double get(int index) {
+            return this.values[index] * this.scales[index % this.scales.length];
+        }
+
+        @Override
+        public void set(int index, double value) {
+            throw new UnsupportedOperationException(
+                "Quantized weights are read-only"
+            );
+        }
+
+        @Override
+        public void get(int index, double[] dst, int offset, int length) {
+            byte[] values = this.values;
+            double[] scales = this.scales;
+            int cols = scales.length;
+            int j = index % cols;
+
+            // Dequantize row by row, each element with the scale of its col
+            for (int s = 0; s < length; j = 0) {
+                int run = Math.min(length - s, cols - j);
+
+                for (int t = 0; t < run; t++) {
+                    dst[offset + s + t] = values[index + s + t] * scales[j + t];
+                }
+
+                s += run;
+            }
+        }
+
+        @Override
+        public void set(int index, double[] src, int offset, int length) {
+            throw new UnsupportedOperationException(
+                "Quantized weights are read-only"
+            );
+        }
+    }
+}
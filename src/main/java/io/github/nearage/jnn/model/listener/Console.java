@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.model.listener;
+
+import io.github.nearage.jnn.model.Listener;
+import io.github.nearage.jnn.model.Metrics;
+
+/**
+ * Console listener
+ * 
+ * Prints the loss of the epoch to the standard output ten times while the
+ * model trains, the default listener of a model.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public class Console implements Listener {
+
+    /**
+     * Number of epochs reported
+     */
+    private static final int REPORTS = 10;
+
+    @Override
+    public void started(Metrics metrics) {
+        System.out.println("Training..." + System.lineSeparator());
+    }
+
+    @Override
+    public void epoch(Metrics metrics) {
+        // Every epoch when there are fewer than the reports
+        int every = Math.max(1, metrics.getEpochs() / REPORTS);
+
+        if (metrics.getEpoch() % every == 0) {
+            System.out.printf("Epoch %d error: %.8f%n",
+                metrics.getEpoch(),
+                metrics.getEpochLoss()
+            );
+        }
+    }
+
+    @Override
+    public void finished(Metrics metrics) {
+        System.out.println(
+            System.lineSeparator()
+            + "...done"
+            + System.lineSeparator()
+        );
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.model.listener;
+
+import io.github.nearage.jnn.model.Listener;
+import io.github.nearage.jnn.model.Metrics;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * CSV file listener
+ * 
+ * Writes a row with the metrics of each epoch to a CSV file, replacing it
+ * when the training starts. Times are in milliseconds, and the forward and
+ * backward times of every layer follow the totals.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public class CsvFile implements Listener {
+
+    /**
+     * Path of the file
+     */
+    private final Path path;
+
+    /**
+     * Writer of the current training
+     */
+    private BufferedWriter writer;
+
+    /**
+     * Creates a listener writing to the given file
+     * 
+     * @param path path of the file
+     */
+    public CsvFile(String path) {
+        this.path = Path.of(path);
+    }
+
+    @Override
+    public void started(Metrics metrics) throws Exception {
+        this.close();
+        this.writer = Files.newBufferedWriter(this.path);
+
+        StringBuilder header = new StringBuilder(
+            "epoch,loss,samples,ms,samples_per_second,"
+            + "flops,product_ms,gflops,allocated_bytes"
+        );
+
+        for (int l = 0; l < metrics.getLayers(); l++) {
+            header.append(",forward_ms_").append(l);
+        }
+
+        for (int l = 0; l < metrics.getLayers(); l++) {
+            header.append(",backward_ms_").append(l);
+        }
+
+        this.writer.write(header.toString());
+        this.writer.newLine();
+        this.writer.flush();
+    }
+
+    @Override
+    public void epoch(Metrics metrics) throws Exception {
+        StringBuilder row = new StringBuilder();
+
+        row.append(metrics.getEpoch())
+            .append(',').append(metrics.getEpochLoss())
+            .append(',').append(metrics.getEpochSamples())
+            .append(',').append(millis(metrics.getEpochNanos()))
+            .append(',').append(metrics.getSamplesPerSecond())
+            .append(',').append(metrics.getFlops())
+            .append(',').append(millis(metrics.getProductNanos()))
+            .append(',').append(metrics.getGflops())
+            .append(',').append(metrics.getAllocatedBytes());
+
+        for (int l = 0; l < metrics.getLayers(); l++) {
+            row.append(',').append(millis(metrics.getForwardNanos(l)));
+        }
+
+        for (int l = 0; l < metrics.getLayers(); l++) {
+            row.append(',').append(millis(metrics.getBackwardNanos(l)));
+        }
+
+        this.writer.write(row.toString());
+        this.writer.newLine();
+        this.writer.flush();
+    }
+
+    @Override
+    public void finished(Metrics metrics) throws Exception {
+        this.close();
+    }
+
+    /**
+     * Closes the writer of the last training, if it is open
+     */
+    private void close() throws IOException {
+        if (this.writer != null) {
+            this.writer.close();
+            this.writer = null;
+        }
+    }
+
+    /**
+     * Converts nanoseconds to milliseconds
+     */
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
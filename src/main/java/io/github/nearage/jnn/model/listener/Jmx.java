@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.model.listener;
+
+import io.github.nearage.jnn.model.Listener;
+import io.github.nearage.jnn.model.Metrics;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * JMX listener
+ * 
+ * Publishes the metrics of the current training as an MXBean named
+ * io.github.nearage.jnn:type=Training,name=<name> on the platform MBean
+ * server, so tools like JConsole can watch it. The metrics of the last
+ * training stay published until the next one starts.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public class Jmx implements Listener {
+
+    /**
+     * Name of the MXBean
+     */
+    private final ObjectName name;
+
+    /**
+     * Creates a listener publishing the metrics under the given name
+     * 
+     * @param name name of the training
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public Jmx(String name) throws Exception {
+        this.name = new ObjectName(
+            "io.github.nearage.jnn:type=Training,name="
+            + ObjectName.quote(name)
+        );
+    }
+
+    /**
+     * Gets the name of the MXBean
+     * 
+     * @return name of the MXBean
+     */
+    public ObjectName getName() {
+        return this.name;
+    }
+
+    @Override
+    public void started(Metrics metrics) throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        if (server.isRegistered(this.name)) {
+            server.unregisterMBean(this.name);
+        }
+
+        server.registerMBean(metrics, this.name);
+    }
+}
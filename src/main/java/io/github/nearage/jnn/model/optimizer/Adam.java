@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.model.optimizer;
+
+import io.github.nearage.jnn.input.Matrix;
+import io.github.nearage.jnn.processing.Optimizer;
+import io.github.nearage.jnn.util.Kernels;
+import io.github.nearage.jnn.util.Matrices;
+
+/**
+ * Adam, gradient descent with bias-corrected moving averages of the gradient
+ * and of its square, optionally with weight decay added to the gradient
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public class Adam implements Optimizer {
+
+    private final double beta1;
+    private final double beta2;
+    private final double epsilon;
+    private final double decay;
+    private final boolean decoupled;
+
+    /**
+     * Creates an Adam optimizer with beta1 = 0.9, beta2 = 0.999 and
+     * epsilon = 1e-8
+     */
+    public Adam() {
+        this.beta1 = 0.9d;
+        this.beta2 = 0.999d;
+        this.epsilon = 1e-8d;
+        this.decay = 0d;
+        this.decoupled = false;
+    }
+
+    /**
+     * Creates an Adam optimizer
+     * 
+     * @param beta1 decay of the average of the gradient, from 0 included to 1
+     * excluded
+     * @param beta2 decay of the average of the squared gradient, from 0
+     * included to 1 excluded
+     * @param epsilon term added to the root for stability, positive
+     * @param decay weight decay, not negative
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public Adam(
+        double beta1,
+        double beta2,
+        double epsilon,
+        double decay
+    ) throws Exception {
+        this(beta1, beta2, epsilon, decay, false);
+    }
+
+    /**
+     * Creates an Adam optimizer with the decay either added to the gradient or
+     * decoupled from it
+     * 
+     * @param beta1 decay of the average of the gradient
+     * @param beta2 decay of the average of the squared gradient
+     * @param epsilon term added to the root for stability
+     * @param decay weight decay
+     * @param decoupled whether the decay is decoupled from the gradient
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    protected Adam(
+        double beta1,
+        double beta2,
+        double epsilon,
+        double decay,
+        boolean decoupled
+    ) throws Exception {
+        if (
+            !(beta1 >= 0d && beta1 < 1d)
+            || !(beta2 >= 0d && beta2 < 1d)
+            || !(epsilon > 0d)
+            || !(decay >= 0d)
+        ) {
+            throw new Exception(String.format(
+                "Invalid %s, beta1 = %s, beta2 = %s, epsilon = %s and decay = %s",
+                this.getClass().getSimpleName(),
+                beta1,
+                beta2,
+                epsilon,
+                decay
+            ));
+        }
+
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        this.epsilon = epsilon;
+        this.decay = decay;
+        this.decoupled = decoupled;
+    }
+
+    /**
+     * Gets the decay of the average of the gradient
+     * 
+     * @return beta1
+     */
+    public double getBeta1() {
+        return this.beta1;
+    }
+
+    /**
+     * Gets the decay of the average of the squared gradient
+     * 
+     * @return beta2
+     */
+    public double getBeta2() {
+        return this.beta2;
+    }
+
+    /**
+     * Gets the term added to the root for stability
+     * 
+     * @return epsilon
+     */
+    public double getEpsilon() {
+        return this.epsilon;
+    }
+
+    /**
+     * Gets the weight decay
+     * 
+     * @return weight decay
+     */
+    public double getDecay() {
+        return this.decay;
+    }
+
+    @Override
+    public int slots() {
+        return 2;
+    }
+
+    @Override
+    public void update(
+        Matrix parameter,
+        Matrix gradient,
+        Matrix[] state,
+        double learningRate,
+        long step
+    ) throws Exception {
+        double beta1 = this.beta1;
+        double beta2 = this.beta2;
+        double epsilon = this.epsilon;
+        double decay = this.decay;
+        boolean decoupled = this.decoupled;
+
+        // Bias corrections of both averages
+        double c1 = 1d / (1d - Math.pow(beta1, step));
+        double c2 = 1d / Math.sqrt(1d - Math.pow(beta2, step));
+
+        Matrices.update(
+            parameter,
+            gradient,
+            state[0],
+            state[1],
+            (w, g, m, v, from, to) -> Kernels.ACTIVE.adam(
+                w, g, m, v,
+                from, to,
+                learningRate, beta1, beta2, epsilon,
+                c1, c2,
+                decay, decoupled
+            )
+        );
+    }
+}
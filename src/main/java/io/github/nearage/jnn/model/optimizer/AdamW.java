@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.model.optimizer;
+
+/**
+ * AdamW, Adam with the weight decay decoupled from the gradient, so the
+ * parameters shrink by the same fraction regardless of the gradient
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public class AdamW extends Adam {
+
+    /**
+     * Creates an AdamW optimizer with beta1 = 0.9, beta2 = 0.999,
+     * epsilon = 1e-8 and decay = 0.01
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public AdamW() throws Exception {
+        this(0.01d);
+    }
+
+    /**
+     * Creates an AdamW optimizer with the given weight decay
+     * 
+     * @param decay weight decay, not negative
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public AdamW(double decay) throws Exception {
+        this(0.9d, 0.999d, 1e-8d, decay);
+    }
+
+    /**
+     * Creates an AdamW optimizer
+     * 
+     * @param beta1 decay of the average of the gradient, from 0 included to 1
+     * excluded
+     * @param beta2 decay of the average of the squared gradient, from 0
+     * included to 1 excluded
+     * @param epsilon term added to the root for stability, positive
+     * @param decay weight decay, not negative
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public AdamW(
+        double beta1,
+        double beta2,
+        double epsilon,
+        double decay
+    ) throws Exception {
+        super(beta1, beta2, epsilon, decay, true);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.model.optimizer;
+
+import io.github.nearage.jnn.input.Matrix;
+import io.github.nearage.jnn.processing.Optimizer;
+import io.github.nearage.jnn.util.Kernels;
+import io.github.nearage.jnn.util.Matrices;
+
+/**
+ * RMSProp, gradient descent scaled by a moving average of the squared
+ * gradient, optionally with weight decay
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public class RmsProp implements Optimizer {
+
+    private final double rho;
+    private final double epsilon;
+    private final double decay;
+
+    /**
+     * Creates an RMSProp optimizer with rho = 0.9 and epsilon = 1e-8
+     */
+    public RmsProp() {
+        this.rho = 0.9d;
+        this.epsilon = 1e-8d;
+        this.decay = 0d;
+    }
+
+    /**
+     * Creates an RMSProp optimizer
+     * 
+     * @param rho decay of the average, from 0 included to 1 excluded
+     * @param epsilon term added to the root for stability, positive
+     * @param decay weight decay, not negative
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public RmsProp(double rho, double epsilon, double decay) throws Exception {
+        if (
+            !(rho >= 0d && rho < 1d)
+            || !(epsilon > 0d)
+            || !(decay >= 0d)
+        ) {
+            throw new Exception(String.format(
+                "Invalid RMSProp, rho = %s, epsilon = %s and decay = %s",
+                rho,
+                epsilon,
+                decay
+            ));
+        }
+
+        this.rho = rho;
+        this.epsilon = epsilon;
+        this.decay = decay;
+    }
+
+    /**
+     * Gets the decay of the average of the squared gradient
+     * 
+     * @return rho
+     */
+    public double getRho() {
+        return this.rho;
+    }
+
+    /**
+     * Gets the term added to the root for stability
+     * 
+     * @return epsilon
+     */
+    public double getEpsilon() {
+        return this.epsilon;
+    }
+
+    /**
+     * Gets the weight decay
+     * 
+     * @return weight decay
+     */
+    public double getDecay() {
+        return this.decay;
+    }
+
+    @Override
+    public int slots() {
+        return 1;
+    }
+
+    @Override
+    public void update(
+        Matrix parameter,
+        Matrix gradient,
+        Matrix[] state,
+        double learningRate,
+        long step
+    ) throws Exception {
+        double rho = this.rho;
+        double epsilon = this.epsilon;
+        double decay = this.decay;
+
+        Matrices.update(
+            parameter,
+            gradient,
+            state[0],
+            null,
+            (w, g, s, unused, from, to) -> Kernels.ACTIVE.rmsprop(
+                w, g, s,
+                from, to,
+                learningRate, rho, epsilon, decay
+            )
+        );
+    }
+}
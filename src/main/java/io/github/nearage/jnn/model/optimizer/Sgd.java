@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.model.optimizer;
+
+import io.github.nearage.jnn.input.Matrix;
+import io.github.nearage.jnn.processing.Optimizer;
+import io.github.nearage.jnn.util.Kernels;
+import io.github.nearage.jnn.util.Matrices;
+
+/**
+ * Stochastic gradient descent, optionally with momentum, Nesterov momentum
+ * and weight decay
+ * 
+ * Without momentum or decay it is plain gradient descent, the default
+ * optimizer of a model.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public class Sgd implements Optimizer {
+
+    private final double momentum;
+    private final boolean nesterov;
+    private final double decay;
+
+    /**
+     * Creates a plain gradient descent optimizer
+     */
+    public Sgd() {
+        this.momentum = 0d;
+        this.nesterov = false;
+        this.decay = 0d;
+    }
+
+    /**
+     * Creates a gradient descent optimizer with momentum
+     * 
+     * @param momentum momentum, from 0 included to 1 excluded
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public Sgd(double momentum) throws Exception {
+        this(momentum, false, 0d);
+    }
+
+    /**
+     * Creates a gradient descent optimizer with momentum and weight decay
+     * 
+     * @param momentum momentum, from 0 included to 1 excluded
+     * @param nesterov whether to use Nesterov momentum
+     * @param decay weight decay, not negative
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public Sgd(
+        double momentum,
+        boolean nesterov,
+        double decay
+    ) throws Exception {
+        if (!(momentum >= 0d && momentum < 1d) || !(decay >= 0d)) {
+            throw new Exception(String.format(
+                "Invalid SGD, momentum = %s and decay = %s",
+                momentum,
+                decay
+            ));
+        }
+
+        this.momentum = momentum;
+        this.nesterov = nesterov;
+        this.decay = decay;
+    }
+
+    /**
+     * Gets the momentum
+     * 
+     * @return momentum
+     */
+    public double getMomentum() {
+        return this.momentum;
+    }
+
+    /**
+     * Checks whether Nesterov momentum is used
+     * 
+     * @return whether Nesterov momentum is used
+     */
+    public boolean isNesterov() {
+        return this.nesterov;
+    }
+
+    /**
+     * Gets the weight decay
+     * 
+     * @return weight decay
+     */
+    public double getDecay() {
+        return this.decay;
+    }
+
+    @Override
+    public int slots() {
+        return this.momentum > 0d ? 1 : 0;
+    }
+
+    @Override
+    public boolean plain() {
+        return this.momentum == 0d && this.decay == 0d;
+    }
+
+    @Override
+    public void update(
+        Matrix parameter,
+        Matrix gradient,
+        Matrix[] state,
+        double learningRate,
+        long step
+    ) throws Exception {
+        double momentum = this.momentum;
+        boolean nesterov = this.nesterov;
+        double decay = this.decay;
+
+        Matrices.update(
+            parameter,
+            gradient,
+            state.length > 0 ? state[0] : null,
+            null,
+            (w, g, v, unused, from, to) -> Kernels.ACTIVE.sgd(
+                w, g, v,
+                from, to,
+                learningRate, momentum, nesterov, decay
+            )
+        );
+    }
+}
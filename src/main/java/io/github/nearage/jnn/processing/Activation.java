@@ -17,6 +17,10 @@
 package io.github.nearage.jnn.processing;
 
 import io.github.nearage.jnn.input.Matrix;
+import io.github.nearage.jnn.util.Gemm;
+import io.github.nearage.jnn.util.Kernels;
+import io.github.nearage.jnn.util.Matrices;
+import java.util.function.DoubleUnaryOperator;
 
 /**
  * Activation functions
@@ -35,45 +39,125 @@ public interface Activation {
      * @throws Exception a base exception with an error message
      */
     public Matrix apply(Matrix input) throws Exception;
-    
+
     /**
-     * Rectified Linear Unit activation function
+     * Applies the activation function to the given input into the given
+     * matrix
+     * 
+     * @param input input data
+     * @param output activation matrix, may be the input
+     * 
+     * @throws Exception a base exception with an error message
      */
-    public static Activation[] RectifiedLinearUnit = {
-        input -> {
-            Matrix result = new Matrix(input.rows, input.cols);
+    public default void apply(Matrix input, Matrix output) throws Exception {
+        Matrices.copyInto(this.apply(input), output);
+    }
 
-            result.map((i, j) -> Math.max(0d, input.get(i, j)));
+    /**
+     * Gets the epilogue that applies the activation function inside the dot
+     * product kernel, so a layer can fuse it with its product
+     * 
+     * @return the epilogue, or null if the function can not be fused
+     */
+    public default Gemm.Epilogue epilogue() {
+        return null;
+    }
 
-            return result;
-        },
-        input -> {
-            Matrix result = new Matrix(input.rows, input.cols);
+    /**
+     * Activation function applied independently to each element
+     */
+    public static class Elementwise implements Activation {
 
-            result.map((i, j) -> input.get(i, j) > 0d ? 1d : 0d);
+        /**
+         * Function applied to each element
+         */
+        public final DoubleUnaryOperator function;
 
-            return result;
+        /**
+         * Kernel applying the function to ranges of elements
+         */
+        public final Kernels.Unary kernel;
+
+        /**
+         * Epilogue applying the function to each element
+         */
+        private final Gemm.Epilogue epilogue;
+
+        /**
+         * Creates an element-wise activation function
+         * 
+         * @param function function applied to each element
+         */
+        public Elementwise(DoubleUnaryOperator function) {
+            this(function, (x, y, from, to) -> {
+                for (int s = from; s < to; s++) {
+                    y[s] = function.applyAsDouble(x[s]);
+                }
+            });
         }
-    };
 
-    /**
-     * Sigmoid activation function
-     */
-    public static Activation[] Sigmoid = {
-        input -> {
-            Matrix result = new Matrix(input.rows, input.cols);
+        /**
+         * Creates an element-wise activation function with a specialized
+         * kernel
+         * 
+         * @param function function applied to each element
+         * @param kernel kernel applying the function to ranges of elements
+         */
+        public Elementwise(DoubleUnaryOperator function, Kernels.Unary kernel) {
+            this.function = function;
+            this.kernel = kernel;
+            this.epilogue = (c, offset, rows, cols, ldc) -> {
+                // Contiguous rows, such as narrow products, in a single range
+                if (ldc == cols) {
+                    kernel.apply(c, c, offset, offset + rows * cols);
+                    return;
+                }
 
-            result.map((i, j) -> 1d / (1d + Math.exp(-input.get(i, j))));
+                for (int i = 0; i < rows; i++) {
+                    int row = offset + i * ldc;
 
-            return result;
-        },
-        input -> {
+                    kernel.apply(c, c, row, row + cols);
+                }
+            };
+        }
+
+        @Override
+        public Gemm.Epilogue epilogue() {
+            return this.epilogue;
+        }
+
+        @Override
+        public Matrix apply(Matrix input) throws Exception {
             Matrix result = new Matrix(input.rows, input.cols);
 
-            result.map((i, j) -> input.get(i, j) * (1 - input.get(i, j)));
+            this.apply(input, result);
 
             return result;
         }
+
+        @Override
+        public void apply(Matrix input, Matrix output) throws Exception {
+            Matrices.applyInto(input, this.kernel, output);
+        }
+    }
+    
+    /**
+     * Rectified Linear Unit activation function
+     */
+    public static Activation[] RectifiedLinearUnit = {
+        new Elementwise(x -> Math.max(0d, x), Kernels.ACTIVE::relu),
+        new Elementwise(x -> x > 0d ? 1d : 0d, Kernels.ACTIVE::reluDerivative)
+    };
+
+    /**
+     * Sigmoid activation function
+     */
+    public static Activation[] Sigmoid = {
+        new Elementwise(
+            x -> 1d / (1d + Math.exp(-x)),
+            Kernels.ACTIVE::sigmoid
+        ),
+        new Elementwise(x -> x * (1 - x), Kernels.ACTIVE::sigmoidDerivative)
     };
 
     /**
@@ -82,19 +166,108 @@ public interface Activation {
      * TODO: Softmax propagation
      */
     public static Activation[] Softmax = {
-        input -> {
-            Matrix max = input.reduce(0, Double.MIN_VALUE, (y, x) -> Math.max(y, x));
+        new Activation() {
+            @Override
+            public Matrix apply(Matrix input) throws Exception {
+                Matrix exp = new Matrix(input.rows, input.cols);
+
+                this.apply(input, exp);
+
+                return exp;
+            }
+
+            @Override
+            public void apply(Matrix input, Matrix output) throws Exception {
+                if (output.rows != input.rows || output.cols != input.cols) {
+                    throw new Exception(String.format(
+                        "Shape mismatch in softmax, input = (%d, %d) and output = (%d, %d)",
+                        input.rows,
+                        input.cols,
+                        output.rows,
+                        output.cols
+                    ));
+                }
 
-            Matrix exp = new Matrix(input.rows, input.cols);
+                if (!input.isHeap() || !output.isHeap()) {
+                    Matrix heap = new Matrix(input.rows, input.cols);
 
-            exp.map((i, j) -> Math.exp(input.get(i, j) - max.get(i, 0)));
+                    Matrices.copyInto(input, heap);
+                    this.apply(heap, heap);
+                    Matrices.copyInto(heap, output);
 
-            Matrix sum = exp.reduce(0, 0d, (y, x) -> y + x);
+                    return;
+                }
 
-            exp.map((i, j) -> exp.get(i, j) / sum.get(i, 0));
+                softmax(
+                    input.array(), output.array(),
+                    0, input.rows, input.cols, input.cols
+                );
+            }
 
-            return exp;
+            /**
+             * Epilogue applying the function to complete rows
+             */
+            private final Gemm.Epilogue epilogue = new Gemm.Epilogue() {
+                @Override
+                public void apply(
+                    double[] c,
+                    int offset,
+                    int rows,
+                    int cols,
+                    int ldc
+                ) {
+                    softmax(c, c, offset, rows, cols, ldc);
+                }
+
+                @Override
+                public boolean rows() {
+                    return true;
+                }
+            };
+
+            @Override
+            public Gemm.Epilogue epilogue() {
+                return this.epilogue;
+            }
         },
         Activation.RectifiedLinearUnit[1]
     };
+
+    /**
+     * Applies the softmax function to each row of a region of x into y
+     * 
+     * @param x input data
+     * @param y output data, may be the input
+     * @param offset offset of the region
+     * @param rows rows of the region
+     * @param cols cols of the region
+     * @param ld row stride of both arrays
+     */
+    private static void softmax(
+        double[] x,
+        double[] y,
+        int offset,
+        int rows,
+        int cols,
+        int ld
+    ) {
+        for (int i = 0; i < rows; i++) {
+            int row = offset + i * ld;
+            double max = Double.MIN_VALUE;
+            double sum = 0d;
+
+            for (int j = row; j < row + cols; j++) {
+                max = Math.max(max, x[j]);
+            }
+
+            for (int j = row; j < row + cols; j++) {
+                y[j] = Math.exp(x[j] - max);
+                sum += y[j];
+            }
+
+            for (int j = row; j < row + cols; j++) {
+                y[j] /= sum;
+            }
+        }
+    }
 }
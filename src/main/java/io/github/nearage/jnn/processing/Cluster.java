@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.processing;
+
+/**
+ * Cluster
+ * 
+ * Group of processes training a model together, each one on its own share of
+ * the data. Members exchange the gradients of every step, so they all apply
+ * the same correction and their parameters stay the same.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public interface Cluster {
+
+    /**
+     * Gets the index of this member, from 0
+     * 
+     * @return index of this member
+     */
+    public int rank();
+
+    /**
+     * Gets the number of members
+     * 
+     * @return number of members
+     */
+    public int size();
+
+    /**
+     * Sums the given values across every member in place. Every member calls
+     * it with as many values and gets the same result.
+     * 
+     * @param values values of this member, overwritten with the sum
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public void sum(double[] values) throws Exception;
+
+    /**
+     * Copies the values of the first member to every other member in place.
+     * Every member calls it with as many values.
+     * 
+     * @param values values, overwritten with the ones of the first member
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public void broadcast(double[] values) throws Exception;
+}
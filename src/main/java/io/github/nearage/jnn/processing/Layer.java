@@ -17,6 +17,7 @@
 package io.github.nearage.jnn.processing;
 
 import io.github.nearage.jnn.input.Matrix;
+import io.github.nearage.jnn.util.Matrices;
 
 
 /**
@@ -45,6 +46,18 @@ public abstract class Layer {
      * @throws Exception a base exception with an error message
      */
     public abstract Matrix activate(Matrix input) throws Exception;
+
+    /**
+     * Activates the layer for the given input into the given matrix
+     * 
+     * @param input input data
+     * @param output activation of the layer
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public void activate(Matrix input, Matrix output) throws Exception {
+        Matrices.copyInto(this.activate(input), output);
+    }
     
     /**
      * Propagates the activation of the layer for the given input
@@ -56,4 +69,147 @@ public abstract class Layer {
      * @throws Exception a base exception with an error message
      */
     public abstract Matrix propagate(Matrix input) throws Exception;
+
+    /**
+     * Propagates the activation of the layer for the given input into the
+     * given matrix
+     * 
+     * @param input input data
+     * @param output propagation of the layer
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public void propagate(Matrix input, Matrix output) throws Exception {
+        Matrices.copyInto(this.propagate(input), output);
+    }
+
+    /**
+     * Gets the output of the layer for the given input as a view of it, for
+     * layers that only reshape their input
+     * 
+     * @param input input data
+     * 
+     * @return the view, or null if the layer computes its output
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public Matrix view(Matrix input) throws Exception {
+        return null;
+    }
+
+    /**
+     * Gets the deltas of the input of the layer as a view of the deltas of its
+     * output, for layers whose output is a {@link #view} of their input
+     * 
+     * @param delta deltas of the output
+     * 
+     * @return the view, or null if the layer computes its output
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public Matrix viewDelta(Matrix delta) throws Exception {
+        return null;
+    }
+
+    /**
+     * Propagates the deltas of the output of the layer back to its input,
+     * before the derivative of the activation of the previous layer is
+     * applied
+     * 
+     * @param input input of the layer
+     * @param delta deltas of the output
+     * @param output deltas of the input
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public void backward(
+        Matrix input,
+        Matrix delta,
+        Matrix output
+    ) throws Exception {
+        throw new Exception(String.format(
+            "%s can not be trained",
+            this.getClass().getSimpleName()
+        ));
+    }
+
+    /**
+     * Computes the gradients of the parameters of the layer from the deltas of
+     * its output
+     * 
+     * @param input input of the layer
+     * @param delta deltas of the output
+     * @param weights buffer for the weights gradient, with the shape of the
+     * weights
+     * @param biases buffer for the biases gradient, with the shape of the
+     * biases
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public void gradient(
+        Matrix input,
+        Matrix delta,
+        Matrix weights,
+        Matrix biases
+    ) throws Exception {
+        throw new Exception(String.format(
+            "%s can not be trained",
+            this.getClass().getSimpleName()
+        ));
+    }
+
+    /**
+     * Corrects the parameters of the layer from the deltas of its output by
+     * plain gradient descent, by default computing both gradients with
+     * {@link #gradient}
+     * 
+     * @param input input of the layer
+     * @param delta deltas of the output
+     * @param weights buffer for the weights gradient, with the shape of the
+     * weights, or null if the layer has none
+     * @param biases buffer for the biases gradient, with the shape of the
+     * biases, or null if the layer has none
+     * @param learningRate learning rate
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public void update(
+        Matrix input,
+        Matrix delta,
+        Matrix weights,
+        Matrix biases,
+        double learningRate
+    ) throws Exception {
+        this.gradient(input, delta, weights, biases);
+
+        Matrices.axpy(-learningRate, weights, this.weights);
+        Matrices.axpy(-learningRate, biases, this.biases);
+    }
+
+    /**
+     * Builds the parameters of the layer for the given number of input cols,
+     * if they are not built yet
+     * 
+     * @param inputs number of input cols
+     * 
+     * @return the number of output cols
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public abstract int build(int inputs) throws Exception;
+
+    /**
+     * Gets the number of parameters of the layer
+     * 
+     * @return number of parameters
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public int params() throws Exception {
+        if (this.weights == null) {
+            throw new Exception("Model not built");
+        }
+
+        return this.weights.size + this.biases.size;
+    }
 }
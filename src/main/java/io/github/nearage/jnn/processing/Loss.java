@@ -37,22 +37,67 @@ public interface Loss {
      */
     public Matrix apply(Matrix input, Matrix target) throws Exception;
 
+    /**
+     * Applies the loss function to the given input into the given matrix
+     * 
+     * @param input input data
+     * @param target target data
+     * @param output loss matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public default void apply(
+        Matrix input,
+        Matrix target,
+        Matrix output
+    ) throws Exception {
+        Matrices.copyInto(this.apply(input, target), output);
+    }
+
     /**
      * Mean Squared Error loss function
      */
     public static Loss[] MeanSquaredError = {
         (input, target) -> {
-            Matrix result = new Matrix(input.rows, input.cols);
+            Matrix result = new Matrix(1, 1);
+
+            if (!input.isHeap() || !target.isHeap()) {
+                Matrix d = Matrices.sub(input, target);
+
+                Matrices.mulInto(d, d, d);
+                result.set(0, 0, d.sum() / input.size);
+
+                return result;
+            }
 
-            result.map((i, j) -> Math.pow(input.get(i, j) - target.get(i, j), 2));
+            double[] x = input.array();
+            double[] y = target.array();
+            double sum = 0d;
 
-            result = result.reduce(0, 0, (y, x) -> y + x);
-            result = result.reduce(1, 0, (y, x) -> y + x);
-            
-            result.apply(x -> x / input.size);
+            for (int s = 0; s < input.size; s++) {
+                double d = x[s] - y[s];
+
+                sum += d * d;
+            }
+
+            result.set(0, 0, sum / input.size);
 
             return result;
         },
-        (input, target) -> Matrices.sub(input, target)
+        new Loss() {
+            @Override
+            public Matrix apply(Matrix input, Matrix target) throws Exception {
+                return Matrices.sub(input, target);
+            }
+
+            @Override
+            public void apply(
+                Matrix input,
+                Matrix target,
+                Matrix output
+            ) throws Exception {
+                Matrices.subInto(input, target, output);
+            }
+        }
     };
 }
@@ -16,7 +16,12 @@
  */
 package io.github.nearage.jnn.processing;
 
+import io.github.nearage.jnn.input.Batch;
+import io.github.nearage.jnn.input.Dataset;
 import io.github.nearage.jnn.input.Matrix;
+import io.github.nearage.jnn.input.Precision;
+import io.github.nearage.jnn.util.Matrices;
+import io.github.nearage.jnn.util.Parallel;
 
 /**
  * Model
@@ -30,6 +35,17 @@ public abstract class Model {
      */
     public final Layer[] layers;
 
+    /**
+     * Number of threads used by the kernels of the model, 0 uses the global
+     * setting of {@link Parallel}
+     */
+    protected int parallelism;
+
+    /**
+     * Precision of the parameters of the model
+     */
+    protected Precision precision = Precision.FLOAT64;
+
     /**
      * Creates a model with the given layers
      * 
@@ -39,6 +55,81 @@ public abstract class Model {
         this.layers = layers;
     }
 
+    /**
+     * Sets the number of threads used by the kernels of the model
+     * 
+     * @param threads number of threads, 0 uses the global setting
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public void setParallelism(int threads) throws Exception {
+        if (threads < 0) {
+            throw new Exception(String.format(
+                "Invalid parallelism, threads = %d",
+                threads
+            ));
+        }
+
+        this.parallelism = threads;
+    }
+
+    /**
+     * Sets the precision the parameters of the model are stored in,
+     * converting the ones already built. Activations and gradients are kept
+     * in double precision.
+     * 
+     * @param precision precision of the parameters
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public void setPrecision(Precision precision) throws Exception {
+        this.precision = precision;
+        this.convert();
+    }
+
+    /**
+     * Gets the precision of the parameters of the model
+     * 
+     * @return precision of the parameters
+     */
+    public Precision getPrecision() {
+        return this.precision;
+    }
+
+    /**
+     * Converts the built parameters of every layer to the precision of the
+     * model, if they are in another one
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    protected void convert() throws Exception {
+        for (Layer layer : this.layers) {
+            layer.weights = this.convert(layer.weights);
+            layer.biases = this.convert(layer.biases);
+        }
+    }
+
+    /**
+     * Converts a matrix to the precision of the model
+     * 
+     * @param matrix matrix to convert, may be null
+     * 
+     * @return the converted matrix, or the same one if there is nothing to
+     * convert
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private Matrix convert(Matrix matrix) throws Exception {
+        if (matrix == null || matrix.precision() == this.precision) {
+            return matrix;
+        }
+
+        Matrix result = this.precision.matrix(matrix.rows, matrix.cols);
+        Matrices.copyInto(matrix, result);
+
+        return result;
+    }
+
     /**
      * Generates an activation for each layer of the model
      * 
@@ -61,6 +152,17 @@ public abstract class Model {
      */
     public abstract Matrix predict(Matrix input) throws Exception;
 
+    /**
+     * Generates output predictions for the input samples into the given
+     * matrix
+     * 
+     * @param input input samples
+     * @param output predictions
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public abstract void predict(Matrix input, Matrix output) throws Exception;
+
     /**
      * Trains the model for a fixed number of epochs
      * 
@@ -80,6 +182,43 @@ public abstract class Model {
         double learningRate
     ) throws Exception;
     
+    /**
+     * Trains the model for a fixed number of epochs over the mini-batches of a
+     * dataset, visiting the batches in a new random order every epoch
+     * 
+     * @param epochs number of epochs to train
+     * @param dataset dataset with the mini-batches
+     * @param loss loss function
+     * @param learningRate learing rate
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public abstract void train(
+        int epochs,
+        Dataset dataset,
+        Loss[] loss,
+        double learningRate
+    ) throws Exception;
+    
+    /**
+     * Trains the model for a fixed number of epochs, each one over a new
+     * iteration of the given batches, such as a
+     * {@link io.github.nearage.jnn.input.DatasetStream}
+     * 
+     * @param epochs number of epochs to train
+     * @param batches batches, iterated once per epoch
+     * @param loss loss function
+     * @param learningRate learing rate
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public abstract void train(
+        int epochs,
+        Iterable<Batch> batches,
+        Loss[] loss,
+        double learningRate
+    ) throws Exception;
+    
     /**
      * Prints a string summary of the model
      * 
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.processing;
+
+import io.github.nearage.jnn.input.Matrix;
+
+/**
+ * Optimizer
+ * 
+ * Corrects the parameters of a model from their gradients. The state kept for
+ * each parameter, such as its momentum, is held in matrices of the shape of
+ * the parameter, allocated once by the model and given to every correction.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public interface Optimizer {
+
+    /**
+     * Gets the number of state matrices kept for each parameter
+     * 
+     * @return number of state matrices
+     */
+    public int slots();
+
+    /**
+     * Checks whether the optimizer is plain gradient descent, which layers
+     * apply directly from the deltas of their output, see
+     * {@link Layer#update}
+     * 
+     * @return whether the optimizer is plain gradient descent
+     */
+    public default boolean plain() {
+        return false;
+    }
+
+    /**
+     * Corrects a parameter in place from its gradient
+     * 
+     * @param parameter parameter, corrected in place
+     * @param gradient gradient of the parameter
+     * @param state state of the parameter, as many matrices as slots with the
+     * shape of the parameter, updated in place
+     * @param learningRate learning rate
+     * @param step number of the correction, from 1
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public void update(
+        Matrix parameter,
+        Matrix gradient,
+        Matrix[] state,
+        double learningRate,
+        long step
+    ) throws Exception;
+}
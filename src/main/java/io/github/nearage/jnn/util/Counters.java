@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the products of matrices
+ * 
+ * While counting is enabled every product of {@link Matrices} adds its
+ * floating point operations and the time it takes to counters shared by all
+ * threads, so the achieved GFLOP/s can be measured. While disabled a product
+ * only reads a volatile field. Counting stays enabled until every caller that
+ * enabled it disables it.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public final class Counters {
+
+    /**
+     * Start of a product that is not counted
+     */
+    private static final long NONE = Long.MIN_VALUE;
+
+    /**
+     * Number of callers counting
+     */
+    private static final AtomicInteger USERS = new AtomicInteger();
+
+    /**
+     * Number of products counted
+     */
+    private static final LongAdder PRODUCTS = new LongAdder();
+
+    /**
+     * Floating point operations of the products counted
+     */
+    private static final LongAdder FLOPS = new LongAdder();
+
+    /**
+     * Nanoseconds spent in the products counted
+     */
+    private static final LongAdder NANOS = new LongAdder();
+
+    private Counters() {
+    }
+
+    /**
+     * Enables counting until a matching call to {@link #disable}
+     */
+    public static void enable() {
+        USERS.incrementAndGet();
+    }
+
+    /**
+     * Disables counting, if no other caller keeps it enabled
+     */
+    public static void disable() {
+        USERS.updateAndGet(users -> Math.max(0, users - 1));
+    }
+
+    /**
+     * Checks whether products are being counted
+     * 
+     * @return whether counting is enabled
+     */
+    public static boolean isEnabled() {
+        return USERS.get() > 0;
+    }
+
+    /**
+     * Gets the number of products counted
+     * 
+     * @return number of products
+     */
+    public static long products() {
+        return PRODUCTS.sum();
+    }
+
+    /**
+     * Gets the floating point operations of the products counted
+     * 
+     * @return floating point operations
+     */
+    public static long flops() {
+        return FLOPS.sum();
+    }
+
+    /**
+     * Gets the time spent in the products counted
+     * 
+     * @return nanoseconds
+     */
+    public static long nanos() {
+        return NANOS.sum();
+    }
+
+    /**
+     * Resets every counter to zero
+     */
+    public static void reset() {
+        PRODUCTS.reset();
+        FLOPS.reset();
+        NANOS.reset();
+    }
+
+    /**
+     * Starts timing a product
+     * 
+     * @return start of the product, to be given to {@link #count}
+     */
+    static long start() {
+        return USERS.get() > 0 ? System.nanoTime() : NONE;
+    }
+
+    /**
+     * Counts a product started by {@link #start}, if counting was enabled
+     * when it started
+     * 
+     * @param start start of the product
+     * @param flops floating point operations of the product
+     */
+    static void count(long start, long flops) {
+        if (start == NONE) {
+            return;
+        }
+
+        NANOS.add(System.nanoTime() - start);
+        FLOPS.add(flops);
+        PRODUCTS.increment();
+    }
+}
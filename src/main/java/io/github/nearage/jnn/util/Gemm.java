@@ -0,0 +1,683 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.util;
+
+import io.github.nearage.jnn.input.Storage;
+import java.util.Arrays;
+
+/**
+ * General matrix multiplication engine
+ *
+ * Computes C = A * B over raw arrays. Operands are addressed by an offset, a
+ * row stride and a col stride, so any strided layout can be multiplied. The
+ * product is blocked for the caches, panels of B are packed into contiguous
+ * memory and C is accumulated in register tiles of {@link #MR} x {@link #NR}
+ * computed by the active {@link Kernels}. Large products are split
+ * across the threads of {@link Parallel} by row blocks of A and slivers of B,
+ * the reduction over k always runs in the same order.
+ *
+ * @author Nearage <https://github.com/Nearage>
+ */
+public final class Gemm {
+
+    /**
+     * Rows of a register tile
+     */
+    public static final int MR = 4;
+
+    /**
+     * Cols of a register tile, given by the active {@link Kernels}
+     */
+    public static final int NR = Kernels.ACTIVE.cols();
+
+    /**
+     * Rows of A multiplied against a packed panel (L2 block)
+     */
+    public static final int MC = 64;
+
+    /**
+     * Depth of a packed panel (L1 block)
+     */
+    public static final int KC = 256;
+
+    /**
+     * Cols of a packed panel (L3 block)
+     */
+    public static final int NC = 1024;
+
+    /**
+     * Products with fewer multiply-adds than this skip packing
+     */
+    public static final int SMALL = 32 * 32 * 32;
+
+    /**
+     * Packing buffer of the current thread
+     */
+    private static final ThreadLocal<double[]> PANEL = ThreadLocal.withInitial(
+        () -> new double[0]
+    );
+
+    /**
+     * Row buffer of the current thread, for packing B from a storage
+     */
+    private static final ThreadLocal<double[]> ROW = ThreadLocal.withInitial(
+        () -> new double[0]
+    );
+
+    /**
+     * Register tile of the current thread, for tiles at the right edge of C
+     */
+    private static final ThreadLocal<double[]> TILE = ThreadLocal.withInitial(
+        () -> new double[MR * NR]
+    );
+
+    private Gemm() {
+    }
+
+    /**
+     * Operation applied to regions of C once their product is complete
+     */
+    public interface Epilogue {
+
+        /**
+         * Applies the operation to a region of C
+         *
+         * @param c data of C
+         * @param offset offset of the region
+         * @param rows rows of the region
+         * @param cols cols of the region
+         * @param ldc row stride of C
+         */
+        public void apply(double[] c, int offset, int rows, int cols, int ldc);
+
+        /**
+         * Whether the operation needs complete rows of C, otherwise it is
+         * applied to each register tile as soon as it is stored
+         *
+         * @return true if the operation works on complete rows
+         */
+        public default boolean rows() {
+            return false;
+        }
+    }
+
+    /**
+     * Multiplies A (m x k) by B (k x n) into C (m x n)
+     *
+     * @param m rows of A and C
+     * @param n cols of B and C
+     * @param k cols of A and rows of B
+     * @param a data of A
+     * @param aOff offset of A
+     * @param rsa row stride of A
+     * @param csa col stride of A
+     * @param b data of B
+     * @param bOff offset of B
+     * @param rsb row stride of B
+     * @param csb col stride of B
+     * @param c data of C
+     * @param cOff offset of C
+     * @param ldc row stride of C
+     * @param accumulate whether to add the product to C instead of
+     * overwriting it
+     */
+    public static void multiply(
+        int m, int n, int k,
+        double[] a, int aOff, int rsa, int csa,
+        double[] b, int bOff, int rsb, int csb,
+        double[] c, int cOff, int ldc,
+        boolean accumulate
+    ) {
+        run(
+            m, n, k,
+            a, aOff, rsa, csa,
+            b, null, bOff, rsb, csb,
+            c, cOff, ldc,
+            accumulate, null, null
+        );
+    }
+
+    /**
+     * Multiplies A (m x k) by B (k x n) into C (m x n), with B in a storage of
+     * any precision, which is only read to pack it
+     *
+     * @param m rows of A and C
+     * @param n cols of B and C
+     * @param k cols of A and rows of B
+     * @param a data of A
+     * @param aOff offset of A
+     * @param rsa row stride of A
+     * @param csa col stride of A
+     * @param b data of B
+     * @param bOff offset of B
+     * @param rsb row stride of B
+     * @param csb col stride of B
+     * @param c data of C
+     * @param cOff offset of C
+     * @param ldc row stride of C
+     * @param accumulate whether to add the product to C instead of
+     * overwriting it
+     */
+    public static void multiply(
+        int m, int n, int k,
+        double[] a, int aOff, int rsa, int csa,
+        Storage b, int bOff, int rsb, int csb,
+        double[] c, int cOff, int ldc,
+        boolean accumulate
+    ) {
+        run(
+            m, n, k,
+            a, aOff, rsa, csa,
+            null, b, bOff, rsb, csb,
+            c, cOff, ldc,
+            accumulate, null, null
+        );
+    }
+
+    /**
+     * Multiplies A (m x k) by B (k x n), adds a bias row and applies an
+     * epilogue into C (m x n), without extra passes over C
+     *
+     * The bias initializes the accumulators and the epilogue runs on each tile
+     * while it is still in cache, or on each block of complete rows for
+     * epilogues that need them.
+     *
+     * @param m rows of A and C
+     * @param n cols of B and C
+     * @param k cols of A and rows of B
+     * @param a data of A
+     * @param aOff offset of A
+     * @param rsa row stride of A
+     * @param csa col stride of A
+     * @param b data of B
+     * @param bOff offset of B
+     * @param rsb row stride of B
+     * @param csb col stride of B
+     * @param c data of C
+     * @param cOff offset of C
+     * @param ldc row stride of C
+     * @param bias bias for each col of C, or null
+     * @param epilogue epilogue, or null
+     */
+    public static void fused(
+        int m, int n, int k,
+        double[] a, int aOff, int rsa, int csa,
+        double[] b, int bOff, int rsb, int csb,
+        double[] c, int cOff, int ldc,
+        double[] bias, Epilogue epilogue
+    ) {
+        run(
+            m, n, k,
+            a, aOff, rsa, csa,
+            b, null, bOff, rsb, csb,
+            c, cOff, ldc,
+            false, bias, epilogue
+        );
+    }
+
+    /**
+     * Multiplies A (m x k) by B (k x n), adds a bias row and applies an
+     * epilogue into C (m x n), with B in a storage of any precision, see
+     * {@link #fused}
+     *
+     * @param m rows of A and C
+     * @param n cols of B and C
+     * @param k cols of A and rows of B
+     * @param a data of A
+     * @param aOff offset of A
+     * @param rsa row stride of A
+     * @param csa col stride of A
+     * @param b data of B
+     * @param bOff offset of B
+     * @param rsb row stride of B
+     * @param csb col stride of B
+     * @param c data of C
+     * @param cOff offset of C
+     * @param ldc row stride of C
+     * @param bias bias for each col of C, or null
+     * @param epilogue epilogue, or null
+     */
+    public static void fused(
+        int m, int n, int k,
+        double[] a, int aOff, int rsa, int csa,
+        Storage b, int bOff, int rsb, int csb,
+        double[] c, int cOff, int ldc,
+        double[] bias, Epilogue epilogue
+    ) {
+        run(
+            m, n, k,
+            a, aOff, rsa, csa,
+            null, b, bOff, rsb, csb,
+            c, cOff, ldc,
+            false, bias, epilogue
+        );
+    }
+
+    /**
+     * Runs a product, see {@link #fused}, with B either in an array or in a
+     * storage
+     */
+    private static void run(
+        int m, int n, int k,
+        double[] a, int aOff, int rsa, int csa,
+        double[] b, Storage bb, int bOff, int rsb, int csb,
+        double[] c, int cOff, int ldc,
+        boolean accumulate, double[] bias, Epilogue epilogue
+    ) {
+        if (m == 0 || n == 0) {
+            return;
+        }
+
+        if (k == 0 || (bb == null && (long) m * n * k < SMALL)) {
+            small(
+                m, n, k,
+                a, aOff, rsa, csa,
+                b, bOff, rsb, csb,
+                c, cOff, ldc,
+                accumulate, bias, epilogue
+            );
+            return;
+        }
+
+        // Fewer rows of A than a register tile are multiplied by the rows of
+        // B in place, packing B would read all of it for a single use
+        if (bb == null && csb == 1 && m < MR) {
+            thin(
+                m, n, k,
+                a, aOff, rsa, csa,
+                b, bOff, rsb,
+                c, cOff, ldc,
+                accumulate, bias, epilogue
+            );
+            return;
+        }
+
+        // Tile epilogues run inside the kernels, row epilogues after each
+        // block of complete rows, or after the whole product if a block can
+        // not hold complete rows
+        Epilogue tiles = epilogue != null && !epilogue.rows() ? epilogue : null;
+        Epilogue rows = epilogue != null && epilogue.rows() ? epilogue : null;
+
+        int threads = Parallel.getParallelism();
+        int blocks = (m + MC - 1) / MC;
+        boolean parallel = threads > 1 && (long) m * n * k >= Parallel.THRESHOLD;
+        boolean pending = rows != null;
+
+        int kcMax = Math.min(KC, k);
+        int ncMax = Math.min(NC, n);
+        double[] panel = panel(kcMax * round(ncMax));
+
+        for (int jc = 0; jc < n; jc += NC) {
+            int nc = Math.min(NC, n - jc);
+
+            for (int pc = 0; pc < k; pc += KC) {
+                int kc = Math.min(KC, k - pc);
+                boolean first = pc == 0 && !accumulate;
+                boolean last = pc + kc == k;
+                Epilogue tile = last ? tiles : null;
+                double[] row = first ? bias : null;
+
+                if (bb == null) {
+                    pack(kc, nc, b, bOff + pc * rsb + jc * csb, rsb, csb, panel);
+                } else {
+                    pack(kc, nc, bb, bOff + pc * rsb + jc * csb, rsb, csb, panel);
+                }
+
+                if (!parallel) {
+                    Epilogue block = last && nc == n ? rows : null;
+
+                    for (int ic = 0; ic < m; ic += MC) {
+                        int mc = Math.min(MC, m - ic);
+                        int cp = cOff + ic * ldc + jc;
+
+                        macro(
+                            mc, nc, kc,
+                            a, aOff + ic * rsa + pc * csa, rsa, csa,
+                            panel, 0,
+                            c, cp, ldc,
+                            first, row, jc, tile
+                        );
+
+                        if (block != null) {
+                            block.apply(c, cp, mc, nc, ldc);
+                        }
+                    }
+
+                    pending &= block == null;
+                    continue;
+                }
+
+                // Split the block into row blocks of A and, when there are
+                // fewer of them than threads, into groups of slivers of B
+                int slivers = (nc + NR - 1) / NR;
+                int chunks = Math.min(
+                    slivers,
+                    Math.max(1, (threads + blocks - 1) / blocks)
+                );
+                int aBase = aOff + pc * csa;
+                int cBase = cOff + jc;
+                int col = jc;
+                Epilogue block = last && nc == n && chunks == 1 ? rows : null;
+
+                Parallel.forRange(0, blocks * chunks, 1, (from, to) -> {
+                    for (int t = from; t < to; t++) {
+                        int ic = t / chunks * MC;
+                        int mc = Math.min(MC, m - ic);
+                        int s0 = slivers * (t % chunks) / chunks;
+                        int s1 = slivers * (t % chunks + 1) / chunks;
+                        int jr = s0 * NR;
+                        int cp = cBase + ic * ldc + jr;
+
+                        macro(
+                            mc, Math.min(nc, s1 * NR) - jr, kc,
+                            a, aBase + ic * rsa, rsa, csa,
+                            panel, jr * kc,
+                            c, cp, ldc,
+                            first, row, col + jr, tile
+                        );
+
+                        if (block != null) {
+                            block.apply(c, cp, mc, nc, ldc);
+                        }
+                    }
+                });
+
+                pending &= block == null;
+            }
+        }
+
+        if (pending) {
+            Parallel.forRange(0, blocks, 1, (from, to) -> {
+                for (int ic = from * MC; ic < Math.min(m, to * MC); ic += MC) {
+                    rows.apply(c, cOff + ic * ldc, Math.min(MC, m - ic), n, ldc);
+                }
+            });
+        }
+    }
+
+    /**
+     * Multiplies small operands with a plain i-k-j loop, which streams rows of
+     * B and C and needs no packing
+     */
+    private static void small(
+        int m, int n, int k,
+        double[] a, int aOff, int rsa, int csa,
+        double[] b, int bOff, int rsb, int csb,
+        double[] c, int cOff, int ldc,
+        boolean accumulate, double[] bias, Epilogue epilogue
+    ) {
+        for (int i = 0; i < m; i++) {
+            int ci = cOff + i * ldc;
+
+            if (!accumulate) {
+                for (int j = 0; j < n; j++) {
+                    c[ci + j] = bias == null ? 0d : bias[j];
+                }
+            }
+
+            for (int p = 0; p < k; p++) {
+                double aip = a[aOff + i * rsa + p * csa];
+                int bp = bOff + p * rsb;
+
+                for (int j = 0; j < n; j++) {
+                    c[ci + j] += aip * b[bp + j * csb];
+                }
+            }
+
+            if (epilogue != null) {
+                epilogue.apply(c, ci, 1, n, ldc);
+            }
+        }
+    }
+
+    /**
+     * Multiplies a few rows of A by B stored by rows, adding each row of B
+     * scaled by an element of A to each row of C, split into ranges of cols
+     * for large products
+     */
+    private static void thin(
+        int m, int n, int k,
+        double[] a, int aOff, int rsa, int csa,
+        double[] b, int bOff, int rsb,
+        double[] c, int cOff, int ldc,
+        boolean accumulate, double[] bias, Epilogue epilogue
+    ) {
+        int grain = (int) Math.max(NR, Parallel.THRESHOLD / ((long) m * k));
+
+        Parallel.forRange(0, n, grain, (from, to) -> {
+            for (int i = 0; !accumulate && i < m; i++) {
+                int ci = cOff + i * ldc;
+
+                if (bias == null) {
+                    Arrays.fill(c, ci + from, ci + to, 0d);
+                } else {
+                    System.arraycopy(bias, from, c, ci + from, to - from);
+                }
+            }
+
+            // Each row of B is read once for every row of A
+            for (int p = 0; p < k; p++) {
+                for (int i = 0; i < m; i++) {
+                    Kernels.ACTIVE.axpy(
+                        a[aOff + i * rsa + p * csa],
+                        b, bOff + p * rsb + from,
+                        c, cOff + i * ldc + from,
+                        to - from
+                    );
+                }
+            }
+        });
+
+        if (epilogue != null) {
+            for (int i = 0; i < m; i++) {
+                epilogue.apply(c, cOff + i * ldc, 1, n, ldc);
+            }
+        }
+    }
+
+    /**
+     * Packs a kc x nc block of B into slivers of NR cols, each one stored row
+     * by row, padding the last sliver with zeros
+     */
+    private static void pack(
+        int kc, int nc,
+        double[] b, int bOff, int rsb, int csb,
+        double[] panel
+    ) {
+        int dst = 0;
+
+        for (int jr = 0; jr < nc; jr += NR) {
+            int nr = Math.min(NR, nc - jr);
+            int src = bOff + jr * csb;
+
+            for (int p = 0; p < kc; p++, src += rsb) {
+                for (int j = 0; j < NR; j++) {
+                    panel[dst++] = j < nr ? b[src + j * csb] : 0d;
+                }
+            }
+        }
+    }
+
+    /**
+     * Packs a kc x nc block of B in a storage, see {@link #pack}
+     */
+    private static void pack(
+        int kc, int nc,
+        Storage b, int bOff, int rsb, int csb,
+        double[] panel
+    ) {
+        if (csb != 1) {
+            int dst = 0;
+
+            for (int jr = 0; jr < nc; jr += NR) {
+                int nr = Math.min(NR, nc - jr);
+                int src = bOff + jr * csb;
+
+                for (int p = 0; p < kc; p++, src += rsb) {
+                    for (int j = 0; j < NR; j++) {
+                        panel[dst++] = j < nr ? b.get(src + j * csb) : 0d;
+                    }
+                }
+            }
+
+            return;
+        }
+
+        // Read each row of the block at once, then spread it over the slivers
+        double[] row = ROW.get();
+
+        if (row.length < round(nc)) {
+            row = new double[round(nc)];
+            ROW.set(row);
+        }
+
+        for (int j = nc; j < round(nc); j++) {
+            row[j] = 0d;
+        }
+
+        for (int p = 0; p < kc; p++) {
+            b.get(bOff + p * rsb, row, 0, nc);
+
+            for (int jr = 0; jr < nc; jr += NR) {
+                System.arraycopy(row, jr, panel, jr * kc + p * NR, NR);
+            }
+        }
+    }
+
+    /**
+     * Multiplies an mc x kc block of A by nc cols of a packed panel, starting
+     * at the given sliver offset, into C
+     */
+    private static void macro(
+        int mc, int nc, int kc,
+        double[] a, int aOff, int rsa, int csa,
+        double[] panel, int pOff,
+        double[] c, int cOff, int ldc,
+        boolean first, double[] bias, int col, Epilogue epilogue
+    ) {
+        double[] tile = nc % NR != 0 ? TILE.get() : null;
+
+        for (int jr = 0; jr < nc; jr += NR) {
+            int nr = Math.min(NR, nc - jr);
+            int bp = pOff + jr * kc;
+
+            for (int ir = 0; ir < mc; ir += MR) {
+                int mr = Math.min(MR, mc - ir);
+                int ap = aOff + ir * rsa;
+                int cp = cOff + ir * ldc + jr;
+
+                if (mr == MR && nr == NR) {
+                    Kernels.ACTIVE.tile(
+                        kc, a, ap, rsa, csa, panel, bp, c, cp, ldc,
+                        first, bias, col + jr
+                    );
+                } else if (mr == MR) {
+                    right(
+                        nr, kc, a, ap, rsa, csa, panel, bp, c, cp, ldc,
+                        first, bias, col + jr, tile
+                    );
+                } else {
+                    edge(
+                        mr, nr, kc, a, ap, rsa, csa, panel, bp, c, cp, ldc,
+                        first, bias, col + jr
+                    );
+                }
+
+                if (epilogue != null) {
+                    epilogue.apply(c, cp, mr, nr, ldc);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes a partial MR x nr tile of C at the right edge, running the
+     * kernel over the sliver, padded with zeros, into a full tile
+     */
+    private static void right(
+        int nr, int kc,
+        double[] a, int aOff, int rsa, int csa,
+        double[] panel, int bp,
+        double[] c, int cOff, int ldc,
+        boolean first, double[] bias, int col, double[] tile
+    ) {
+        Kernels.ACTIVE.tile(
+            kc, a, aOff, rsa, csa, panel, bp, tile, 0, NR,
+            true, null, 0
+        );
+
+        for (int i = 0; i < MR; i++) {
+            int ci = cOff + i * ldc;
+            int ti = i * NR;
+
+            for (int j = 0; j < nr; j++) {
+                double base = first
+                    ? (bias == null ? 0d : bias[col + j])
+                    : c[ci + j];
+
+                c[ci + j] = base + tile[ti + j];
+            }
+        }
+    }
+
+    /**
+     * Computes a partial mr x nr tile of C at the bottom or right edge
+     */
+    private static void edge(
+        int mr, int nr, int kc,
+        double[] a, int aOff, int rsa, int csa,
+        double[] panel, int bp,
+        double[] c, int cOff, int ldc,
+        boolean first, double[] bias, int col
+    ) {
+        for (int i = 0; i < mr; i++) {
+            int ai = aOff + i * rsa;
+            int ci = cOff + i * ldc;
+
+            for (int j = 0; j < nr; j++) {
+                double sum = bias == null ? 0d : bias[col + j];
+
+                for (int p = 0; p < kc; p++) {
+                    sum += a[ai + p * csa] * panel[bp + p * NR + j];
+                }
+
+                c[ci + j] = first ? sum : c[ci + j] + sum;
+            }
+        }
+    }
+
+    /**
+     * Gets the packing buffer of the current thread, growing it if needed
+     */
+    private static double[] panel(int length) {
+        double[] panel = PANEL.get();
+
+        if (panel.length < length) {
+            panel = new double[length];
+            PANEL.set(panel);
+        }
+
+        return panel;
+    }
+
+    /**
+     * Rounds the given number of cols up to a multiple of NR
+     */
+    private static int round(int cols) {
+        return (cols + NR - 1) / NR * NR;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.util;
+
+/**
+ * Symmetric 8-bit quantization and integer matrix multiplication
+ * 
+ * A quantized vector is stored as integers in [-127, 127] and a scale, so
+ * each value is its integer times the scale. Products accumulate in 32-bit
+ * integers, exact for up to 133144 multiply-adds, and are dequantized once.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public final class Int8 {
+
+    /**
+     * Largest quantized magnitude
+     */
+    public static final int LIMIT = 127;
+
+    /**
+     * Cols of B multiplied by every row of A before moving on, so they stay
+     * in cache
+     */
+    private static final int BLOCK = 64;
+
+    /**
+     * Accumulators of the current thread
+     */
+    private static final ThreadLocal<int[]> ACC = ThreadLocal.withInitial(
+        () -> new int[Gemm.MR * BLOCK]
+    );
+
+    private Int8() {
+    }
+
+    /**
+     * Quantizes a range of x into q with a single scale
+     *
+     * @param x values
+     * @param xOff offset of the values
+     * @param length number of values
+     * @param q quantized values
+     * @param qOff offset of the quantized values
+     *
+     * @return the scale, 0 if every value is 0
+     */
+    public static double quantize(
+        double[] x, int xOff, int length,
+        byte[] q, int qOff
+    ) {
+        double max = 0d;
+
+        for (int s = 0; s < length; s++) {
+            max = Math.max(max, Math.abs(x[xOff + s]));
+        }
+
+        if (max == 0d) {
+            for (int s = 0; s < length; s++) {
+                q[qOff + s] = 0;
+            }
+
+            return 0d;
+        }
+
+        double scale = max / LIMIT;
+        double inverse = LIMIT / max;
+
+        for (int s = 0; s < length; s++) {
+            q[qOff + s] = (byte) Math.round(x[xOff + s] * inverse);
+        }
+
+        return scale;
+    }
+
+    /**
+     * Multiplies A (m x k), quantized by rows, by B (k x n), quantized by
+     * cols, into C (m x n), adding a bias row and applying an epilogue
+     *
+     * @param m rows of A and C
+     * @param n cols of B and C
+     * @param k cols of A and rows of B
+     * @param a quantized A, in row-major order
+     * @param aScales scale of each row of A
+     * @param b quantized B, in row-major order
+     * @param bScales scale of each col of B
+     * @param c data of C
+     * @param ldc row stride of C
+     * @param bias bias for each col of C, or null
+     * @param epilogue epilogue, or null
+     */
+    public static void multiply(
+        int m, int n, int k,
+        byte[] a, double[] aScales,
+        byte[] b, double[] bScales,
+        double[] c, int ldc,
+        double[] bias, Gemm.Epilogue epilogue
+    ) {
+        Gemm.Epilogue tiles = epilogue != null && !epilogue.rows() ? epilogue : null;
+        long work = Math.max(1L, (long) m * k * BLOCK);
+        int blocks = (n + BLOCK - 1) / BLOCK;
+        int grain = (int) Math.min(blocks, Math.max(1L, Parallel.THRESHOLD / work));
+
+        // Each task multiplies every row of A by its own blocks of cols of B
+        Parallel.forRange(0, blocks, grain, (from, to) -> {
+            int[] acc = ACC.get();
+
+            for (int jb = from * BLOCK; jb < Math.min(n, to * BLOCK); jb += BLOCK) {
+                int cols = Math.min(BLOCK, n - jb);
+
+                for (int ir = 0; ir < m; ir += Gemm.MR) {
+                    int rows = Math.min(Gemm.MR, m - ir);
+
+                    Kernels.ACTIVE.dot(
+                        rows, cols, k,
+                        a, ir * k, k,
+                        b, jb, n,
+                        acc, 0, BLOCK
+                    );
+
+                    for (int i = 0; i < rows; i++) {
+                        int row = (ir + i) * ldc + jb;
+                        double scale = aScales[ir + i];
+
+                        for (int j = 0; j < cols; j++) {
+                            double value = acc[i * BLOCK + j] * scale * bScales[jb + j];
+
+                            c[row + j] = bias == null ? value : value + bias[jb + j];
+                        }
+                    }
+
+                    if (tiles != null) {
+                        tiles.apply(c, ir * ldc + jb, rows, cols, ldc);
+                    }
+                }
+            }
+        });
+
+        if (epilogue != null && tiles == null) {
+            epilogue.apply(c, 0, m, n, ldc);
+        }
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.util;
+
+/**
+ * Primitive kernels over ranges of arrays
+ * 
+ * The active implementation is selected once: the SIMD one built on the Vector
+ * API when the jdk.incubator.vector module is available (run with
+ * --add-modules jdk.incubator.vector) and the hardware has at least 256-bit
+ * lanes, the scalar one otherwise. Setting the jnn.simd system property to
+ * false forces the scalar kernels.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public interface Kernels {
+
+    /**
+     * Active kernels
+     */
+    public static final Kernels ACTIVE = select();
+
+    /**
+     * Kernel from a range of an array into the same range of another one
+     */
+    @FunctionalInterface
+    public interface Unary {
+
+        /**
+         * Applies the kernel to [from, to) of x into y
+         * 
+         * @param x input data
+         * @param y output data, may be the input
+         * @param from first index, included
+         * @param to last index, excluded
+         */
+        public void apply(double[] x, double[] y, int from, int to);
+    }
+
+    /**
+     * Kernel correcting a range of parameters from their gradient and state
+     */
+    @FunctionalInterface
+    public interface Update {
+
+        /**
+         * Applies the kernel to [from, to) of each array
+         * 
+         * @param w parameters, corrected in place
+         * @param g gradient
+         * @param m first state, updated in place, or null
+         * @param v second state, updated in place, or null
+         * @param from first index, included
+         * @param to last index, excluded
+         */
+        public void apply(
+            double[] w,
+            double[] g,
+            double[] m,
+            double[] v,
+            int from,
+            int to
+        );
+    }
+
+    /**
+     * Gets the name of the kernels
+     * 
+     * @return the name
+     */
+    public String name();
+
+    /**
+     * Gets the number of cols of the register tiles computed by
+     * {@link #tile}
+     * 
+     * @return the number of cols
+     */
+    public int cols();
+
+    /**
+     * Computes z = x + y over [from, to)
+     * 
+     * @param x first array
+     * @param y second array
+     * @param z resulting array, may be x or y
+     * @param from first index, included
+     * @param to last index, excluded
+     */
+    public void add(double[] x, double[] y, double[] z, int from, int to);
+
+    /**
+     * Computes z = x - y over [from, to)
+     * 
+     * @param x first array
+     * @param y second array
+     * @param z resulting array, may be x or y
+     * @param from first index, included
+     * @param to last index, excluded
+     */
+    public void sub(double[] x, double[] y, double[] z, int from, int to);
+
+    /**
+     * Computes z = x * y over [from, to)
+     * 
+     * @param x first array
+     * @param y second array
+     * @param z resulting array, may be x or y
+     * @param from first index, included
+     * @param to last index, excluded
+     */
+    public void mul(double[] x, double[] y, double[] z, int from, int to);
+
+    /**
+     * Computes y = y + alpha * x over [from, to)
+     * 
+     * @param alpha value to multiply x by
+     * @param x first array
+     * @param y second array, overwritten with the result
+     * @param from first index, included
+     * @param to last index, excluded
+     */
+    public void axpy(double alpha, double[] x, double[] y, int from, int to);
+
+    /**
+     * Computes y = y + alpha * x over length elements starting at different
+     * offsets of x and y
+     * 
+     * @param alpha value to multiply x by
+     * @param x first array
+     * @param xOff offset of x
+     * @param y second array, overwritten with the result
+     * @param yOff offset of y
+     * @param length number of elements
+     */
+    public void axpy(
+        double alpha,
+        double[] x, int xOff,
+        double[] y, int yOff,
+        int length
+    );
+
+    /**
+     * Computes x = x * alpha over [from, to)
+     * 
+     * @param alpha value to multiply by
+     * @param x array, overwritten with the result
+     * @param from first index, included
+     * @param to last index, excluded
+     */
+    public void scale(double alpha, double[] x, int from, int to);
+
+    /**
+     * Computes x = x + value over [from, to)
+     * 
+     * @param value value to add
+     * @param x array, overwritten with the result
+     * @param from first index, included
+     * @param to last index, excluded
+     */
+    public void shift(double value, double[] x, int from, int to);
+
+    /**
+     * Corrects [from, to) of w by gradient descent with momentum in a single
+     * pass, with d = g + decay * w:
+     * v = momentum * v + d and w = w - lr * v, or w = w - lr * (d + momentum
+     * * v) with Nesterov momentum
+     * 
+     * @param w parameters, corrected in place
+     * @param g gradient
+     * @param v velocity, updated in place, or null without momentum
+     * @param from first index, included
+     * @param to last index, excluded
+     * @param lr learning rate
+     * @param momentum momentum, ignored without velocity
+     * @param nesterov whether to use Nesterov momentum
+     * @param decay weight decay
+     */
+    public void sgd(
+        double[] w, double[] g, double[] v,
+        int from, int to,
+        double lr, double momentum, boolean nesterov, double decay
+    );
+
+    /**
+     * Corrects [from, to) of w by RMSProp in a single pass, with
+     * d = g + decay * w:
+     * s = rho * s + (1 - rho) * d^2 and w = w - lr * d / (sqrt(s) + epsilon)
+     * 
+     * @param w parameters, corrected in place
+     * @param g gradient
+     * @param s average of the squared gradient, updated in place
+     * @param from first index, included
+     * @param to last index, excluded
+     * @param lr learning rate
+     * @param rho decay of the average
+     * @param epsilon term added to the root for stability
+     * @param decay weight decay
+     */
+    public void rmsprop(
+        double[] w, double[] g, double[] s,
+        int from, int to,
+        double lr, double rho, double epsilon, double decay
+    );
+
+    /**
+     * Corrects [from, to) of w by Adam in a single pass, with d = g, plus
+     * decay * w unless the decay is decoupled:
+     * m = beta1 * m + (1 - beta1) * d, v = beta2 * v + (1 - beta2) * d^2 and
+     * w = w - lr * (c1 * m / (c2 * sqrt(v) + epsilon)), minus lr * decay * w
+     * if the decay is decoupled (AdamW)
+     * 
+     * @param w parameters, corrected in place
+     * @param g gradient
+     * @param m average of the gradient, updated in place
+     * @param v average of the squared gradient, updated in place
+     * @param from first index, included
+     * @param to last index, excluded
+     * @param lr learning rate
+     * @param beta1 decay of the average of the gradient
+     * @param beta2 decay of the average of the squared gradient
+     * @param epsilon term added to the root for stability
+     * @param c1 bias correction of m, 1 / (1 - beta1^t)
+     * @param c2 bias correction of v, 1 / sqrt(1 - beta2^t)
+     * @param decay weight decay
+     * @param decoupled whether the decay is decoupled from the gradient
+     */
+    public void adam(
+        double[] w, double[] g, double[] m, double[] v,
+        int from, int to,
+        double lr, double beta1, double beta2, double epsilon,
+        double c1, double c2,
+        double decay, boolean decoupled
+    );
+
+    /**
+     * Sums [from, to) of x
+     * 
+     * @param x array
+     * @param from first index, included
+     * @param to last index, excluded
+     * 
+     * @return the sum
+     */
+    public double sum(double[] x, int from, int to);
+
+    /**
+     * Gets the min value in [from, to) of x
+     * 
+     * @param x array
+     * @param from first index, included
+     * @param to last index, excluded
+     * 
+     * @return the min value, or positive infinity for an empty range
+     */
+    public double min(double[] x, int from, int to);
+
+    /**
+     * Gets the max value in [from, to) of x
+     * 
+     * @param x array
+     * @param from first index, included
+     * @param to last index, excluded
+     * 
+     * @return the max value, or negative infinity for an empty range
+     */
+    public double max(double[] x, int from, int to);
+
+    /**
+     * Multiplies up to 4 rows of A (rows x k) by B (k x cols), both 8-bit
+     * integers, into C, accumulating in 32-bit integers
+     * 
+     * @param rows rows of A and C, at most 4
+     * @param cols cols of B and C
+     * @param k cols of A and rows of B
+     * @param a data of A
+     * @param aOff offset of A
+     * @param lda row stride of A
+     * @param b data of B
+     * @param bOff offset of B
+     * @param ldb row stride of B
+     * @param c data of C, overwritten
+     * @param cOff offset of C
+     * @param ldc row stride of C
+     */
+    public void dot(
+        int rows, int cols, int k,
+        byte[] a, int aOff, int lda,
+        byte[] b, int bOff, int ldb,
+        int[] c, int cOff, int ldc
+    );
+
+    /**
+     * Rectified Linear Unit, y = max(0, x)
+     * 
+     * @param x input data
+     * @param y output data, may be the input
+     * @param from first index, included
+     * @param to last index, excluded
+     */
+    public void relu(double[] x, double[] y, int from, int to);
+
+    /**
+     * Rectified Linear Unit derivative, y = x > 0 ? 1 : 0
+     * 
+     * @param x input data
+     * @param y output data, may be the input
+     * @param from first index, included
+     * @param to last index, excluded
+     */
+    public void reluDerivative(double[] x, double[] y, int from, int to);
+
+    /**
+     * Sigmoid, y = 1 / (1 + exp(-x))
+     * 
+     * @param x input data
+     * @param y output data, may be the input
+     * @param from first index, included
+     * @param to last index, excluded
+     */
+    public void sigmoid(double[] x, double[] y, int from, int to);
+
+    /**
+     * Sigmoid derivative in terms of the activation, y = x * (1 - x)
+     * 
+     * @param x input data
+     * @param y output data, may be the input
+     * @param from first index, included
+     * @param to last index, excluded
+     */
+    public void sigmoidDerivative(double[] x, double[] y, int from, int to);
+
+    /**
+     * Computes a full {@link Gemm#MR} x {@link #cols} tile of C from a block
+     * of A and a packed sliver of B, see {@link Gemm}
+     * 
+     * @param kc depth of the block
+     * @param a data of A
+     * @param aOff offset of the block of A
+     * @param rsa row stride of A
+     * @param csa col stride of A
+     * @param panel packed panel of B
+     * @param bp offset of the sliver
+     * @param c data of C
+     * @param cOff offset of the tile of C
+     * @param ldc row stride of C
+     * @param first whether to overwrite C instead of adding to it
+     * @param bias bias for each col of C, or null
+     * @param col col of the tile, to index the bias
+     */
+    public void tile(
+        int kc,
+        double[] a, int aOff, int rsa, int csa,
+        double[] panel, int bp,
+        double[] c, int cOff, int ldc,
+        boolean first, double[] bias, int col
+    );
+
+    /**
+     * Selects the kernels for the current runtime
+     * 
+     * @return the selected kernels
+     */
+    private static Kernels select() {
+        boolean simd = Boolean.parseBoolean(
+            System.getProperty("jnn.simd", "true")
+        );
+
+        if (
+            simd
+            && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+        ) {
+            // Loaded by name so the scalar path never links the Vector API
+            try {
+                return (Kernels) Class.forName(
+                    "io.github.nearage.jnn.util.VectorKernels"
+                ).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Unsupported hardware or runtime, fall back to scalar
+            }
+        }
+
+        return new ScalarKernels();
+    }
+}
@@ -17,6 +17,9 @@
 package io.github.nearage.jnn.util;
 
 import io.github.nearage.jnn.input.Matrix;
+import io.github.nearage.jnn.input.Sparse;
+import java.util.Arrays;
+import java.util.function.DoubleUnaryOperator;
 
 /**
  * Matrix utils
@@ -26,7 +29,8 @@ import io.github.nearage.jnn.input.Matrix;
 public interface Matrices {
 
     /**
-     * Performs the dot product of two matrices
+     * Performs the dot product of two matrices, using the blocked kernel in
+     * {@link Gemm}
      * 
      * @param a first matrix
      * @param b second matrix
@@ -36,9 +40,166 @@ public interface Matrices {
      * @throws Exception a base exception with an error message
      */
     public static Matrix dot(Matrix a, Matrix b) throws Exception {
+        Matrix result = new Matrix(a.rows, b.cols);
+
+        dotInto(a, b, result);
+
+        return result;
+    }
+
+    /**
+     * Performs the dot product of two matrices into the given matrix
+     * 
+     * @param a first matrix
+     * @param b second matrix
+     * @param out resulting matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static void dotInto(Matrix a, Matrix b, Matrix out) throws Exception {
+        dotInto(a, b, false, false, out);
+    }
+
+    /**
+     * Performs the dot product of two matrices, either of them transposed
+     * 
+     * @param a first matrix
+     * @param b second matrix
+     * @param transA whether to use a transposed
+     * @param transB whether to use b transposed
+     * 
+     * @return the resulting matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static Matrix dot(
+        Matrix a,
+        Matrix b,
+        boolean transA,
+        boolean transB
+    ) throws Exception {
+        Matrix result = new Matrix(
+            transA ? a.cols : a.rows,
+            transB ? b.rows : b.cols
+        );
+
+        dotInto(a, b, transA, transB, result);
+
+        return result;
+    }
+
+    /**
+     * Performs the dot product of two matrices, either of them transposed,
+     * into the given matrix
+     * 
+     * The transposed operands are read in transposed order by the kernel, no
+     * transposed copy is made.
+     * 
+     * @param a first matrix
+     * @param b second matrix
+     * @param transA whether to use a transposed
+     * @param transB whether to use b transposed
+     * @param out resulting matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static void dotInto(
+        Matrix a,
+        Matrix b,
+        boolean transA,
+        boolean transB,
+        Matrix out
+    ) throws Exception {
+        int m = transA ? a.cols : a.rows;
+        int k = transA ? a.rows : a.cols;
+        int n = transB ? b.rows : b.cols;
+
+        if (k != (transB ? b.cols : b.rows)) {
+            throw new Exception(String.format(
+                "Shape mismatch in dot, a%s = (%d, %d) and b%s = (%d, %d)",
+                transA ? "T" : "",
+                m,
+                k,
+                transB ? "T" : "",
+                transB ? b.cols : b.rows,
+                n
+            ));
+        }
+
+        checkOut("dot", out, m, n);
+
+        if (a.sparse() != null || b.sparse() != null) {
+            sparse(a, b, transA, transB, 1d, false, null, null, out);
+            return;
+        }
+
+        long start = Counters.start();
+
+        // Heap matrices and views of them are used in place
+        double[] x = Staging.base(a);
+        double[] y = Staging.base(b);
+        double[] z = Staging.base(out);
+        int xs = Staging.stride(a);
+        int ys = Staging.stride(b);
+        int zs = Staging.stride(out);
+        boolean staged = z == null;
+
+        if (x == null) {
+            x = Staging.array(a, 0, true);
+        }
+
+        if (staged) {
+            z = Staging.array(out, 2, false);
+        }
+
+        if (y != null) {
+            Gemm.multiply(
+                m, n, k,
+                x, Staging.offset(a), transA ? 1 : xs, transA ? xs : 1,
+                y, Staging.offset(b), transB ? 1 : ys, transB ? ys : 1,
+                z, Staging.offset(out), zs,
+                false
+            );
+        } else {
+            Gemm.multiply(
+                m, n, k,
+                x, Staging.offset(a), transA ? 1 : xs, transA ? xs : 1,
+                b.storage(), 0, transB ? 1 : b.cols, transB ? b.cols : 1,
+                z, Staging.offset(out), zs,
+                false
+            );
+        }
+
+        if (staged) {
+            Staging.commit(out, z);
+        }
+
+        Counters.count(start, 2L * m * n * k);
+    }
+
+    /**
+     * Performs the dot product of two matrices, adds the bias row to each row
+     * of the result and applies the given epilogue into the given matrix, in a
+     * single pass of the {@link Gemm} kernel
+     * 
+     * @param a first matrix
+     * @param b second matrix
+     * @param bias bias row, with as many cols as b
+     * @param epilogue epilogue applied to the result, or null
+     * @param out resulting matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static void affineInto(
+        Matrix a,
+        Matrix b,
+        Matrix bias,
+        Gemm.Epilogue epilogue,
+        Matrix out
+    ) throws Exception {
         if (a.cols != b.rows) {
             throw new Exception(String.format(
-                "Shape mismatch in dot, a = (%d, %d) and b = (%d, %d)",
+                "Shape mismatch in affine, a = (%d, %d) and b = (%d, %d)",
                 a.rows,
                 a.cols,
                 b.rows,
@@ -46,49 +207,178 @@ public interface Matrices {
             ));
         }
 
-        Matrix result = new Matrix(a.rows, b.cols);
+        checkOut("affine", bias, 1, b.cols);
+        checkOut("affine", out, a.rows, b.cols);
 
-        result.map((i, j) -> {
-            double sum = 0;
+        if (a.sparse() != null || b.sparse() != null) {
+            sparse(a, b, false, false, 1d, false, bias, epilogue, out);
+            return;
+        }
 
-            for (int k = 0; k < a.cols; k++) {
-                sum += a.get(i, k) * b.get(k, j);
-            }
+        long start = Counters.start();
 
-            return sum;
-        });
+        // Heap matrices and views of them are used in place
+        double[] x = Staging.base(a);
+        double[] y = Staging.base(b);
+        double[] z = Staging.base(out);
+        double[] row = Staging.array(bias, 1, true);
+        int xs = Staging.stride(a);
+        int ys = Staging.stride(b);
+        int zs = Staging.stride(out);
+        boolean staged = z == null;
 
-        return result;
+        if (x == null) {
+            x = Staging.array(a, 0, true);
+        }
+
+        if (staged) {
+            z = Staging.array(out, 2, false);
+        }
+
+        if (y != null) {
+            Gemm.fused(
+                a.rows, b.cols, a.cols,
+                x, Staging.offset(a), xs, 1,
+                y, Staging.offset(b), ys, 1,
+                z, Staging.offset(out), zs,
+                row, epilogue
+            );
+        } else {
+            Gemm.fused(
+                a.rows, b.cols, a.cols,
+                x, Staging.offset(a), xs, 1,
+                b.storage(), 0, b.cols, 1,
+                z, Staging.offset(out), zs,
+                row, epilogue
+            );
+        }
+
+        if (staged) {
+            Staging.commit(out, z);
+        }
+
+        Counters.count(start, 2L * a.rows * b.cols * a.cols);
     }
 
     /**
-     * Adds matrix b to matrix a
+     * Adds the dot product of two matrices, either of them transposed and
+     * multiplied by alpha, to the given matrix in place
+     * (y += alpha * a * b)
+     * 
+     * With a sparse operand only its non-zeros are visited, and with a sparse
+     * a transposed only the rows of y matching its non-zero cols change, so
+     * the weights of a layer with sparse inputs are corrected without a dense
+     * gradient.
      * 
+     * @param alpha value to multiply the product by
      * @param a first matrix
      * @param b second matrix
-     * 
-     * @return the resulting matrix
+     * @param transA whether to use a transposed
+     * @param transB whether to use b transposed
+     * @param y resulting matrix, overwritten with the result
      * 
      * @throws Exception a base exception with an error message
      */
-    public static Matrix add(Matrix a, Matrix b) throws Exception {
-        if (a.rows != b.rows || a.cols != b.cols) {
+    public static void axpyDot(
+        double alpha,
+        Matrix a,
+        Matrix b,
+        boolean transA,
+        boolean transB,
+        Matrix y
+    ) throws Exception {
+        if (a.sparse() == null && b.sparse() == null) {
+            axpy(alpha, dot(a, b, transA, transB), y);
+            return;
+        }
+
+        int m = transA ? a.cols : a.rows;
+        int k = transA ? a.rows : a.cols;
+        int n = transB ? b.rows : b.cols;
+
+        if (k != (transB ? b.cols : b.rows)) {
             throw new Exception(String.format(
-                "Shape mismatch in add, a = (%d, %d) and b = (%d, %d)",
-                a.rows,
-                a.cols,
-                b.rows,
-                b.cols
+                "Shape mismatch in dot, a%s = (%d, %d) and b%s = (%d, %d)",
+                transA ? "T" : "",
+                m,
+                k,
+                transB ? "T" : "",
+                transB ? b.cols : b.rows,
+                n
             ));
         }
 
-        Matrix result = new Matrix(a.rows, b.cols);
+        checkOut("dot", y, m, n);
+
+        sparse(a, b, transA, transB, alpha, true, null, null, y);
+    }
+
+    /**
+     * Adds matrix b to matrix a
+     * 
+     * @param a first matrix
+     * @param b second matrix
+     * 
+     * @return the resulting matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static Matrix add(Matrix a, Matrix b) throws Exception {
+        Matrix result = new Matrix(a.rows, a.cols);
 
-        result.map((i, j) -> a.get(i, j) + b.get(i, j));
+        addInto(a, b, result);
 
         return result;
     }
 
+    /**
+     * Adds matrix b to matrix a into the given matrix
+     * 
+     * @param a first matrix
+     * @param b second matrix
+     * @param out resulting matrix, may be a or b
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static void addInto(Matrix a, Matrix b, Matrix out) throws Exception {
+        check("add", a, b);
+        checkOut("add", out, a.rows, a.cols);
+
+        Staging.elementwise(
+            a,
+            b,
+            out,
+            (x, y, z, from, to) -> Kernels.ACTIVE.add(x, y, z, from, to)
+        );
+    }
+
+    /**
+     * Adds matrix b to matrix a in place
+     * 
+     * @param a first matrix, overwritten with the result
+     * @param b second matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static void addInPlace(Matrix a, Matrix b) throws Exception {
+        addInto(a, b, a);
+    }
+
+    /**
+     * Adds the given value to each element of matrix a in place
+     * 
+     * @param a matrix, overwritten with the result
+     * @param value value to add
+     */
+    public static void addInPlace(Matrix a, double value) {
+        Staging.elementwise(
+            null,
+            null,
+            a,
+            (x, y, z, from, to) -> Kernels.ACTIVE.shift(value, z, from, to)
+        );
+    }
+
     /**
      * Substracts matrix b to matrix a
      * 
@@ -100,23 +390,34 @@ public interface Matrices {
      * @throws Exception a base exception with an error message
      */
     public static Matrix sub(Matrix a, Matrix b) throws Exception {
-        if (a.rows != b.rows || a.cols != b.cols) {
-            throw new Exception(String.format(
-                "Shape mismatch in sub, a = (%d, %d) and b = (%d, %d)",
-                a.rows,
-                a.cols,
-                b.rows,
-                b.cols
-            ));
-        }
-
-        Matrix result = new Matrix(a.rows, b.cols);
+        Matrix result = new Matrix(a.rows, a.cols);
 
-        result.map((i, j) -> a.get(i, j) - b.get(i, j));
+        subInto(a, b, result);
 
         return result;
     }
 
+    /**
+     * Substracts matrix b to matrix a into the given matrix
+     * 
+     * @param a first matrix
+     * @param b second matrix
+     * @param out resulting matrix, may be a or b
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static void subInto(Matrix a, Matrix b, Matrix out) throws Exception {
+        check("sub", a, b);
+        checkOut("sub", out, a.rows, a.cols);
+
+        Staging.elementwise(
+            a,
+            b,
+            out,
+            (x, y, z, from, to) -> Kernels.ACTIVE.sub(x, y, z, from, to)
+        );
+    }
+
     /**
      * Multyplies matrix a by matrix b
      * 
@@ -128,20 +429,444 @@ public interface Matrices {
      * @throws Exception a base exception with an error message
      */
     public static Matrix mul(Matrix a, Matrix b) throws Exception {
+        Matrix result = new Matrix(a.rows, a.cols);
+
+        mulInto(a, b, result);
+
+        return result;
+    }
+
+    /**
+     * Multyplies matrix a by matrix b into the given matrix
+     * 
+     * @param a first matrix
+     * @param b second matrix
+     * @param out resulting matrix, may be a or b
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static void mulInto(Matrix a, Matrix b, Matrix out) throws Exception {
+        check("mul", a, b);
+        checkOut("mul", out, a.rows, a.cols);
+
+        Staging.elementwise(
+            a,
+            b,
+            out,
+            (x, y, z, from, to) -> Kernels.ACTIVE.mul(x, y, z, from, to)
+        );
+    }
+
+    /**
+     * Multiplies each element of matrix a by the given value in place
+     * 
+     * @param a matrix, overwritten with the result
+     * @param alpha value to multiply by
+     */
+    public static void scaleInPlace(Matrix a, double alpha) {
+        Staging.elementwise(
+            null,
+            null,
+            a,
+            (x, y, z, from, to) -> Kernels.ACTIVE.scale(alpha, z, from, to)
+        );
+    }
+
+    /**
+     * Adds matrix x multiplied by alpha to matrix y in place (y += alpha * x)
+     * 
+     * @param alpha value to multiply x by
+     * @param x first matrix
+     * @param y second matrix, overwritten with the result
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static void axpy(double alpha, Matrix x, Matrix y) throws Exception {
+        check("axpy", x, y);
+
+        Staging.elementwise(
+            x,
+            null,
+            y,
+            (xs, ys, zs, from, to) -> Kernels.ACTIVE.axpy(alpha, xs, zs, from, to)
+        );
+    }
+
+    /**
+     * Corrects a matrix of parameters from its gradient and up to two matrices
+     * of optimizer state in a single parallel pass of the given kernel, see
+     * the update kernels of {@link Kernels}
+     * 
+     * @param w parameters, corrected in place
+     * @param g gradient
+     * @param m first state, updated in place, or null
+     * @param v second state, updated in place, or null
+     * @param kernel update kernel
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static void update(
+        Matrix w,
+        Matrix g,
+        Matrix m,
+        Matrix v,
+        Kernels.Update kernel
+    ) throws Exception {
+        check("update", w, g);
+
+        if (m != null) {
+            check("update", w, m);
+        }
+
+        if (v != null) {
+            check("update", w, v);
+        }
+
+        Staging.update(w, g, m, v, kernel);
+    }
+
+    /**
+     * Applies the given function to each element of matrix a
+     * 
+     * @param a matrix
+     * @param function function to apply
+     * 
+     * @return the resulting matrix
+     */
+    public static Matrix apply(Matrix a, DoubleUnaryOperator function) {
+        Matrix result = new Matrix(a.rows, a.cols);
+
+        Staging.elementwise(a, null, result, (x, y, z, from, to) -> {
+            for (int s = from; s < to; s++) {
+                z[s] = function.applyAsDouble(x[s]);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Applies the given function to each element of matrix a into the given
+     * matrix
+     * 
+     * @param a matrix
+     * @param function function to apply
+     * @param out resulting matrix, may be a
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static void applyInto(
+        Matrix a,
+        DoubleUnaryOperator function,
+        Matrix out
+    ) throws Exception {
+        checkOut("apply", out, a.rows, a.cols);
+
+        Staging.elementwise(a, null, out, (x, y, z, from, to) -> {
+            for (int s = from; s < to; s++) {
+                z[s] = function.applyAsDouble(x[s]);
+            }
+        });
+    }
+
+    /**
+     * Applies the given kernel to each element of matrix a into the given
+     * matrix
+     * 
+     * @param a matrix
+     * @param kernel kernel to apply
+     * @param out resulting matrix, may be a
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static void applyInto(
+        Matrix a,
+        Kernels.Unary kernel,
+        Matrix out
+    ) throws Exception {
+        checkOut("apply", out, a.rows, a.cols);
+
+        Staging.elementwise(
+            a,
+            null,
+            out,
+            (x, y, z, from, to) -> kernel.apply(x, z, from, to)
+        );
+    }
+
+    /**
+     * Copies matrix a into the given matrix
+     * 
+     * @param a matrix
+     * @param out resulting matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static void copyInto(Matrix a, Matrix out) throws Exception {
+        checkOut("copy", out, a.rows, a.cols);
+
+        if (a.isHeap()) {
+            out.storage().set(0, a.array(), 0, a.size);
+        } else if (out.isHeap()) {
+            a.storage().get(0, out.array(), 0, a.size);
+        } else {
+            Staging.elementwise(
+                a,
+                null,
+                out,
+                (x, y, z, from, to) -> System.arraycopy(x, from, z, from, to - from)
+            );
+        }
+    }
+
+    /**
+     * Transposes matrix a into the given matrix
+     * 
+     * @param a matrix
+     * @param out resulting matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    public static void transposeInto(Matrix a, Matrix out) throws Exception {
+        a.transpose(out);
+    }
+
+    /**
+     * Sums matrix a along the given axis into the given matrix, each row into
+     * a (rows, 1) matrix for axis 0, or each col into a (1, cols) matrix for
+     * axis 1
+     *
+     * Rows and cols are summed in a fixed order, so the result does not
+     * depend on the threads.
+     *
+     * @param a matrix
+     * @param axis axis to sum, 0 or 1
+     * @param out resulting matrix
+     *
+     * @throws Exception a base exception with an error message
+     */
+    public static void sumInto(Matrix a, int axis, Matrix out) throws Exception {
+        if (axis != 0 && axis != 1) {
+            throw new Exception(String.format(
+                "Invalid axis in sum, axis = %d",
+                axis
+            ));
+        }
+
+        checkOut(
+            "sum",
+            out,
+            axis == 0 ? a.rows : 1,
+            axis == 1 ? a.cols : 1
+        );
+
+        double[] x = Staging.array(a, 0, true);
+        double[] z = Staging.array(out, 1, false);
+        int rows = a.rows;
+        int cols = a.cols;
+
+        if (axis == 0) {
+            Parallel.forRange(
+                0,
+                rows,
+                Math.max(1, Parallel.GRAIN / Math.max(1, cols)),
+                (from, to) -> {
+                    for (int i = from; i < to; i++) {
+                        z[i] = Kernels.ACTIVE.sum(x, i * cols, (i + 1) * cols);
+                    }
+                }
+            );
+        } else {
+            // Each task adds every row to its own range of cols
+            Parallel.forRange(
+                0,
+                cols,
+                Math.max(1, Parallel.GRAIN / Math.max(1, rows)),
+                (from, to) -> {
+                    Arrays.fill(z, from, to, 0d);
+
+                    for (int i = 0; i < rows; i++) {
+                        Kernels.ACTIVE.axpy(
+                            1d,
+                            x, i * cols + from,
+                            z, from,
+                            to - from
+                        );
+                    }
+                }
+            );
+        }
+
+        Staging.commit(out, z);
+    }
+
+    /**
+     * Sums the given matrices into the given matrix, which may be the first
+     * of them
+     *
+     * The elements are split in stripes summed in parallel, each one adding
+     * the matrices in the given order, so the result does not depend on the
+     * threads.
+     *
+     * @param terms matrices to sum
+     * @param out resulting matrix
+     *
+     * @throws Exception a base exception with an error message
+     */
+    public static void sumInto(Matrix[] terms, Matrix out) throws Exception {
+        boolean heap = out.isHeap();
+
+        for (Matrix term : terms) {
+            check("sum", term, out);
+
+            heap &= term.isHeap();
+        }
+
+        if (terms.length == 0) {
+            scaleInPlace(out, 0d);
+            return;
+        }
+
+        if (!heap) {
+            if (terms[0] != out) {
+                copyInto(terms[0], out);
+            }
+
+            for (int t = 1; t < terms.length; t++) {
+                axpy(1d, terms[t], out);
+            }
+
+            return;
+        }
+
+        double[][] xs = new double[terms.length][];
+        double[] z = out.array();
+
+        for (int t = 0; t < terms.length; t++) {
+            xs[t] = terms[t].array();
+        }
+
+        Parallel.forRange(
+            0,
+            out.size,
+            Math.max(1, Parallel.GRAIN / terms.length),
+            (from, to) -> {
+                if (xs[0] != z) {
+                    System.arraycopy(xs[0], from, z, from, to - from);
+                }
+
+                for (int t = 1; t < xs.length; t++) {
+                    Kernels.ACTIVE.axpy(1d, xs[t], z, from, to);
+                }
+            }
+        );
+    }
+
+    /**
+     * Runs a checked product with a sparse operand, see {@link SparseGemm}.
+     * When both are sparse b is read as a dense matrix.
+     */
+    private static void sparse(
+        Matrix a,
+        Matrix b,
+        boolean transA,
+        boolean transB,
+        double alpha,
+        boolean accumulate,
+        Matrix bias,
+        Gemm.Epilogue epilogue,
+        Matrix out
+    ) {
+        long start = Counters.start();
+        double[] row = bias != null ? Staging.array(bias, 1, true) : null;
+        double[] z = Staging.array(out, 2, accumulate);
+
+        if (a.sparse() != null) {
+            double[] y = Staging.array(b, 0, true);
+
+            SparseGemm.multiply(
+                a.sparse(), transA,
+                out.cols,
+                y, 0, transB ? 1 : b.cols, transB ? b.cols : 1,
+                z, 0, out.cols,
+                alpha, accumulate,
+                row, epilogue
+            );
+        } else {
+            double[] x = Staging.array(a, 0, true);
+
+            SparseGemm.multiply(
+                out.rows,
+                x, 0, transA ? 1 : a.cols, transA ? a.cols : 1,
+                b.sparse(), transB,
+                z, 0, out.cols,
+                alpha, accumulate,
+                row, epilogue
+            );
+        }
+
+        Staging.commit(out, z);
+
+        // Each non-zero meets a row or col of the dense operand
+        Sparse sparse = a.sparse() != null ? a.sparse() : b.sparse();
+
+        Counters.count(
+            start,
+            2L * sparse.nonZeros() * (a.sparse() != null ? out.cols : out.rows)
+        );
+    }
+
+    /**
+     * Checks that two matrices have the same shape
+     * 
+     * @param operation name of the operation
+     * @param a first matrix
+     * @param b second matrix
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private static void check(
+        String operation,
+        Matrix a,
+        Matrix b
+    ) throws Exception {
         if (a.rows != b.rows || a.cols != b.cols) {
             throw new Exception(String.format(
-                "Shape mismatch in mul, a = (%d, %d) and b = (%d, %d)",
+                "Shape mismatch in %s, a = (%d, %d) and b = (%d, %d)",
+                operation,
                 a.rows,
                 a.cols,
                 b.rows,
                 b.cols
             ));
         }
+    }
 
-        Matrix result = new Matrix(a.rows, b.cols);
-
-        result.map((i, j) -> a.get(i, j) * b.get(i, j));
-
-        return result;
+    /**
+     * Checks that the output matrix has the given shape
+     * 
+     * @param operation name of the operation
+     * @param out output matrix
+     * @param rows expected rows
+     * @param cols expected cols
+     * 
+     * @throws Exception a base exception with an error message
+     */
+    private static void checkOut(
+        String operation,
+        Matrix out,
+        int rows,
+        int cols
+    ) throws Exception {
+        if (out.rows != rows || out.cols != cols) {
+            throw new Exception(String.format(
+                "Shape mismatch in %s, out = (%d, %d) and expected = (%d, %d)",
+                operation,
+                out.rows,
+                out.cols,
+                rows,
+                cols
+            ));
+        }
     }
 }
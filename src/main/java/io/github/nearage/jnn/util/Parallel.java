@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.util;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parallel execution of matrix kernels
+ *
+ * Kernels split their work into index ranges that run as fork-join tasks.
+ * Ranges are split only by their length, never by the number of threads, and
+ * every output element is computed by a single task, so results do not depend
+ * on scheduling.
+ *
+ * @author Nearage <https://github.com/Nearage>
+ */
+public final class Parallel {
+
+    /**
+     * Minimum number of elements handled by an element-wise task
+     */
+    public static final int GRAIN = 1 << 14;
+
+    /**
+     * Minimum number of multiply-adds for a parallel dot product
+     */
+    public static final long THRESHOLD = 1L << 20;
+
+    /**
+     * Pools by number of threads
+     */
+    private static final Map<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    /**
+     * Parallelism of the current thread, overriding the global one
+     */
+    private static final ThreadLocal<Integer> LOCAL = new ThreadLocal<>();
+
+    /**
+     * Global parallelism
+     */
+    private static volatile int parallelism = Runtime.getRuntime()
+        .availableProcessors();
+
+    private Parallel() {
+    }
+
+    /**
+     * Action over a range of indices
+     */
+    @FunctionalInterface
+    public interface Range {
+
+        /**
+         * Performs the action over the given range
+         *
+         * @param from first index, included
+         * @param to last index, excluded
+         */
+        public void accept(int from, int to);
+    }
+
+    /**
+     * Sets the global number of threads, 1 runs every kernel serially
+     *
+     * @param threads number of threads
+     *
+     * @throws Exception a base exception with an error message
+     */
+    public static void setParallelism(int threads) throws Exception {
+        check(threads);
+
+        parallelism = threads;
+    }
+
+    /**
+     * Gets the number of threads used by kernels called from the current
+     * thread
+     *
+     * @return number of threads
+     */
+    public static int getParallelism() {
+        ForkJoinPool pool = pool();
+
+        return pool == null ? 1 : pool.getParallelism();
+    }
+
+    /**
+     * Calls the given body with the given number of threads, overriding the
+     * global parallelism for the kernels it runs
+     *
+     * @param <T> type of the result
+     * @param threads number of threads, 0 keeps the current setting
+     * @param body body to call
+     *
+     * @return the result of the body
+     *
+     * @throws Exception a base exception with an error message
+     */
+    public static <T> T call(int threads, Callable<T> body) throws Exception {
+        if (threads == 0) {
+            return body.call();
+        }
+
+        check(threads);
+
+        Integer previous = LOCAL.get();
+        LOCAL.set(threads);
+
+        try {
+            return body.call();
+        } finally {
+            if (previous == null) {
+                LOCAL.remove();
+            } else {
+                LOCAL.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Performs the given action over [start, end), splitting it into tasks of
+     * at least grain indices
+     *
+     * @param start first index, included
+     * @param end last index, excluded
+     * @param grain minimum length of a task
+     * @param action action to perform
+     */
+    public static void forRange(int start, int end, int grain, Range action) {
+        ForkJoinPool pool = end - start > grain ? pool() : null;
+
+        if (pool == null) {
+            action.accept(start, end);
+            return;
+        }
+
+        Task task = new Task(start, end, Math.max(1, grain), action);
+
+        if (ForkJoinTask.getPool() == pool) {
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
+    }
+
+    /**
+     * Gets the pool for the current thread, or null to run serially. Tasks
+     * already running in one of the pools of this class keep using it, while
+     * other pools, such as the common one, follow the configured parallelism.
+     */
+    private static ForkJoinPool pool() {
+        ForkJoinPool current = ForkJoinTask.getPool();
+
+        if (
+            current != null
+            && LOCAL.get() == null
+            && POOLS.containsValue(current)
+        ) {
+            return current;
+        }
+
+        Integer local = LOCAL.get();
+        int threads = local != null ? local : parallelism;
+
+        if (threads < 2) {
+            return null;
+        }
+
+        return POOLS.computeIfAbsent(threads, ForkJoinPool::new);
+    }
+
+    /**
+     * Checks the given number of threads
+     */
+    private static void check(int threads) throws Exception {
+        if (threads < 1) {
+            throw new Exception(String.format(
+                "Invalid parallelism, threads = %d",
+                threads
+            ));
+        }
+    }
+
+    /**
+     * Task halving its range until it is no longer than the grain
+     */
+    private static class Task extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+        private final int grain;
+        private final transient Range action;
+
+        Task(int start, int end, int grain, Range action) {
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.end - this.start <= this.grain) {
+                this.action.accept(this.start, this.end);
+                return;
+            }
+
+            int mid = (this.start + this.end) >>> 1;
+
+            invokeAll(
+                new Task(this.start, mid, this.grain, this.action),
+                new Task(mid, this.end, this.grain, this.action)
+            );
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.util;
+
+/**
+ * Scalar kernels, used when the Vector API is not available
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+final class ScalarKernels implements Kernels {
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+
+    @Override
+    public int cols() {
+        return 4;
+    }
+
+    @Override
+    public void add(double[] x, double[] y, double[] z, int from, int to) {
+        for (int s = from; s < to; s++) {
+            z[s] = x[s] + y[s];
+        }
+    }
+
+    @Override
+    public void sub(double[] x, double[] y, double[] z, int from, int to) {
+        for (int s = from; s < to; s++) {
+            z[s] = x[s] - y[s];
+        }
+    }
+
+    @Override
+    public void mul(double[] x, double[] y, double[] z, int from, int to) {
+        for (int s = from; s < to; s++) {
+            z[s] = x[s] * y[s];
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, double[] y, int from, int to) {
+        for (int s = from; s < to; s++) {
+            y[s] += alpha * x[s];
+        }
+    }
+
+    @Override
+    public void axpy(
+        double alpha,
+        double[] x, int xOff,
+        double[] y, int yOff,
+        int length
+    ) {
+        for (int s = 0; s < length; s++) {
+            y[yOff + s] += alpha * x[xOff + s];
+        }
+    }
+
+    @Override
+    public void scale(double alpha, double[] x, int from, int to) {
+        for (int s = from; s < to; s++) {
+            x[s] *= alpha;
+        }
+    }
+
+    @Override
+    public void shift(double value, double[] x, int from, int to) {
+        for (int s = from; s < to; s++) {
+            x[s] += value;
+        }
+    }
+
+    @Override
+    public void sgd(
+        double[] w, double[] g, double[] v,
+        int from, int to,
+        double lr, double momentum, boolean nesterov, double decay
+    ) {
+        if (v == null) {
+            for (int s = from; s < to; s++) {
+                w[s] -= lr * (g[s] + decay * w[s]);
+            }
+
+            return;
+        }
+
+        for (int s = from; s < to; s++) {
+            double d = g[s] + decay * w[s];
+            double u = momentum * v[s] + d;
+
+            v[s] = u;
+            w[s] -= lr * (nesterov ? d + momentum * u : u);
+        }
+    }
+
+    @Override
+    public void rmsprop(
+        double[] w, double[] g, double[] s,
+        int from, int to,
+        double lr, double rho, double epsilon, double decay
+    ) {
+        for (int i = from; i < to; i++) {
+            double d = g[i] + decay * w[i];
+            double r = rho * s[i] + (1d - rho) * d * d;
+
+            s[i] = r;
+            w[i] -= lr * d / (Math.sqrt(r) + epsilon);
+        }
+    }
+
+    @Override
+    public void adam(
+        double[] w, double[] g, double[] m, double[] v,
+        int from, int to,
+        double lr, double beta1, double beta2, double epsilon,
+        double c1, double c2,
+        double decay, boolean decoupled
+    ) {
+        double coupled = decoupled ? 0d : decay;
+        double shrink = decoupled ? 1d - lr * decay : 1d;
+
+        for (int s = from; s < to; s++) {
+            double d = g[s] + coupled * w[s];
+            double a = beta1 * m[s] + (1d - beta1) * d;
+            double b = beta2 * v[s] + (1d - beta2) * d * d;
+
+            m[s] = a;
+            v[s] = b;
+            w[s] = shrink * w[s] - lr * c1 * a / (c2 * Math.sqrt(b) + epsilon);
+        }
+    }
+
+    @Override
+    public double sum(double[] x, int from, int to) {
+        double sum = 0d;
+
+        for (int s = from; s < to; s++) {
+            sum += x[s];
+        }
+
+        return sum;
+    }
+
+    @Override
+    public double min(double[] x, int from, int to) {
+        double min = Double.POSITIVE_INFINITY;
+
+        for (int s = from; s < to; s++) {
+            min = Math.min(min, x[s]);
+        }
+
+        return min;
+    }
+
+    @Override
+    public double max(double[] x, int from, int to) {
+        double max = Double.NEGATIVE_INFINITY;
+
+        for (int s = from; s < to; s++) {
+            max = Math.max(max, x[s]);
+        }
+
+        return max;
+    }
+
+    @Override
+    public void dot(
+        int rows, int cols, int k,
+        byte[] a, int aOff, int lda,
+        byte[] b, int bOff, int ldb,
+        int[] c, int cOff, int ldc
+    ) {
+        for (int i = 0; i < rows; i++) {
+            int ci = cOff + i * ldc;
+
+            for (int j = 0; j < cols; j++) {
+                c[ci + j] = 0;
+            }
+
+            for (int p = 0; p < k; p++) {
+                int aip = a[aOff + i * lda + p];
+                int bp = bOff + p * ldb;
+
+                for (int j = 0; j < cols; j++) {
+                    c[ci + j] += aip * b[bp + j];
+                }
+            }
+        }
+    }
+
+    @Override
+    public void relu(double[] x, double[] y, int from, int to) {
+        for (int s = from; s < to; s++) {
+            y[s] = Math.max(0d, x[s]);
+        }
+    }
+
+    @Override
+    public void reluDerivative(double[] x, double[] y, int from, int to) {
+        for (int s = from; s < to; s++) {
+            y[s] = x[s] > 0d ? 1d : 0d;
+        }
+    }
+
+    @Override
+    public void sigmoid(double[] x, double[] y, int from, int to) {
+        for (int s = from; s < to; s++) {
+            y[s] = 1d / (1d + Math.exp(-x[s]));
+        }
+    }
+
+    @Override
+    public void sigmoidDerivative(double[] x, double[] y, int from, int to) {
+        for (int s = from; s < to; s++) {
+            y[s] = x[s] * (1 - x[s]);
+        }
+    }
+
+    @Override
+    public void tile(
+        int kc,
+        double[] a, int aOff, int rsa, int csa,
+        double[] panel, int bp,
+        double[] c, int cOff, int ldc,
+        boolean first, double[] bias, int col
+    ) {
+        double c00 = 0d, c01 = 0d, c02 = 0d, c03 = 0d;
+        double c10 = 0d, c11 = 0d, c12 = 0d, c13 = 0d;
+        double c20 = 0d, c21 = 0d, c22 = 0d, c23 = 0d;
+        double c30 = 0d, c31 = 0d, c32 = 0d, c33 = 0d;
+
+        if (bias != null) {
+            c00 = c10 = c20 = c30 = bias[col];
+            c01 = c11 = c21 = c31 = bias[col + 1];
+            c02 = c12 = c22 = c32 = bias[col + 2];
+            c03 = c13 = c23 = c33 = bias[col + 3];
+        }
+
+        int a0 = aOff;
+        int a1 = a0 + rsa;
+        int a2 = a1 + rsa;
+        int a3 = a2 + rsa;
+
+        for (int p = 0; p < kc; p++, bp += 4) {
+            double b0 = panel[bp];
+            double b1 = panel[bp + 1];
+            double b2 = panel[bp + 2];
+            double b3 = panel[bp + 3];
+
+            double x = a[a0];
+            c00 += x * b0;
+            c01 += x * b1;
+            c02 += x * b2;
+            c03 += x * b3;
+
+            x = a[a1];
+            c10 += x * b0;
+            c11 += x * b1;
+            c12 += x * b2;
+            c13 += x * b3;
+
+            x = a[a2];
+            c20 += x * b0;
+            c21 += x * b1;
+            c22 += x * b2;
+            c23 += x * b3;
+
+            x = a[a3];
+            c30 += x * b0;
+            c31 += x * b1;
+            c32 += x * b2;
+            c33 += x * b3;
+
+            a0 += csa;
+            a1 += csa;
+            a2 += csa;
+            a3 += csa;
+        }
+
+        int c0 = cOff;
+        int c1 = c0 + ldc;
+        int c2 = c1 + ldc;
+        int c3 = c2 + ldc;
+
+        if (first) {
+            c[c0] = c00; c[c0 + 1] = c01; c[c0 + 2] = c02; c[c0 + 3] = c03;
+            c[c1] = c10; c[c1 + 1] = c11; c[c1 + 2] = c12; c[c1 + 3] = c13;
+            c[c2] = c20; c[c2 + 1] = c21; c[c2 + 2] = c22; c[c2 + 3] = c23;
+            c[c3] = c30; c[c3 + 1] = c31; c[c3 + 2] = c32; c[c3 + 3] = c33;
+        } else {
+            c[c0] += c00; c[c0 + 1] += c01; c[c0 + 2] += c02; c[c0 + 3] += c03;
+            c[c1] += c10; c[c1 + 1] += c11; c[c1 + 2] += c12; c[c1 + 3] += c13;
+            c[c2] += c20; c[c2 + 1] += c21; c[c2 + 2] += c22; c[c2 + 3] += c23;
+            c[c3] += c30; c[c3 + 1] += c31; c[c3 + 2] += c32; c[c3 + 3] += c33;
+        }
+    }
+}
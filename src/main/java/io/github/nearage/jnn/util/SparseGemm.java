@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.util;
+
+import io.github.nearage.jnn.input.Sparse;
+import java.util.Arrays;
+
+/**
+ * Matrix multiplication with a sparse operand
+ * 
+ * Computes C = C0 + alpha * A * B where either A or B is {@link Sparse} and the
+ * other one is a dense array addressed like in {@link Gemm}, and C0 is either
+ * C, a bias row or zero. Only the non-zeros of the sparse operand are visited,
+ * so the cost is proportional to them instead of to its size.
+ * 
+ * The sparse operand may be used transposed. When its lines are the rows of
+ * C, each row of C is gathered from its non-zeros. Otherwise they are
+ * scattered into C, which only touches the rows of C they belong to. Rows of C
+ * are split across the threads of {@link Parallel}, or cols when scattering,
+ * so the reduction always runs in the same order.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+public final class SparseGemm {
+
+    private SparseGemm() {
+    }
+
+    /**
+     * Multiplies A (m x k, sparse) by B (k x n) into C (m x n)
+     * 
+     * @param a sparse A, before transposing
+     * @param transA whether to use A transposed
+     * @param n cols of B and C
+     * @param b data of B
+     * @param bOff offset of B
+     * @param rsb row stride of B
+     * @param csb col stride of B
+     * @param c data of C
+     * @param cOff offset of C
+     * @param ldc row stride of C
+     * @param alpha value to multiply the product by
+     * @param accumulate whether to add the product to C instead of
+     * overwriting it
+     * @param bias bias for each col of C when it is overwritten, or null
+     * @param epilogue epilogue applied to C, or null
+     */
+    public static void multiply(
+        Sparse a, boolean transA,
+        int n,
+        double[] b, int bOff, int rsb, int csb,
+        double[] c, int cOff, int ldc,
+        double alpha, boolean accumulate,
+        double[] bias, Gemm.Epilogue epilogue
+    ) {
+        int m = transA ? a.cols() : a.rows();
+        int[] pointers = a.pointers();
+        int[] indices = a.indices();
+        double[] values = a.values();
+        long work = (long) a.nonZeros() * n;
+
+        if (m == 0 || n == 0) {
+            return;
+        }
+
+        // Lines of A are the rows of C
+        if (a.byCols() == transA) {
+            Parallel.forRange(0, m, grain(m, work), (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    int ci = cOff + i * ldc;
+
+                    clear(c, ci, n, accumulate, bias);
+
+                    for (int s = pointers[i]; s < pointers[i + 1]; s++) {
+                        row(
+                            alpha * values[s],
+                            b, bOff + indices[s] * rsb, csb,
+                            c, ci,
+                            0, n
+                        );
+                    }
+                }
+
+                if (epilogue != null) {
+                    epilogue.apply(c, cOff + from * ldc, to - from, n, ldc);
+                }
+            });
+
+            return;
+        }
+
+        // Lines of A are the rows of B, scattered into the rows of C
+        int k = pointers.length - 1;
+
+        Parallel.forRange(0, m, grain(m, (long) m * n), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                clear(c, cOff + i * ldc, n, accumulate, bias);
+            }
+        });
+
+        Parallel.forRange(0, n, grain(n, work), (from, to) -> {
+            for (int p = 0; p < k; p++) {
+                int bp = bOff + p * rsb;
+
+                for (int s = pointers[p]; s < pointers[p + 1]; s++) {
+                    row(
+                        alpha * values[s],
+                        b, bp, csb,
+                        c, cOff + indices[s] * ldc,
+                        from, to
+                    );
+                }
+            }
+        });
+
+        if (epilogue != null) {
+            Parallel.forRange(0, m, grain(m, (long) m * n), (from, to) -> {
+                epilogue.apply(c, cOff + from * ldc, to - from, n, ldc);
+            });
+        }
+    }
+
+    /**
+     * Multiplies A (m x k) by B (k x n, sparse) into C (m x n)
+     * 
+     * @param m rows of A and C
+     * @param a data of A
+     * @param aOff offset of A
+     * @param rsa row stride of A
+     * @param csa col stride of A
+     * @param b sparse B, before transposing
+     * @param transB whether to use B transposed
+     * @param c data of C
+     * @param cOff offset of C
+     * @param ldc row stride of C
+     * @param alpha value to multiply the product by
+     * @param accumulate whether to add the product to C instead of
+     * overwriting it
+     * @param bias bias for each col of C when it is overwritten, or null
+     * @param epilogue epilogue applied to C, or null
+     */
+    public static void multiply(
+        int m,
+        double[] a, int aOff, int rsa, int csa,
+        Sparse b, boolean transB,
+        double[] c, int cOff, int ldc,
+        double alpha, boolean accumulate,
+        double[] bias, Gemm.Epilogue epilogue
+    ) {
+        int n = transB ? b.rows() : b.cols();
+        int[] pointers = b.pointers();
+        int[] indices = b.indices();
+        double[] values = b.values();
+        int lines = pointers.length - 1;
+        boolean gather = b.byCols() != transB;
+
+        if (m == 0 || n == 0) {
+            return;
+        }
+
+        Parallel.forRange(0, m, grain(m, (long) m * b.nonZeros()), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int ai = aOff + i * rsa;
+                int ci = cOff + i * ldc;
+
+                clear(c, ci, n, accumulate, bias);
+
+                // Lines of B are the cols of C, each one a sparse dot
+                if (gather) {
+                    for (int j = 0; j < lines; j++) {
+                        double sum = 0d;
+
+                        for (int s = pointers[j]; s < pointers[j + 1]; s++) {
+                            sum += a[ai + indices[s] * csa] * values[s];
+                        }
+
+                        c[ci + j] += alpha * sum;
+                    }
+
+                    continue;
+                }
+
+                // Lines of B are its rows, scattered into the row of C
+                for (int p = 0; p < lines; p++) {
+                    double x = a[ai + p * csa];
+
+                    if (x == 0d) {
+                        continue;
+                    }
+
+                    x *= alpha;
+
+                    for (int s = pointers[p]; s < pointers[p + 1]; s++) {
+                        c[ci + indices[s]] += x * values[s];
+                    }
+                }
+            }
+
+            if (epilogue != null) {
+                epilogue.apply(c, cOff + from * ldc, to - from, n, ldc);
+            }
+        });
+    }
+
+    /**
+     * Clears a row of C to the bias or to zero, unless it is accumulated
+     */
+    private static void clear(
+        double[] c,
+        int ci,
+        int n,
+        boolean accumulate,
+        double[] bias
+    ) {
+        if (accumulate) {
+            return;
+        }
+
+        if (bias != null) {
+            System.arraycopy(bias, 0, c, ci, n);
+        } else {
+            Arrays.fill(c, ci, ci + n, 0d);
+        }
+    }
+
+    /**
+     * Adds [from, to) of a row of B, multiplied by x, to a row of C
+     */
+    private static void row(
+        double x,
+        double[] b, int bp, int csb,
+        double[] c, int ci,
+        int from, int to
+    ) {
+        if (csb == 1) {
+            Kernels.ACTIVE.axpy(x, b, bp + from, c, ci + from, to - from);
+            return;
+        }
+
+        for (int j = from; j < to; j++) {
+            c[ci + j] += x * b[bp + j * csb];
+        }
+    }
+
+    /**
+     * Gets the grain splitting a range across the threads, or the whole range
+     * if its work is too small to be split
+     */
+    private static int grain(int length, long work) {
+        if (work < Parallel.THRESHOLD) {
+            return length;
+        }
+
+        return (int) Math.max(1, Parallel.GRAIN * (long) length / work);
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.util;
+
+import io.github.nearage.jnn.input.Matrix;
+import io.github.nearage.jnn.input.Storage;
+
+/**
+ * Staging of off-heap operands
+ * 
+ * Kernels work on heap arrays. Operands off the heap are copied in small
+ * chunks to per-thread heap buffers, and results copied back, so their
+ * elements are never held on the heap all at once. Heap operands are used in
+ * place.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+final class Staging {
+
+    /**
+     * Number of elements staged at once by element-wise kernels
+     */
+    static final int CHUNK = 1 << 12;
+
+    /**
+     * Chunks of the current thread, one for each operand
+     */
+    private static final ThreadLocal<double[][]> CHUNKS = ThreadLocal.withInitial(
+        () -> new double[4][CHUNK]
+    );
+
+    /**
+     * Whole operands of the current thread, by slot
+     */
+    private static final ThreadLocal<double[][]> ARRAYS = ThreadLocal.withInitial(
+        () -> new double[3][0]
+    );
+
+    private Staging() {
+    }
+
+    /**
+     * Element-wise kernel over ranges of up to three arrays
+     */
+    @FunctionalInterface
+    interface Ternary {
+
+        /**
+         * Applies the kernel to [from, to) of each array
+         *
+         * @param x first operand, or null
+         * @param y second operand, or null
+         * @param z result, also read
+         * @param from first index, included
+         * @param to last index, excluded
+         */
+        void apply(double[] x, double[] y, double[] z, int from, int to);
+    }
+
+    /**
+     * Runs an element-wise kernel in parallel over matrices of the same size
+     *
+     * @param x first operand, or null
+     * @param y second operand, or null
+     * @param z result, also read, may be x or y
+     * @param kernel kernel
+     */
+    static void elementwise(Matrix x, Matrix y, Matrix z, Ternary kernel) {
+        if (
+            (x == null || x.isHeap())
+            && (y == null || y.isHeap())
+            && z.isHeap()
+        ) {
+            double[] xs = x == null ? null : x.array();
+            double[] ys = y == null ? null : y.array();
+            double[] zs = z.array();
+
+            Parallel.forRange(
+                0,
+                z.size,
+                Parallel.GRAIN,
+                (from, to) -> kernel.apply(xs, ys, zs, from, to)
+            );
+
+            return;
+        }
+
+        Parallel.forRange(0, z.size, Parallel.GRAIN, (from, to) -> {
+            double[][] chunks = CHUNKS.get();
+
+            for (int s = from; s < to; s += CHUNK) {
+                int length = Math.min(CHUNK, to - s);
+
+                if (x != null) {
+                    x.storage().get(s, chunks[0], 0, length);
+                }
+
+                if (y != null) {
+                    y.storage().get(s, chunks[1], 0, length);
+                }
+
+                z.storage().get(s, chunks[2], 0, length);
+                kernel.apply(chunks[0], chunks[1], chunks[2], 0, length);
+                z.storage().set(s, chunks[2], 0, length);
+            }
+        });
+    }
+
+    /**
+     * Runs an update kernel in parallel over a parameter, its gradient and its
+     * state, all of the same size, staging them chunk-wise if any of them is
+     * not on the heap
+     *
+     * @param w parameters, corrected in place
+     * @param g gradient
+     * @param m first state, updated in place, or null
+     * @param v second state, updated in place, or null
+     * @param kernel kernel
+     */
+    static void update(
+        Matrix w,
+        Matrix g,
+        Matrix m,
+        Matrix v,
+        Kernels.Update kernel
+    ) {
+        if (
+            w.isHeap()
+            && g.isHeap()
+            && (m == null || m.isHeap())
+            && (v == null || v.isHeap())
+        ) {
+            double[] ws = w.array();
+            double[] gs = g.array();
+            double[] ms = m == null ? null : m.array();
+            double[] vs = v == null ? null : v.array();
+
+            Parallel.forRange(
+                0,
+                w.size,
+                Parallel.GRAIN,
+                (from, to) -> kernel.apply(ws, gs, ms, vs, from, to)
+            );
+
+            return;
+        }
+
+        Parallel.forRange(0, w.size, Parallel.GRAIN, (from, to) -> {
+            double[][] chunks = CHUNKS.get();
+            double[] ms = m == null ? null : chunks[2];
+            double[] vs = v == null ? null : chunks[3];
+
+            for (int s = from; s < to; s += CHUNK) {
+                int length = Math.min(CHUNK, to - s);
+
+                w.storage().get(s, chunks[0], 0, length);
+                g.storage().get(s, chunks[1], 0, length);
+
+                if (m != null) {
+                    m.storage().get(s, ms, 0, length);
+                }
+
+                if (v != null) {
+                    v.storage().get(s, vs, 0, length);
+                }
+
+                kernel.apply(chunks[0], chunks[1], ms, vs, 0, length);
+                w.storage().set(s, chunks[0], 0, length);
+
+                if (m != null) {
+                    m.storage().set(s, ms, 0, length);
+                }
+
+                if (v != null) {
+                    v.storage().set(s, vs, 0, length);
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets the elements of a matrix as a heap array, copying them to the
+     * buffer of the given slot if the matrix is off the heap
+     *
+     * @param matrix matrix
+     * @param slot slot of the buffer, from 0 to 2
+     * @param read whether to copy the elements, or only the buffer is needed
+     *
+     * @return the array
+     */
+    static double[] array(Matrix matrix, int slot, boolean read) {
+        if (matrix.isHeap()) {
+            return matrix.array();
+        }
+
+        double[][] arrays = ARRAYS.get();
+
+        if (arrays[slot].length < matrix.size) {
+            arrays[slot] = new double[matrix.size];
+        }
+
+        if (read) {
+            matrix.storage().get(0, arrays[slot], 0, matrix.size);
+        }
+
+        return arrays[slot];
+    }
+
+    /**
+     * Gets the heap array holding the elements of a matrix in row-major order,
+     * either its own array or the one of the heap matrix it is a view of
+     *
+     * @param matrix matrix
+     *
+     * @return the array, or null if the elements are not in a heap array
+     */
+    static double[] base(Matrix matrix) {
+        if (matrix.isHeap()) {
+            return matrix.array();
+        }
+
+        Storage.View view = view(matrix);
+
+        return view != null ? view.parent().array() : null;
+    }
+
+    /**
+     * Gets the offset of a matrix in its {@link #base} array
+     *
+     * @param matrix matrix
+     *
+     * @return the offset
+     */
+    static int offset(Matrix matrix) {
+        Storage.View view = view(matrix);
+
+        return view != null ? view.offset() : 0;
+    }
+
+    /**
+     * Gets the row stride of a matrix in its {@link #base} array
+     *
+     * @param matrix matrix
+     *
+     * @return the row stride
+     */
+    static int stride(Matrix matrix) {
+        Storage.View view = view(matrix);
+
+        return view != null ? view.stride() : matrix.cols;
+    }
+
+    /**
+     * Gets the view of a heap array backing a matrix with the shape of the
+     * view, or null
+     */
+    private static Storage.View view(Matrix matrix) {
+        if (!(matrix.storage() instanceof Storage.View)) {
+            return null;
+        }
+
+        Storage.View view = (Storage.View) matrix.storage();
+
+        if (view.cols() != matrix.cols || view.parent().array() == null) {
+            return null;
+        }
+
+        return view;
+    }
+
+    /**
+     * Copies an array staged by {@link #array} back to its matrix
+     *
+     * @param matrix matrix
+     * @param array staged array
+     */
+    static void commit(Matrix matrix, double[] array) {
+        if (!matrix.isHeap()) {
+            matrix.storage().set(0, array, 0, matrix.size);
+        }
+    }
+}
@@ -0,0 +1,578 @@
+/*
+ * Copyright (C) 2023 Nearage <https://github.com/Nearage>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.github.nearage.jnn.util;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD kernels built on the Vector API, using the widest lanes of the
+ * hardware (4 doubles with AVX2, 8 with AVX-512)
+ * 
+ * Only loaded through {@link Kernels#ACTIVE} when the jdk.incubator.vector
+ * module is present.
+ * 
+ * @author Nearage <https://github.com/Nearage>
+ */
+final class VectorKernels implements Kernels {
+
+    /**
+     * Preferred species of the hardware
+     */
+    private static final VectorSpecies<Double> S = DoubleVector.SPECIES_PREFERRED;
+
+    /**
+     * Number of lanes
+     */
+    private static final int L = S.length();
+
+    /**
+     * Preferred species of 32-bit integers
+     */
+    private static final VectorSpecies<Integer> I = IntVector.SPECIES_PREFERRED;
+
+    /**
+     * Species of 8-bit integers with as many lanes as I
+     */
+    private static final VectorSpecies<Byte> B = VectorSpecies.of(
+        byte.class,
+        VectorShape.forBitSize(I.vectorBitSize() / 4)
+    );
+
+    /**
+     * Creates the kernels, failing on hardware with less than 256-bit lanes
+     * where the scalar kernels are faster
+     */
+    VectorKernels() {
+        if (L < 4) {
+            throw new UnsupportedOperationException(String.format(
+                "Unsupported vector species, %s",
+                S
+            ));
+        }
+    }
+
+    @Override
+    public String name() {
+        return "vector " + S.vectorBitSize() + "-bit";
+    }
+
+    @Override
+    public int cols() {
+        return 2 * L;
+    }
+
+    @Override
+    public void add(double[] x, double[] y, double[] z, int from, int to) {
+        int s = from;
+
+        for (int bound = from + S.loopBound(to - from); s < bound; s += L) {
+            DoubleVector.fromArray(S, x, s)
+                .add(DoubleVector.fromArray(S, y, s))
+                .intoArray(z, s);
+        }
+
+        for (; s < to; s++) {
+            z[s] = x[s] + y[s];
+        }
+    }
+
+    @Override
+    public void sub(double[] x, double[] y, double[] z, int from, int to) {
+        int s = from;
+
+        for (int bound = from + S.loopBound(to - from); s < bound; s += L) {
+            DoubleVector.fromArray(S, x, s)
+                .sub(DoubleVector.fromArray(S, y, s))
+                .intoArray(z, s);
+        }
+
+        for (; s < to; s++) {
+            z[s] = x[s] - y[s];
+        }
+    }
+
+    @Override
+    public void mul(double[] x, double[] y, double[] z, int from, int to) {
+        int s = from;
+
+        for (int bound = from + S.loopBound(to - from); s < bound; s += L) {
+            DoubleVector.fromArray(S, x, s)
+                .mul(DoubleVector.fromArray(S, y, s))
+                .intoArray(z, s);
+        }
+
+        for (; s < to; s++) {
+            z[s] = x[s] * y[s];
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, double[] y, int from, int to) {
+        DoubleVector a = DoubleVector.broadcast(S, alpha);
+        int s = from;
+
+        for (int bound = from + S.loopBound(to - from); s < bound; s += L) {
+            DoubleVector.fromArray(S, x, s)
+                .fma(a, DoubleVector.fromArray(S, y, s))
+                .intoArray(y, s);
+        }
+
+        for (; s < to; s++) {
+            y[s] += alpha * x[s];
+        }
+    }
+
+    @Override
+    public void axpy(
+        double alpha,
+        double[] x, int xOff,
+        double[] y, int yOff,
+        int length
+    ) {
+        DoubleVector a = DoubleVector.broadcast(S, alpha);
+        int s = 0;
+
+        for (int bound = S.loopBound(length); s < bound; s += L) {
+            DoubleVector.fromArray(S, x, xOff + s)
+                .fma(a, DoubleVector.fromArray(S, y, yOff + s))
+                .intoArray(y, yOff + s);
+        }
+
+        for (; s < length; s++) {
+            y[yOff + s] += alpha * x[xOff + s];
+        }
+    }
+
+    @Override
+    public void scale(double alpha, double[] x, int from, int to) {
+        int s = from;
+
+        for (int bound = from + S.loopBound(to - from); s < bound; s += L) {
+            DoubleVector.fromArray(S, x, s).mul(alpha).intoArray(x, s);
+        }
+
+        for (; s < to; s++) {
+            x[s] *= alpha;
+        }
+    }
+
+    @Override
+    public void shift(double value, double[] x, int from, int to) {
+        int s = from;
+
+        for (int bound = from + S.loopBound(to - from); s < bound; s += L) {
+            DoubleVector.fromArray(S, x, s).add(value).intoArray(x, s);
+        }
+
+        for (; s < to; s++) {
+            x[s] += value;
+        }
+    }
+
+    @Override
+    public void sgd(
+        double[] w, double[] g, double[] v,
+        int from, int to,
+        double lr, double momentum, boolean nesterov, double decay
+    ) {
+        DoubleVector rate = DoubleVector.broadcast(S, -lr);
+        DoubleVector lambda = DoubleVector.broadcast(S, decay);
+        DoubleVector mu = DoubleVector.broadcast(S, momentum);
+        int s = from;
+
+        for (int bound = from + S.loopBound(to - from); s < bound; s += L) {
+            DoubleVector x = DoubleVector.fromArray(S, w, s);
+            DoubleVector d = x.fma(lambda, DoubleVector.fromArray(S, g, s));
+
+            if (v != null) {
+                DoubleVector u = DoubleVector.fromArray(S, v, s).fma(mu, d);
+
+                u.intoArray(v, s);
+                d = nesterov ? u.fma(mu, d) : u;
+            }
+
+            d.fma(rate, x).intoArray(w, s);
+        }
+
+        for (; s < to; s++) {
+            double d = g[s] + decay * w[s];
+
+            if (v != null) {
+                double u = momentum * v[s] + d;
+
+                v[s] = u;
+                d = nesterov ? d + momentum * u : u;
+            }
+
+            w[s] -= lr * d;
+        }
+    }
+
+    @Override
+    public void rmsprop(
+        double[] w, double[] g, double[] s,
+        int from, int to,
+        double lr, double rho, double epsilon, double decay
+    ) {
+        DoubleVector rate = DoubleVector.broadcast(S, -lr);
+        DoubleVector lambda = DoubleVector.broadcast(S, decay);
+        DoubleVector keep = DoubleVector.broadcast(S, rho);
+        DoubleVector take = DoubleVector.broadcast(S, 1d - rho);
+        int i = from;
+
+        for (int bound = from + S.loopBound(to - from); i < bound; i += L) {
+            DoubleVector x = DoubleVector.fromArray(S, w, i);
+            DoubleVector d = x.fma(lambda, DoubleVector.fromArray(S, g, i));
+            DoubleVector r = DoubleVector.fromArray(S, s, i)
+                .mul(keep)
+                .add(d.mul(d).mul(take));
+
+            r.intoArray(s, i);
+            d.div(r.sqrt().add(epsilon)).fma(rate, x).intoArray(w, i);
+        }
+
+        for (; i < to; i++) {
+            double d = g[i] + decay * w[i];
+            double r = rho * s[i] + (1d - rho) * d * d;
+
+            s[i] = r;
+            w[i] -= lr * d / (Math.sqrt(r) + epsilon);
+        }
+    }
+
+    @Override
+    public void adam(
+        double[] w, double[] g, double[] m, double[] v,
+        int from, int to,
+        double lr, double beta1, double beta2, double epsilon,
+        double c1, double c2,
+        double decay, boolean decoupled
+    ) {
+        double coupled = decoupled ? 0d : decay;
+        double shrink = decoupled ? 1d - lr * decay : 1d;
+
+        DoubleVector lambda = DoubleVector.broadcast(S, coupled);
+        DoubleVector scale = DoubleVector.broadcast(S, shrink);
+        DoubleVector rate = DoubleVector.broadcast(S, -lr * c1);
+        DoubleVector root = DoubleVector.broadcast(S, c2);
+        DoubleVector b1 = DoubleVector.broadcast(S, beta1);
+        DoubleVector b2 = DoubleVector.broadcast(S, beta2);
+        DoubleVector t1 = DoubleVector.broadcast(S, 1d - beta1);
+        DoubleVector t2 = DoubleVector.broadcast(S, 1d - beta2);
+        int s = from;
+
+        for (int bound = from + S.loopBound(to - from); s < bound; s += L) {
+            DoubleVector x = DoubleVector.fromArray(S, w, s);
+            DoubleVector d = x.fma(lambda, DoubleVector.fromArray(S, g, s));
+            DoubleVector a = DoubleVector.fromArray(S, m, s)
+                .mul(b1)
+                .add(d.mul(t1));
+            DoubleVector b = DoubleVector.fromArray(S, v, s)
+                .mul(b2)
+                .add(d.mul(d).mul(t2));
+
+            a.intoArray(m, s);
+            b.intoArray(v, s);
+            a.div(b.sqrt().fma(root, DoubleVector.broadcast(S, epsilon)))
+                .fma(rate, x.mul(scale))
+                .intoArray(w, s);
+        }
+
+        for (; s < to; s++) {
+            double d = g[s] + coupled * w[s];
+            double a = beta1 * m[s] + (1d - beta1) * d;
+            double b = beta2 * v[s] + (1d - beta2) * d * d;
+
+            m[s] = a;
+            v[s] = b;
+            w[s] = shrink * w[s] - lr * c1 * a / (c2 * Math.sqrt(b) + epsilon);
+        }
+    }
+
+    @Override
+    public double sum(double[] x, int from, int to) {
+        DoubleVector acc = DoubleVector.zero(S);
+        int s = from;
+
+        for (int bound = from + S.loopBound(to - from); s < bound; s += L) {
+            acc = acc.add(DoubleVector.fromArray(S, x, s));
+        }
+
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+
+        for (; s < to; s++) {
+            sum += x[s];
+        }
+
+        return sum;
+    }
+
+    @Override
+    public double min(double[] x, int from, int to) {
+        DoubleVector acc = DoubleVector.broadcast(S, Double.POSITIVE_INFINITY);
+        int s = from;
+
+        for (int bound = from + S.loopBound(to - from); s < bound; s += L) {
+            acc = acc.min(DoubleVector.fromArray(S, x, s));
+        }
+
+        double min = acc.reduceLanes(VectorOperators.MIN);
+
+        for (; s < to; s++) {
+            min = Math.min(min, x[s]);
+        }
+
+        return min;
+    }
+
+    @Override
+    public double max(double[] x, int from, int to) {
+        DoubleVector acc = DoubleVector.broadcast(S, Double.NEGATIVE_INFINITY);
+        int s = from;
+
+        for (int bound = from + S.loopBound(to - from); s < bound; s += L) {
+            acc = acc.max(DoubleVector.fromArray(S, x, s));
+        }
+
+        double max = acc.reduceLanes(VectorOperators.MAX);
+
+        for (; s < to; s++) {
+            max = Math.max(max, x[s]);
+        }
+
+        return max;
+    }
+
+    @Override
+    public void dot(
+        int rows, int cols, int k,
+        byte[] a, int aOff, int lda,
+        byte[] b, int bOff, int ldb,
+        int[] c, int cOff, int ldc
+    ) {
+        int lanes = I.length();
+        int j = 0;
+
+        // Each widened vector of B is multiplied by every row of A
+        for (; rows == 4 && j + lanes <= cols; j += lanes) {
+            IntVector c0 = IntVector.zero(I);
+            IntVector c1 = IntVector.zero(I);
+            IntVector c2 = IntVector.zero(I);
+            IntVector c3 = IntVector.zero(I);
+
+            for (int p = 0, bp = bOff + j; p < k; p++, bp += ldb) {
+                IntVector bv = (IntVector) ByteVector.fromArray(B, b, bp)
+                    .convertShape(VectorOperators.B2I, I, 0);
+                int ap = aOff + p;
+
+                c0 = c0.add(bv.mul(a[ap]));
+                c1 = c1.add(bv.mul(a[ap + lda]));
+                c2 = c2.add(bv.mul(a[ap + 2 * lda]));
+                c3 = c3.add(bv.mul(a[ap + 3 * lda]));
+            }
+
+            c0.intoArray(c, cOff + j);
+            c1.intoArray(c, cOff + ldc + j);
+            c2.intoArray(c, cOff + 2 * ldc + j);
+            c3.intoArray(c, cOff + 3 * ldc + j);
+        }
+
+        for (; j + lanes <= cols; j += lanes) {
+            for (int i = 0; i < rows; i++) {
+                IntVector acc = IntVector.zero(I);
+
+                for (int p = 0, bp = bOff + j; p < k; p++, bp += ldb) {
+                    IntVector bv = (IntVector) ByteVector.fromArray(B, b, bp)
+                        .convertShape(VectorOperators.B2I, I, 0);
+
+                    acc = acc.add(bv.mul(a[aOff + i * lda + p]));
+                }
+
+                acc.intoArray(c, cOff + i * ldc + j);
+            }
+        }
+
+        for (int i = 0; i < rows && j < cols; i++) {
+            int ci = cOff + i * ldc;
+
+            for (int jj = j; jj < cols; jj++) {
+                c[ci + jj] = 0;
+            }
+
+            for (int p = 0; p < k; p++) {
+                int aip = a[aOff + i * lda + p];
+                int bp = bOff + p * ldb;
+
+                for (int jj = j; jj < cols; jj++) {
+                    c[ci + jj] += aip * b[bp + jj];
+                }
+            }
+        }
+    }
+
+    @Override
+    public void relu(double[] x, double[] y, int from, int to) {
+        int s = from;
+
+        for (int bound = from + S.loopBound(to - from); s < bound; s += L) {
+            DoubleVector.fromArray(S, x, s).max(0d).intoArray(y, s);
+        }
+
+        for (; s < to; s++) {
+            y[s] = Math.max(0d, x[s]);
+        }
+    }
+
+    @Override
+    public void reluDerivative(double[] x, double[] y, int from, int to) {
+        DoubleVector zero = DoubleVector.zero(S);
+        DoubleVector one = DoubleVector.broadcast(S, 1d);
+        int s = from;
+
+        for (int bound = from + S.loopBound(to - from); s < bound; s += L) {
+            VectorMask<Double> positive = DoubleVector.fromArray(S, x, s)
+                .compare(VectorOperators.GT, 0d);
+
+            zero.blend(one, positive).intoArray(y, s);
+        }
+
+        for (; s < to; s++) {
+            y[s] = x[s] > 0d ? 1d : 0d;
+        }
+    }
+
+    @Override
+    public void sigmoid(double[] x, double[] y, int from, int to) {
+        DoubleVector one = DoubleVector.broadcast(S, 1d);
+        int s = from;
+
+        for (int bound = from + S.loopBound(to - from); s < bound; s += L) {
+            one.div(
+                DoubleVector.fromArray(S, x, s)
+                    .neg()
+                    .lanewise(VectorOperators.EXP)
+                    .add(1d)
+            ).intoArray(y, s);
+        }
+
+        for (; s < to; s++) {
+            y[s] = 1d / (1d + Math.exp(-x[s]));
+        }
+    }
+
+    @Override
+    public void sigmoidDerivative(double[] x, double[] y, int from, int to) {
+        int s = from;
+
+        for (int bound = from + S.loopBound(to - from); s < bound; s += L) {
+            DoubleVector v = DoubleVector.fromArray(S, x, s);
+
+            v.mul(v.neg().add(1d)).intoArray(y, s);
+        }
+
+        for (; s < to; s++) {
+            y[s] = x[s] * (1 - x[s]);
+        }
+    }
+
+    @Override
+    public void tile(
+        int kc,
+        double[] a, int aOff, int rsa, int csa,
+        double[] panel, int bp,
+        double[] c, int cOff, int ldc,
+        boolean first, double[] bias, int col
+    ) {
+        // Two vectors of cols for each of the four rows, eight independent
+        // accumulators keep the FMA units busy
+        DoubleVector c00 = DoubleVector.zero(S);
+        DoubleVector c01 = c00;
+        DoubleVector c10 = c00;
+        DoubleVector c11 = c00;
+        DoubleVector c20 = c00;
+        DoubleVector c21 = c00;
+        DoubleVector c30 = c00;
+        DoubleVector c31 = c00;
+
+        if (bias != null) {
+            c00 = c10 = c20 = c30 = DoubleVector.fromArray(S, bias, col);
+            c01 = c11 = c21 = c31 = DoubleVector.fromArray(S, bias, col + L);
+        }
+
+        int a0 = aOff;
+        int a1 = a0 + rsa;
+        int a2 = a1 + rsa;
+        int a3 = a2 + rsa;
+        int nr = 2 * L;
+
+        for (int p = 0; p < kc; p++, bp += nr) {
+            DoubleVector b0 = DoubleVector.fromArray(S, panel, bp);
+            DoubleVector b1 = DoubleVector.fromArray(S, panel, bp + L);
+
+            DoubleVector x = DoubleVector.broadcast(S, a[a0]);
+            c00 = x.fma(b0, c00);
+            c01 = x.fma(b1, c01);
+
+            x = DoubleVector.broadcast(S, a[a1]);
+            c10 = x.fma(b0, c10);
+            c11 = x.fma(b1, c11);
+
+            x = DoubleVector.broadcast(S, a[a2]);
+            c20 = x.fma(b0, c20);
+            c21 = x.fma(b1, c21);
+
+            x = DoubleVector.broadcast(S, a[a3]);
+            c30 = x.fma(b0, c30);
+            c31 = x.fma(b1, c31);
+
+            a0 += csa;
+            a1 += csa;
+            a2 += csa;
+            a3 += csa;
+        }
+
+        store(c00, c01, c, cOff, first);
+        store(c10, c11, c, cOff + ldc, first);
+        store(c20, c21, c, cOff + 2 * ldc, first);
+        store(c30, c31, c, cOff + 3 * ldc, first);
+    }
+
+    /**
+     * Stores a row of a tile into C
+     */
+    private static void store(
+        DoubleVector lo,
+        DoubleVector hi,
+        double[] c,
+        int offset,
+        boolean first
+    ) {
+        if (!first) {
+            lo = lo.add(DoubleVector.fromArray(S, c, offset));
+            hi = hi.add(DoubleVector.fromArray(S, c, offset + L));
+        }
+
+        lo.intoArray(c, offset);
+        hi.intoArray(c, offset + L);
+    }
+}